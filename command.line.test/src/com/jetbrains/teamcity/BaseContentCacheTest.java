@@ -0,0 +1,82 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BaseContentCacheTest {
+
+  private File myRoot;
+  private BaseContentCache myCache;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myCache = new BaseContentCache(new File(myRoot, "bases"));
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void text_content_kept() throws Exception {
+    final File file = new File(myRoot, "file.txt");
+    Files.write(file.toPath(), "text\n".getBytes("US-ASCII"));
+    assertNull(myCache.get(file));
+
+    myCache.update(file);
+    Files.write(file.toPath(), "changed\n".getBytes("US-ASCII"));
+
+    final BaseContentCache.Base base = myCache.get(file);
+    assertNotNull(base);
+    assertEquals("text\n", new String(Files.readAllBytes(base.getContent().toPath()), "US-ASCII"));
+    assertEquals(BlobPatchWriter.hash(base.getContent()), base.getHash());
+    assertNull(myCache.get(new File(myRoot, "other.txt")));
+  }
+
+  @Test
+  public void binary_content_forgotten() throws Exception {
+    final File file = new File(myRoot, "file.bin");
+    Files.write(file.toPath(), "text\n".getBytes("US-ASCII"));
+    myCache.update(file);
+    assertNotNull(myCache.get(file));
+
+    Files.write(file.toPath(), new byte[] { 1, 0, 2 });
+    myCache.update(file);
+    assertNull(myCache.get(file));
+  }
+
+  @Test
+  public void least_recently_used_evicted() throws Exception {
+    final File file1 = new File(myRoot, "file1.txt");
+    final File file2 = new File(myRoot, "file2.txt");
+    final File file3 = new File(myRoot, "file3.txt");
+    Files.write(file1.toPath(), "text1\n".getBytes("US-ASCII"));
+    Files.write(file2.toPath(), "text2\n".getBytes("US-ASCII"));
+    Files.write(file3.toPath(), "text3\n".getBytes("US-ASCII"));
+    myCache.update(file1);
+    myCache.update(file2);
+    myCache.update(file3);
+    assertTrue(myCache.get(file1).getContent().setLastModified(System.currentTimeMillis() - 30000));
+    assertTrue(myCache.get(file2).getContent().setLastModified(System.currentTimeMillis() - 20000));
+    assertTrue(myCache.get(file3).getContent().setLastModified(System.currentTimeMillis() - 10000));
+    // used again: becomes the most recently used one
+    assertNotNull(myCache.get(file1));
+
+    myCache.evict(12);
+
+    assertNotNull(myCache.get(file1));
+    assertNull(myCache.get(file2));
+    assertNotNull(myCache.get(file3));
+    myCache.evict(0);
+    assertNull(myCache.get(file1));
+    assertNull(myCache.get(file3));
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BlobPatchWriterTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void hash() throws Exception {
+    final File file = new File(myRoot, "file");
+    Files.write(file.toPath(), "abc".getBytes("US-ASCII"));
+    assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", BlobPatchWriter.hash(file));
+
+    Files.write(file.toPath(), new byte[0]);
+    assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", BlobPatchWriter.hash(file));
+  }
+
+  @Test
+  public void operations() throws Exception {
+    final File file = new File(myRoot, "content");
+    final byte[] content = "content".getBytes("US-ASCII");
+    Files.write(file.toPath(), content);
+    final String hash = BlobPatchWriter.hash(file);
+
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    final PatchOutputStream out = new PatchOutputStream(patch);
+    final BlobPatchWriter writer = new BlobPatchWriter(out);
+    writer.changeBinary("a/changed", content.length, new PatchOutputStream.FileContent(file, content.length));
+    writer.changeBinary("a/known", 100000, hash);
+    writer.delete("a/deleted");
+    writer.close();
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(patch.toByteArray()));
+    assertEquals(BlobPatchWriter.VERSION, in.readInt());
+
+    assertEquals(BlobPatchWriter.CONTENT, in.readByte());
+    assertEquals("a/changed", in.readUTF());
+    assertEquals(content.length, in.readLong());
+    final byte[] read = new byte[content.length];
+    in.readFully(read);
+    assertArrayEquals(content, read);
+
+    assertEquals(BlobPatchWriter.REFERENCE, in.readByte());
+    assertEquals("a/known", in.readUTF());
+    assertEquals(hash, in.readUTF());
+    assertEquals(100000, in.readLong());
+
+    assertEquals(BlobPatchWriter.DELETE, in.readByte());
+    assertEquals("a/deleted", in.readUTF());
+
+    assertEquals(BlobPatchWriter.END, in.readByte());
+    assertEquals(-1, in.read());
+  }
+
+}
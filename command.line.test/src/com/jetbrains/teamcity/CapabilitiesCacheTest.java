@@ -0,0 +1,69 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CapabilitiesCacheTest {
+
+  private static final long TTL = 1000;
+
+  private File myRoot;
+  private File myFile;
+  private CapabilitiesCache myCache;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myFile = new File(new File(myRoot, CapabilitiesCache.CAPABILITIES_FOLDER), "server.properties");
+    myCache = new CapabilitiesCache(myFile);
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void empty() {
+    assertNull(myCache.get(TTL, 0));
+  }
+
+  @Test
+  public void valid() {
+    myCache.put(new CapabilitiesCache.Capabilities(true, false, 4096), 100);
+    final CapabilitiesCache.Capabilities capabilities = myCache.get(TTL, 100 + TTL - 1);
+    assertNotNull(capabilities);
+    assertTrue(capabilities.isCompressedUploadSupported());
+    assertFalse(capabilities.isBlobUploadSupported());
+    assertEquals(4096, capabilities.getMaxChunkSize());
+  }
+
+  @Test
+  public void expired() {
+    myCache.put(new CapabilitiesCache.Capabilities(true, true, 0), 100);
+    assertNull(myCache.get(TTL, 100 + TTL));
+    assertNull(myCache.get(TTL, 99));
+  }
+
+  @Test
+  public void cleared() {
+    myCache.put(new CapabilitiesCache.Capabilities(false, false, 0), 100);
+    myCache.clear();
+    assertNull(myCache.get(TTL, 100));
+  }
+
+  @Test
+  public void corrupted() throws Exception {
+    assertTrue(myFile.getParentFile().mkdirs());
+    try (FileOutputStream out = new FileOutputStream(myFile)) {
+      out.write("timestamp=never".getBytes());
+    }
+    assertNull(myCache.get(TTL, 0));
+  }
+
+}
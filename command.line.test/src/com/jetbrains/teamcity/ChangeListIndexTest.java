@@ -0,0 +1,93 @@
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChangeListIndexTest {
+
+  private File myRoot;
+  private ChangeListIndex myIndex;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myIndex = new ChangeListIndex(new File(myRoot, "changelists.properties"));
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void patch_key() throws Exception {
+    final Map<String, String> entries = new LinkedHashMap<String, String>();
+    entries.put("b/file", "hash1");
+    entries.put("a/file", "hash2");
+    entries.put("c/deleted", null);
+    final Map<String, String> reordered = new LinkedHashMap<String, String>();
+    reordered.put("c/deleted", null);
+    reordered.put("a/file", "hash2");
+    reordered.put("b/file", "hash1");
+
+    assertEquals(ChangeListIndex.getPatchKey("comment", entries), ChangeListIndex.getPatchKey("comment", reordered));
+    assertFalse(ChangeListIndex.getPatchKey("comment", entries).equals(ChangeListIndex.getPatchKey("other comment", entries)));
+    reordered.put("b/file", "hash3");
+    assertFalse(ChangeListIndex.getPatchKey("comment", entries).equals(ChangeListIndex.getPatchKey("comment", reordered)));
+  }
+
+  @Test
+  public void per_server() throws Exception {
+    myIndex.put("http://server1", "key", 10, "content1");
+    myIndex.put("http://server2", "key", 20, "content2");
+
+    final ChangeListIndex index = new ChangeListIndex(new File(myRoot, "changelists.properties"));
+    assertEquals(10, index.get("http://server1", "key").getChangeListId());
+    assertEquals("content1", index.get("http://server1", "key").getContentKey());
+    assertEquals(20, index.get("http://server2", "key").getChangeListId());
+    assertNull(index.get("http://server1", "other"));
+
+    index.remove("http://server1", "key");
+    assertNull(myIndex.get("http://server1", "key"));
+    assertEquals(20, myIndex.get("http://server2", "key").getChangeListId());
+  }
+
+  @Test
+  public void entry_without_content_key_ignored() throws Exception {
+    myIndex.put("http://server", "key", 10, "content");
+    final File file = new File(myRoot, "changelists.properties");
+    final Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+    }
+    for (final String key : properties.stringPropertyNames()) {
+      properties.setProperty(key, "10,100");
+    }
+    try (OutputStream out = new FileOutputStream(file)) {
+      properties.store(out, null);
+    }
+    assertNull(myIndex.get("http://server", "key"));
+  }
+
+  @Test
+  public void oldest_entries_evicted() throws Exception {
+    for (int i = 0; i <= ChangeListIndex.MAX_ENTRIES; i++) {
+      myIndex.put("http://server", "key" + i, i, "content");
+    }
+    int kept = 0;
+    for (int i = 0; i <= ChangeListIndex.MAX_ENTRIES; i++) {
+      if (myIndex.get("http://server", "key" + i) != null) {
+        kept++;
+      }
+    }
+    assertEquals(ChangeListIndex.MAX_ENTRIES, kept);
+  }
+
+}
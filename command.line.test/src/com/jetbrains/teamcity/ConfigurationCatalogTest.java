@@ -0,0 +1,102 @@
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.TestServer.TestBuildTypeData;
+import com.jetbrains.teamcity.TestServer.TestProjectData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import jetbrains.buildServer.BuildTypeData;
+import jetbrains.buildServer.ProjectData;
+import jetbrains.buildServer.util.Converter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationCatalogTest {
+
+  private ConfigurationCatalog myCatalog;
+
+  @Before
+  public void setUp() {
+    final TestProjectData prjB = new TestProjectData("prj-b");
+    new TestBuildTypeData("cfg-z", prjB);
+    new TestBuildTypeData("cfg-y", prjB);
+    final TestProjectData prjA = new TestProjectData("prj-a");
+    new TestBuildTypeData("cfg-x", prjA);
+    myCatalog = new ConfigurationCatalog(Arrays.<ProjectData>asList(prjB, prjA));
+  }
+
+  @Test
+  public void server_order() {
+    assertEquals(Arrays.asList("prj-b", "prj-a"), projectIds(myCatalog.getProjects()));
+    assertEquals(Arrays.asList("cfg-z", "cfg-y", "cfg-x"), ids(myCatalog.getConfigurations()));
+  }
+
+  @Test
+  public void name_order() {
+    assertEquals(Arrays.asList("prj-a", "prj-b"), projectIds(myCatalog.getProjectsByName()));
+    assertEquals(Arrays.asList("cfg-x", "cfg-y", "cfg-z"), ids(myCatalog.getConfigurationsByName()));
+  }
+
+  @Test
+  public void lookups() {
+    assertEquals("cfg-y", myCatalog.findConfiguration("cfg-y").getId());
+    assertEquals("cfg-y", myCatalog.findConfigurationByExternalId("cfg-y").getId());
+    assertNull(myCatalog.findConfiguration("cfg-unknown"));
+    assertNull(myCatalog.findConfigurationByExternalId("cfg-unknown"));
+
+    assertEquals("prj-a", myCatalog.findProject("prj-a").getProjectId());
+    assertNull(myCatalog.findProject("prj-unknown"));
+
+    assertEquals(Arrays.asList("cfg-y", "cfg-z"), ids(myCatalog.getProjectConfigurations("prj-b")));
+    assertTrue(myCatalog.getProjectConfigurations("prj-unknown").isEmpty());
+  }
+
+  @Test
+  public void projects_read_on_demand() {
+    final List<String> deserialized = new ArrayList<String>();
+    final LazyProjectList projects = new LazyProjectList(Arrays.asList("prj-0", "prj-1", "prj-2"), new Converter<ProjectData, String>() {
+      public ProjectData createFrom(@NotNull final String source) {
+        deserialized.add(source);
+        final TestProjectData project = new TestProjectData(source);
+        new TestBuildTypeData("cfg-" + source, project);
+        return project;
+      }
+    });
+    final ConfigurationCatalog catalog = new ConfigurationCatalog(projects);
+    assertTrue(deserialized.isEmpty());
+
+    assertEquals("cfg-prj-1", catalog.findConfigurationByExternalId("cfg-prj-1").getId());
+    assertEquals(Arrays.asList("prj-0", "prj-1"), deserialized);
+    assertEquals("prj-0", catalog.findProject("prj-0").getProjectId());
+    assertEquals(Arrays.asList("prj-0", "prj-1"), deserialized);
+
+    assertNull(catalog.findConfiguration("cfg-unknown"));
+    assertEquals(Arrays.asList("prj-0", "prj-1", "prj-2"), deserialized);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void immutable() {
+    myCatalog.getConfigurations().clear();
+  }
+
+  private static List<String> ids(final Collection<BuildTypeData> configurations) {
+    final List<String> ids = new ArrayList<String>();
+    for (final BuildTypeData configuration : configurations) {
+      ids.add(configuration.getId());
+    }
+    return ids;
+  }
+
+  private static List<String> projectIds(final Collection<ProjectData> projects) {
+    final List<String> ids = new ArrayList<String>();
+    for (final ProjectData project : projects) {
+      ids.add(project.getProjectId());
+    }
+    return ids;
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeltaEncoderTest {
+
+  @Test
+  public void edited_lines() throws Exception {
+    final String base = createText(20000);
+    final String target = base.replace("line 100 ", "changed line 100 ").replace("line 15000 value", "").substring(0, base.length() - 3000) + "appended\n";
+
+    final byte[] delta = DeltaEncoder.encode(base.getBytes("US-ASCII"), target.getBytes("US-ASCII"));
+    assertNotNull(delta);
+    assertTrue("Delta of " + delta.length + " bytes", delta.length < 200);
+    assertEquals(target, new String(apply(base.getBytes("US-ASCII"), delta), "US-ASCII"));
+  }
+
+  @Test
+  public void moved_block() throws Exception {
+    final String base = createText(20000);
+    final int middle = base.indexOf("line 10000 ");
+    final String target = base.substring(middle) + base.substring(0, middle);
+
+    final byte[] delta = DeltaEncoder.encode(base.getBytes("US-ASCII"), target.getBytes("US-ASCII"));
+    assertNotNull(delta);
+    assertEquals(target, new String(apply(base.getBytes("US-ASCII"), delta), "US-ASCII"));
+  }
+
+  @Test
+  public void unrelated_content() throws Exception {
+    final byte[] target = new byte[100000];
+    new Random(1).nextBytes(target);
+    assertNull(DeltaEncoder.encode(createText(20000).getBytes("US-ASCII"), target));
+  }
+
+  private static String createText(final int lines) {
+    final Random random = new Random(lines);
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      result.append("line ").append(i).append(" value=").append(random.nextInt(1000)).append('\n');
+      if (i % 10 == 0) {
+        result.append("}\n");
+      }
+    }
+    return result.toString();
+  }
+
+  private static byte[] apply(final byte[] base, final byte[] delta) throws Exception {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte instruction;
+    while ((instruction = in.readByte()) != DeltaEncoder.END) {
+      if (instruction == DeltaEncoder.COPY) {
+        final long offset = in.readLong();
+        out.write(base, (int) offset, in.readInt());
+      } else {
+        assertEquals(DeltaEncoder.INSERT, instruction);
+        final byte[] inserted = new byte[in.readInt()];
+        in.readFully(inserted);
+        out.write(inserted);
+      }
+    }
+    assertEquals(-1, in.read());
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.resources.TCWorkspace;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IgnoreRulesTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS().getCanonicalFile();
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void gitignore_semantics() {
+    final IgnoreRules rules = new IgnoreRules(myRoot, Arrays.asList("# comment", "build/", "*.log", "!keep.log", "/target", "docs/**", "a/**/z", "[ab]c"));
+
+    assertTrue(matches(rules, "build", true));
+    assertFalse(matches(rules, "build", false));
+    assertTrue(matches(rules, "sub/build", true));
+
+    assertTrue(matches(rules, "x.log", false));
+    assertTrue(matches(rules, "sub/x.log", false));
+    assertFalse(matches(rules, "sub/keep.log", false));
+
+    assertTrue(matches(rules, "target", true));
+    assertFalse(matches(rules, "sub/target", true));
+
+    assertFalse(matches(rules, "docs", true));
+    assertTrue(matches(rules, "docs/a/b", false));
+
+    assertTrue(matches(rules, "a/z", false));
+    assertTrue(matches(rules, "a/b/c/z", false));
+    assertFalse(matches(rules, "b/a/z", false));
+
+    assertTrue(matches(rules, "ac", false));
+    assertFalse(matches(rules, "cc", false));
+    assertFalse(matches(rules, "src/Main.java", false));
+  }
+
+  @Test
+  public void ignored_folders_are_not_collected() throws Exception {
+    FileUtil.writeFileAndReportErrors(new File(myRoot, IgnoreRules.IGNORE_FILE), "resources/\n*.cpp\n");
+
+    final Collection<File> files = Util.getFiles(myRoot.getPath(), Util.VCS_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+    assertEquals(2, files.size());
+    assertTrue(files.contains(new File(myRoot, "java" + File.separator + "1.java")));
+    assertTrue(files.contains(new File(myRoot, IgnoreRules.IGNORE_FILE)));
+  }
+
+  @Test
+  public void nested_ignore_files() throws Exception {
+    FileUtil.writeFileAndReportErrors(new File(myRoot, IgnoreRules.IGNORE_FILE), "*.resources\n");
+    FileUtil.writeFileAndReportErrors(new File(myRoot, "java" + File.separator + IgnoreRules.IGNORE_FILE), "!java.resources\n1.java\n");
+
+    final Collection<File> files = Util.getFiles(myRoot.getPath(), Util.VCS_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+    assertEquals(5, files.size());
+    assertTrue(files.contains(new File(myRoot, "java" + File.separator + "resources" + File.separator + "java.resources")));
+    assertTrue(files.contains(new File(myRoot, "java" + File.separator + "resources" + File.separator + "2.java")));
+    assertTrue(files.contains(new File(myRoot, "cpp" + File.separator + "1.cpp")));
+    assertFalse(files.contains(new File(myRoot, "java" + File.separator + "1.java")));
+    assertFalse(files.contains(new File(myRoot, "cpp" + File.separator + "resources" + File.separator + "cpp.resources")));
+  }
+
+  @Test
+  public void explicit_paths() throws Exception {
+    FileUtil.writeFileAndReportErrors(new File(myRoot, IgnoreRules.IGNORE_FILE), "resources/\n*.cpp\n");
+    final IgnoreFilter filter = new IgnoreFilter(Util.VCS_FILES_FILTER);
+    final PathInfoCache paths = new PathInfoCache();
+
+    assertTrue(getFiles(filter, paths, "java/resources/2.java").isEmpty());
+    assertTrue(getFiles(filter, paths, "cpp/1.cpp").isEmpty());
+    assertTrue(getFiles(filter, paths, "java/resources").isEmpty());
+    assertEquals(1, getFiles(filter, paths, "java/1.java").size());
+    assertEquals(1, getFiles(filter, paths, "java").size());
+  }
+
+  @Test
+  public void stops_at_workspace_root() throws Exception {
+    FileUtil.writeFileAndReportErrors(new File(myRoot, IgnoreRules.IGNORE_FILE), "*.cpp\n*.java\n");
+    FileUtil.writeFileAndReportErrors(new File(myRoot, "cpp/" + IgnoreRules.IGNORE_FILE), "resources/\n");
+    final IgnoreFilter filter = new IgnoreFilter(Util.VCS_FILES_FILTER, Collections.singletonList(new File(myRoot, "cpp")));
+    final PathInfoCache paths = new PathInfoCache();
+
+    assertEquals(1, getFiles(filter, paths, "cpp/1.cpp").size());
+    assertTrue(getFiles(filter, paths, "cpp/resources").isEmpty());
+    // not under a workspace root
+    assertEquals(1, getFiles(filter, paths, "java/1.java").size());
+
+    assertTrue(getFiles(new IgnoreFilter(Util.VCS_FILES_FILTER, Collections.singletonList(myRoot)), paths, "cpp/1.cpp").isEmpty());
+  }
+
+  @Test
+  public void mapping_file_is_workspace_root() throws Exception {
+    FileUtil.writeFileAndReportErrors(new File(myRoot, IgnoreRules.IGNORE_FILE), "*.cpp\n*.java\n");
+    FileUtil.writeFileAndReportErrors(new File(myRoot, "java/" + TCWorkspace.TCC_ADMIN_FILE), ".=//depo/java/\n");
+    final IgnoreFilter filter = new IgnoreFilter(Util.VCS_FILES_FILTER, Collections.singletonList(myRoot));
+    final PathInfoCache paths = new PathInfoCache();
+
+    assertEquals(1, getFiles(filter, paths, "java/1.java").size());
+    assertTrue(getFiles(filter, paths, "cpp/1.cpp").isEmpty());
+  }
+
+  @Test
+  public void wildcard_path() throws Exception {
+    final Collection<File> all = Util.getFiles(myRoot.getPath() + "/**/*.java", Util.VCS_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+    assertEquals(2, all.size());
+
+    final Collection<File> direct = Util.getFiles(myRoot.getPath() + "/java/*.java", Util.VCS_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+    assertEquals(1, direct.size());
+  }
+
+  private Collection<File> getFiles(final IgnoreFilter filter, final PathInfoCache paths, final String path) {
+    return Util.getFiles(new File(myRoot, path).getPath(), filter, paths, RuntimeUtil.NULL_MONITOR);
+  }
+
+  private boolean matches(final IgnoreRules rules, final String path, final boolean isDirectory) {
+    return rules.matches(new File(myRoot, path).toPath(), isDirectory);
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.TestServer.TestProjectData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jetbrains.buildServer.ProjectData;
+import jetbrains.buildServer.util.Converter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LazyProjectListTest {
+
+  private final List<String> myDeserialized = new ArrayList<String>();
+
+  private final Converter<ProjectData, String> myDeserializer = new Converter<ProjectData, String>() {
+    public ProjectData createFrom(@NotNull final String source) {
+      myDeserialized.add(source);
+      return new TestProjectData(source);
+    }
+  };
+
+  @Test
+  public void deserialized_on_access() {
+    final LazyProjectList projects = new LazyProjectList(Arrays.asList("prj-0", "prj-1", "prj-2"), myDeserializer);
+    assertEquals(3, projects.size());
+    assertTrue(myDeserialized.isEmpty());
+
+    assertEquals("prj-1", projects.get(1).getProjectId());
+    assertEquals(Arrays.asList("prj-1"), myDeserialized);
+  }
+
+  @Test
+  public void deserialized_once() {
+    final LazyProjectList projects = new LazyProjectList(Arrays.asList("prj-0", "prj-1"), myDeserializer);
+    final ProjectData project = projects.get(0);
+    assertSame(project, projects.get(0));
+    for (final ProjectData each : projects) {
+      assertNotNull(each);
+    }
+    assertEquals(Arrays.asList("prj-0", "prj-1"), myDeserialized);
+  }
+
+  @Test
+  public void preloaded() {
+    final LazyProjectList projects = new LazyProjectList(Arrays.asList("prj-0", "prj-1"), myDeserializer);
+    projects.preload(1);
+    assertEquals(Arrays.asList("prj-0"), myDeserialized);
+    projects.preload(5);
+    assertEquals(Arrays.asList("prj-0", "prj-1"), myDeserialized);
+    new LazyProjectList(new ArrayList<String>(), myDeserializer).preload(1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void out_of_bounds() {
+    new LazyProjectList(Arrays.asList("prj-0"), myDeserializer).get(1);
+  }
+
+}
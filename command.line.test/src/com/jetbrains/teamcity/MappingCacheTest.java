@@ -0,0 +1,128 @@
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.resources.ITCResourceMatcher;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MappingCacheTest {
+
+  private static final String SERVER = "http://localhost:8111";
+
+  private File myRoot;
+  private MappingCache myCache;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myCache = new MappingCache(new File(myRoot, "cache"));
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void store_and_read() throws Exception {
+    final File root = myRoot.getCanonicalFile();
+    final LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>();
+    rules.put(".", "mock://repo");
+    rules.put("cpp", "mock://cpp");
+    myCache.store(SERVER, "bt1", "stamp1", root, rules);
+
+    assertTrue(myCache.getEntries("http://other").isEmpty());
+    final Collection<MappingCache.Entry> entries = myCache.getEntries(SERVER);
+    assertEquals(1, entries.size());
+    final MappingCache.Entry entry = entries.iterator().next();
+    assertEquals("bt1", entry.getBuildTypeId());
+    assertEquals("stamp1", entry.getStamp());
+    assertEquals(root, entry.getRoot());
+    assertEquals(2, entry.getRules().size());
+  }
+
+  @Test
+  public void store_replaces_root_mapping() throws Exception {
+    final File root = myRoot.getCanonicalFile();
+    myCache.store(SERVER, "bt1", "stamp1", root, singleRule(".", "mock://repo"));
+    myCache.store(SERVER, "bt2", null, root, singleRule(".", "mock://other"));
+
+    final Collection<MappingCache.Entry> entries = myCache.getEntries(SERVER);
+    assertEquals(1, entries.size());
+    assertEquals("bt2", entries.iterator().next().getBuildTypeId());
+    assertNull(entries.iterator().next().getStamp());
+  }
+
+  @Test
+  public void outdated_by_stamps() throws Exception {
+    final File root = myRoot.getCanonicalFile();
+    final MappingCache.Entry actual = myCache.store(SERVER, "bt1", "stamp1", new File(root, "java"), singleRule(".", "mock://java"));
+    final MappingCache.Entry changed = myCache.store(SERVER, "bt2", "stamp2", new File(root, "cpp"), singleRule(".", "mock://cpp"));
+    final MappingCache.Entry unknown = myCache.store(SERVER, "bt3", "stamp3", root, singleRule(".", "mock://repo"));
+    final MappingCache.Entry noStamp = myCache.store(SERVER, "bt4", null, new File(root, "other"), singleRule(".", "mock://other"));
+
+    final Map<String, String> stamps = new HashMap<String, String>();
+    stamps.put("bt1", "stamp1");
+    stamps.put("bt2", "stamp2.1");
+    stamps.put("bt4", "stamp4");
+
+    final Collection<MappingCache.Entry> outdated = MappingCache.getOutdated(Arrays.asList(actual, changed, unknown, noStamp), stamps);
+    assertEquals(Arrays.asList(changed, unknown, noStamp), outdated);
+  }
+
+  @Test
+  public void empty_mapping_keeps_stamp() throws Exception {
+    final File root = myRoot.getCanonicalFile();
+    myCache.store(SERVER, "bt1", "stamp1", root, Collections.<String, String>emptyMap());
+
+    final MappingCache.Entry entry = myCache.getEntries(SERVER).iterator().next();
+    assertEquals("stamp1", entry.getStamp());
+    assertTrue(MappingCache.getOutdated(Collections.singletonList(entry), Collections.singletonMap("bt1", "stamp1")).isEmpty());
+    assertTrue(myCache.getMatchers(SERVER, new PathInfoCache()).isEmpty());
+  }
+
+  @Test
+  public void matchers() throws Exception {
+    final File root = myRoot.getCanonicalFile();
+    final LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>();
+    rules.put(".", "mock://repo");
+    rules.put("cpp", "mock://cpp");
+    myCache.store(SERVER, "bt1", "stamp1", root, rules);
+
+    final Map<File, ITCResourceMatcher> matchers = myCache.getMatchers(SERVER, new PathInfoCache());
+    assertEquals(1, matchers.size());
+    final ITCResourceMatcher matcher = matchers.get(root);
+    assertNotNull(matcher);
+
+    final ITCResourceMatcher.Matching java = matcher.getMatching(new File(myRoot, "java/1.java"));
+    assertEquals("mock://repo", java.getTCID());
+    assertEquals("java/1.java", java.getRelativePath());
+    final ITCResourceMatcher.Matching cpp = matcher.getMatching(new File(myRoot, "cpp/1.cpp"));
+    assertEquals("mock://cpp", cpp.getTCID());
+    assertEquals("1.cpp", cpp.getRelativePath());
+  }
+
+  @Test
+  public void empty_mapping_has_no_matcher() throws Exception {
+    myCache.store(SERVER, "bt1", "stamp1", myRoot.getCanonicalFile(), new LinkedHashMap<String, String>());
+
+    assertEquals(1, myCache.getEntries(SERVER).size());
+    assertTrue(myCache.getMatchers(SERVER, new PathInfoCache()).isEmpty());
+  }
+
+  private static Map<String, String> singleRule(final String from, final String to) {
+    final LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>();
+    rules.put(from, to);
+    return rules;
+  }
+
+}
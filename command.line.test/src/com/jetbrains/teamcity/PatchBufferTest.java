@@ -0,0 +1,68 @@
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PatchBufferTest {
+
+  @Test
+  public void in_memory() throws Exception {
+    final byte[] content = createContent(3 * 1024 * 1024 + 5);
+    final PatchBuffer buffer = new PatchBuffer(4 * 1024 * 1024);
+    try {
+      buffer.write(content, 0, 100);
+      buffer.write(content[100]);
+      buffer.write(content, 101, content.length - 101);
+      buffer.close();
+
+      assertNull(buffer.getSpillFile());
+      assertEquals(content.length, buffer.length());
+      assertArrayEquals(content, read(buffer));
+      // repeatable
+      assertArrayEquals(content, read(buffer));
+    } finally {
+      buffer.dispose();
+    }
+  }
+
+  @Test
+  public void spilled_past_threshold() throws Exception {
+    final byte[] content = createContent(10000);
+    final PatchBuffer buffer = new PatchBuffer(4096);
+    final File spillFile;
+    try {
+      for (int i = 0; i < content.length; i += 1000) {
+        buffer.write(content, i, 1000);
+        assertEquals(i + 1000 > 4096, buffer.getSpillFile() != null);
+      }
+      buffer.close();
+
+      spillFile = buffer.getSpillFile();
+      assertNotNull(spillFile);
+      assertEquals(content.length, spillFile.length());
+      assertEquals(content.length, buffer.length());
+      assertArrayEquals(content, read(buffer));
+    } finally {
+      buffer.dispose();
+    }
+    assertFalse(spillFile.exists());
+  }
+
+  private static byte[] read(final PatchBuffer buffer) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    buffer.writeTo(out);
+    return out.toByteArray();
+  }
+
+  private static byte[] createContent(final int length) {
+    final byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) (i * 13);
+    }
+    return content;
+  }
+
+}
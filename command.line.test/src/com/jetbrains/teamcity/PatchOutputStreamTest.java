@@ -0,0 +1,105 @@
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PatchOutputStreamTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void transfer_into_file() throws Exception {
+    final byte[] body = createBody(200 * 1024 + 17);
+    final File source = write("source.bin", body);
+    final File patch = new File(myRoot, "out.patch");
+
+    final PatchOutputStream out = new PatchOutputStream(patch);
+    out.writeUTF("header");
+    new PatchOutputStream.FileContent(source, body.length).writeTo(out);
+    out.writeLong(42);
+    out.close();
+
+    assertArrayEquals(expected(body), Files.readAllBytes(patch.toPath()));
+  }
+
+  @Test
+  public void copy_into_stream() throws Exception {
+    final byte[] body = createBody(70 * 1024);
+    final File source = write("source.bin", body);
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+
+    final PatchOutputStream out = new PatchOutputStream(patch);
+    out.writeUTF("header");
+    new PatchOutputStream.FileContent(source, body.length).writeTo(out);
+    out.writeLong(42);
+    out.close();
+
+    assertArrayEquals(expected(body), patch.toByteArray());
+  }
+
+  @Test
+  public void prefix_of_grown_file() throws Exception {
+    final byte[] body = createBody(1000);
+    final File source = write("source.bin", body);
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+    new PatchOutputStream.FileContent(source, 10).writeTo(content);
+
+    assertArrayEquals(Arrays.copyOf(body, 10), content.toByteArray());
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncated_file() throws Exception {
+    final File source = write("source.bin", createBody(10));
+    final PatchOutputStream out = new PatchOutputStream(new File(myRoot, "out.patch"));
+    try {
+      new PatchOutputStream.FileContent(source, 20).writeTo(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  private File write(final String name, final byte[] content) throws Exception {
+    final File file = new File(myRoot, name);
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static byte[] createBody(final int length) {
+    final byte[] body = new byte[length];
+    for (int i = 0; i < length; i++) {
+      body[i] = (byte) (i * 31);
+    }
+    return body;
+  }
+
+  private static byte[] expected(final byte[] body) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF("header");
+    out.write(body);
+    out.writeLong(42);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+}
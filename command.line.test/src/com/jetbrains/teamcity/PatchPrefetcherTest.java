@@ -0,0 +1,104 @@
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PatchPrefetcherTest {
+
+  private File myRoot;
+  private PathInfoCache myPaths;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myPaths = new PathInfoCache();
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void contents_in_order() throws Exception {
+    final List<PathInfo> files = new ArrayList<PathInfo>();
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 200; i++) {
+      final byte[] content = createContent(i * 37, i);
+      files.add(write("file" + i, content));
+      expected.write(content);
+    }
+    // small limit: the writer never waits for the budget of files it has not taken
+    final PatchPrefetcher prefetcher = new PatchPrefetcher(files, 3, 500);
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        prefetcher.getContent(i).writeTo(patch);
+      }
+    } finally {
+      prefetcher.close();
+    }
+    assertArrayEquals(expected.toByteArray(), patch.toByteArray());
+  }
+
+  @Test
+  public void skipped_and_missing_files() throws Exception {
+    final List<PathInfo> files = new ArrayList<PathInfo>();
+    files.add(write("first", createContent(10, 1)));
+    files.add(myPaths.get(new File(myRoot, "missing")));
+    files.add(write("skipped", createContent(20, 2)));
+    final byte[] big = createContent((int) PatchPrefetcher.MAX_PREFETCHED_FILE + 1, 3);
+    files.add(write("big", big));
+
+    final PatchPrefetcher prefetcher = new PatchPrefetcher(files);
+    try {
+      final ByteArrayOutputStream first = new ByteArrayOutputStream();
+      prefetcher.getContent(0).writeTo(first);
+      assertArrayEquals(createContent(10, 1), first.toByteArray());
+
+      final ByteArrayOutputStream content = new ByteArrayOutputStream();
+      prefetcher.getContent(3).writeTo(content);
+      assertArrayEquals(big, content.toByteArray());
+    } finally {
+      prefetcher.close();
+    }
+  }
+
+  @Test(expected = EOFException.class)
+  public void truncated_file() throws Exception {
+    final PathInfo file = write("file", createContent(100, 1));
+    Files.write(file.getFile().toPath(), createContent(50, 1));
+
+    final PatchPrefetcher prefetcher = new PatchPrefetcher(Collections.singletonList(file));
+    try {
+      prefetcher.getContent(0);
+    } finally {
+      prefetcher.close();
+    }
+  }
+
+  private PathInfo write(final String name, final byte[] content) throws Exception {
+    final File file = new File(myRoot, name);
+    Files.write(file.toPath(), content);
+    return myPaths.get(file);
+  }
+
+  private static byte[] createContent(final int length, final int seed) {
+    final byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) (i * 31 + seed);
+    }
+    return content;
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathInfoCacheTest {
+
+  private File myRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void canonical_and_attributes() throws Exception {
+    final PathInfoCache paths = new PathInfoCache();
+    final File file = new File(myRoot, "java/../cpp/1.cpp");
+
+    final PathInfo info = paths.get(file);
+    assertEquals(file.getCanonicalFile(), info.getFile());
+    assertTrue(info.exists());
+    assertTrue(info.isFile());
+    assertEquals(file.length(), info.length());
+    assertEquals(file.lastModified(), info.lastModified());
+    assertSame(info, paths.get(file));
+    assertSame(info, paths.get(info.getFile()));
+
+    assertTrue(paths.get(new File(myRoot, "java")).isDirectory());
+  }
+
+  @Test
+  public void missing_file() throws Exception {
+    final File file = new File(myRoot, "cpp/missing/2.cpp");
+    final PathInfo info = new PathInfoCache().get(file);
+    assertEquals(file.getCanonicalFile(), info.getFile());
+    assertFalse(info.exists());
+    assertEquals(0, info.length());
+  }
+
+  @Test
+  public void name_case() throws Exception {
+    final PathInfoCache paths = new PathInfoCache();
+    final File root = myRoot.getCanonicalFile();
+    final PathInfo info = paths.get(new File(root, "JAVA/1.Java"));
+    if (paths.isCaseInsensitive(root)) {
+      assertEquals(new File(root, "java/1.java"), info.getFile());
+      assertTrue(info.isFile());
+    } else {
+      assertEquals(new File(root, "JAVA/1.Java"), info.getFile());
+      assertFalse(info.exists());
+    }
+  }
+
+  @Test
+  public void symbolic_link() throws Exception {
+    final File link = new File(myRoot, "link");
+    try {
+      Files.createSymbolicLink(link.toPath(), new File(myRoot, "java").getAbsoluteFile().toPath());
+    } catch (Exception e) {
+      return; // not supported
+    }
+    final PathInfo info = new PathInfoCache().get(new File(link, "1.java"));
+    assertEquals(new File(myRoot, "java/1.java").getCanonicalFile(), info.getFile());
+    assertTrue(info.isFile());
+  }
+
+}
@@ -0,0 +1,38 @@
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathListReaderTest {
+
+  @Test
+  public void lines() throws Exception {
+    assertEquals(Arrays.asList("a.java", "b.cpp", "c d.txt"), read(new PathListReader(new StringReader("a.java\n\rb.cpp\r\n\nc d.txt"), false)));
+  }
+
+  @Test
+  public void null_separated() throws Exception {
+    assertEquals(Arrays.asList("a\nb.java", "c.cpp"), read(new PathListReader(new ByteArrayInputStream("a\nb.java\0\0c.cpp\0".getBytes()), true)));
+  }
+
+  @Test
+  public void empty() throws Exception {
+    assertNull(new PathListReader(new StringReader("\n\n"), false).next());
+    assertFalse(new PathListReader(new StringReader(""), true).iterator().hasNext());
+  }
+
+  private static List<String> read(final PathListReader reader) {
+    final List<String> result = new ArrayList<String>();
+    for (final String path : reader) {
+      result.add(path);
+    }
+    return result;
+  }
+
+}
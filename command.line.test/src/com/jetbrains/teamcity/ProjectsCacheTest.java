@@ -0,0 +1,77 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProjectsCacheTest {
+
+  private static final long TTL = 1000;
+
+  private File myRoot;
+  private ProjectsCache myCache;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myCache = new ProjectsCache(new File(new File(myRoot, "projects"), "server"));
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void empty() {
+    assertNull(myCache.get("s1", TTL, 0));
+  }
+
+  @Test
+  public void valid_with_same_stamp() {
+    final List<String> projects = Arrays.asList("<project id=\"project1\"/>", "<project name=\"\u00fc\"/>", "");
+    myCache.put("s1", projects, 100);
+    assertEquals(projects, myCache.get("s1", TTL, 100));
+    assertEquals(projects, myCache.get("s1", TTL, 100 + TTL - 1));
+  }
+
+  @Test
+  public void revalidated_by_stamp() {
+    myCache.put("s1", Collections.singletonList("<project/>"), 100);
+    assertNull(myCache.get("s2", TTL, 100));
+  }
+
+  @Test
+  public void expired() {
+    myCache.put("s1", Collections.singletonList("<project/>"), 100);
+    assertNull(myCache.get("s1", TTL, 100 + TTL));
+    assertNull(myCache.get("s1", TTL, 99));
+  }
+
+  @Test
+  public void replaced() {
+    myCache.put("s1", Collections.singletonList("<project/>"), 100);
+    myCache.put("s2", Collections.<String>emptyList(), 200);
+    assertEquals(Collections.<String>emptyList(), myCache.get("s2", TTL, 200));
+    myCache.clear();
+    assertNull(myCache.get("s2", TTL, 200));
+  }
+
+  @Test
+  public void corrupted() throws Exception {
+    final File file = new File(new File(myRoot, "projects"), "server");
+    assertTrue(file.getParentFile().mkdirs());
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("not a cache".getBytes());
+    }
+    assertNull(myCache.get("s1", TTL, 0));
+  }
+
+}
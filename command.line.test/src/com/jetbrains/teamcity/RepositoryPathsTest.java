@@ -0,0 +1,76 @@
+package com.jetbrains.teamcity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RepositoryPathsTest {
+
+  @Test
+  public void all_kept_within_limit() {
+    final Collection<String> kept = RepositoryPaths.compact(paths("root://a", "b/2.txt", "b/1.txt", "c/3.txt", "4.txt"), 4);
+    assertEquals(Arrays.asList("root://a/4.txt", "root://a/b/1.txt", "root://a/b/2.txt", "root://a/c/3.txt"), new ArrayList<String>(kept));
+  }
+
+  @Test
+  public void file_per_directory() {
+    final Collection<String> compacted = RepositoryPaths.compact(paths("root://a", "b/2.txt", "b/1.txt", "c/3.txt", "4.txt"), 3);
+    assertEquals(Arrays.asList("root://a/4.txt", "root://a/b/1.txt", "root://a/c/3.txt"), new ArrayList<String>(compacted));
+  }
+
+  @Test
+  public void bounded() {
+    final Map<String, String> paths = new HashMap<String, String>();
+    for (int i = 0; i < 10; i++) {
+      paths.putAll(paths("root://a", "x/dir" + i + "/file.txt"));
+      paths.putAll(paths("root://b", "y/dir" + i + "/file.txt"));
+    }
+    assertEquals(20, RepositoryPaths.compact(paths, 100).size());
+    assertEquals(Arrays.asList("root://a/x/dir0/file.txt", "root://b/y/dir0/file.txt"), new ArrayList<String>(RepositoryPaths.compact(paths, 5)));
+  }
+
+  @Test
+  public void representative_per_root() {
+    final Map<String, String> paths = new HashMap<String, String>();
+    paths.putAll(paths("root://a", "x/1.txt", "x/2.txt"));
+    paths.putAll(paths("root://b", "y/1.txt"));
+    assertEquals(Arrays.asList("root://a/x/1.txt", "root://b/y/1.txt"), new ArrayList<String>(RepositoryPaths.compact(paths, 1)));
+    assertEquals(Arrays.asList("root://a/x/1.txt", "root://b/y/1.txt"), new ArrayList<String>(RepositoryPaths.compact(paths, 0)));
+  }
+
+  @Test
+  public void not_cut_above_root() {
+    final Map<String, String> paths = new HashMap<String, String>();
+    paths.putAll(paths("mock://host:1666:////depot/src", "a/1.txt", "b/2.txt"));
+    paths.putAll(paths("mock://host:1666:////depot/src/b", "3.txt"));
+    paths.putAll(paths("mock://host:1666:////depot/lib", "c/4.txt"));
+    assertEquals(Arrays.asList("mock://host:1666:////depot/lib/c/4.txt", "mock://host:1666:////depot/src/a/1.txt", "mock://host:1666:////depot/src/b/3.txt"),
+                 new ArrayList<String>(RepositoryPaths.compact(paths, 1)));
+  }
+
+  @Test
+  public void unknown_root() {
+    final Map<String, String> paths = paths("root://a", "x/1.txt", "x/2.txt");
+    paths.put("root://b/y/1.txt", "root://c");
+    assertEquals(Arrays.asList("root://a/x/1.txt", "root://a/x/2.txt", "root://b/y/1.txt"), new ArrayList<String>(RepositoryPaths.compact(paths, 1)));
+  }
+
+  @Test
+  public void empty() {
+    assertTrue(RepositoryPaths.compact(new HashMap<String, String>(), 10).isEmpty());
+  }
+
+  private static Map<String, String> paths(final String root, final String... relativePaths) {
+    final Map<String, String> paths = new HashMap<String, String>();
+    for (final String relativePath : relativePaths) {
+      paths.put(root + '/' + relativePath, root);
+    }
+    return paths;
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UploadSessionTest {
+
+  private File myRoot;
+  private File myFolder;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    myFolder = new File(myRoot, "uploads");
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void resumed_by_key() throws Exception {
+    final File patch = UploadSession.createPatchFile(myFolder);
+    Files.write(patch.toPath(), new byte[10000]);
+    final UploadSession session = UploadSession.create(myFolder, "http://server", "key", patch, 4096);
+    assertEquals(10000, session.getLength());
+    assertEquals(3, session.getChunkCount());
+    assertEquals(BlobPatchWriter.hash(session.getPatchFile()), session.getHash());
+
+    final UploadSession loaded = UploadSession.load(myFolder, "http://server", "key");
+    assertNotNull(loaded);
+    assertEquals(session.getHash(), loaded.getHash());
+    assertEquals(session.getPatchFile(), loaded.getPatchFile());
+    assertEquals(4096, loaded.getChunkSize());
+    assertNull(UploadSession.load(myFolder, "http://other", "key"));
+    assertNull(UploadSession.load(myFolder, "http://server", "other"));
+
+    loaded.delete();
+    assertFalse(session.getPatchFile().exists());
+    assertNull(UploadSession.load(myFolder, "http://server", "key"));
+  }
+
+  @Test
+  public void changed_patch_dropped() throws Exception {
+    final File patch = UploadSession.createPatchFile(myFolder);
+    Files.write(patch.toPath(), new byte[100]);
+    final UploadSession session = UploadSession.create(myFolder, "http://server", "key", patch, 4096);
+    Files.write(session.getPatchFile().toPath(), new byte[50]);
+
+    assertNull(UploadSession.load(myFolder, "http://server", "key"));
+    assertFalse(session.getPatchFile().exists());
+  }
+
+  @Test
+  public void patch_deleted_if_not_created() throws Exception {
+    final File patch = UploadSession.createPatchFile(myFolder);
+    Files.write(patch.toPath(), new byte[100]);
+    final UploadSession session = UploadSession.create(myFolder, "http://server", "key", patch, 4096);
+    final File sessionFile = new File(myFolder, session.getPatchFile().getName().replace(".patch", ".properties"));
+    assertTrue(sessionFile.delete());
+    assertTrue(sessionFile.mkdir());
+
+    final File other = UploadSession.createPatchFile(myFolder);
+    Files.write(other.toPath(), new byte[200]);
+    try {
+      UploadSession.create(myFolder, "http://server", "key", other, 4096);
+      fail("session file cannot be written");
+    } catch (IOException e) {
+      // expected
+    }
+    assertFalse(other.exists());
+    assertFalse(session.getPatchFile().exists());
+    assertEquals(0, myFolder.listFiles().length);
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.jetbrains.teamcity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UploadStreamsTest {
+
+  private static final long SECOND = 1000000000L;
+  private static final long CHUNK = 1000;
+
+  private long myTime;
+
+  @Test
+  public void grows_while_throughput_scales() {
+    final UploadStreams streams = new UploadStreams(2, 4, myTime);
+    for (int i = 0; i < 10; i++) {
+      window(streams, CHUNK * streams.getStreams()); // every stream adds the same bandwidth
+    }
+    assertEquals(4, streams.getStreams());
+  }
+
+  @Test
+  public void steps_back_on_saturated_link() {
+    final UploadStreams streams = new UploadStreams(2, 8, myTime);
+    window(streams, CHUNK * 2);
+    assertEquals(3, streams.getStreams());
+    window(streams, CHUNK * 3);
+    assertEquals(4, streams.getStreams());
+    for (int i = 0; i < 5; i++) {
+      window(streams, CHUNK * 3); // no gain from the 4th stream
+    }
+    assertEquals(3, streams.getStreams());
+  }
+
+  @Test
+  public void probes_again_when_link_slows_down() {
+    final UploadStreams streams = new UploadStreams(2, 8, myTime);
+    window(streams, CHUNK * 2);
+    window(streams, CHUNK * 2);
+    assertEquals(2, streams.getStreams());
+    window(streams, CHUNK);
+    window(streams, CHUNK * 2);
+    assertEquals(3, streams.getStreams());
+  }
+
+  @Test
+  public void halves_on_failure() {
+    final UploadStreams streams = new UploadStreams(8, 8, myTime);
+    streams.failed();
+    assertEquals(4, streams.getStreams());
+    streams.failed();
+    streams.failed();
+    streams.failed();
+    assertEquals(1, streams.getStreams());
+  }
+
+  @Test
+  public void stays_within_limits() {
+    assertEquals(1, new UploadStreams(2, 1, myTime).getStreams());
+    assertEquals(1, new UploadStreams(0, 4, myTime).getStreams());
+  }
+
+  /**
+   * Sends a window of chunks in a second
+   * @param throughput bytes per second
+   */
+  private void window(final UploadStreams streams, final long throughput) {
+    final int chunks = Math.max(2, streams.getStreams());
+    for (int i = 0; i < chunks; i++) {
+      myTime += SECOND / chunks;
+      streams.sent(throughput / chunks, myTime);
+    }
+  }
+
+}
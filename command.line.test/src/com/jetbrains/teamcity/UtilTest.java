@@ -11,6 +11,7 @@ import java.io.File;
 import java.text.MessageFormat;
 import java.util.Collection;
 
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
 import jetbrains.buildServer.util.FileUtil;
 
 import org.junit.AfterClass;
@@ -105,6 +106,29 @@ public class UtilTest {
 		assertEquals(pattern, 5, files.size());
 	}
 
+	@Test
+	public void getFiles_vcs_filtered() throws Exception {
+		final File svnFolder = new File(ourTestFs, "java" + File.separator + ".svn");
+		final File cvsFolder = new File(ourTestFs, "cpp" + File.separator + "CVS");
+		svnFolder.mkdirs();
+		cvsFolder.mkdirs();
+		try {
+			FileUtil.writeFileAndReportErrors(new File(svnFolder, "entries"), "svn");
+			FileUtil.writeFileAndReportErrors(new File(cvsFolder, "Entries"), "cvs");
+			FileUtil.writeFileAndReportErrors(new File(cvsFolder, "Notes"), "cvs");
+
+			assertEquals(8, Util.getFiles(ourTestFs.getPath()).size());
+			final Collection<File> files = Util.getFiles(ourTestFs.getPath(), Util.VCS_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+			assertEquals(6, files.size());
+			assertTrue(files.contains(new File(cvsFolder, "Notes").getCanonicalFile()));
+			assertFalse(Util.isAccepted(new File(svnFolder, "entries"), Util.VCS_FILES_FILTER));
+			
+		} finally {
+			FileUtil.delete(svnFolder);
+			FileUtil.delete(cvsFolder);
+		}
+	}
+
 //	@Test
 //	public void getFiles_pattern() throws Exception {
 //		final String pattern = MessageFormat.format("{0}{1}{2}", "rootTestFolder", File.separator, "**.java");
@@ -0,0 +1,164 @@
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceSnapshotTest {
+
+  private File myRoot;
+  private File mySnapshotFile;
+  private File myA;
+  private File myB;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    mySnapshotFile = new File(new File(myRoot, "snapshots"), "workspace.snapshot");
+    myA = write(new File(myRoot.getAbsoluteFile(), "a.txt"), "a", 1000);
+    myB = write(new File(myRoot.getAbsoluteFile(), "b.txt"), "b", 1000);
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void first_run_sends_everything() throws Exception {
+    final WorkspaceSnapshot snapshot = WorkspaceSnapshot.open(mySnapshotFile);
+    assertTrue(snapshot.isEmpty());
+    assertEquals(set(myA, myB), changes(snapshot, myA, myB));
+  }
+
+  @Test
+  public void not_committed_is_not_persisted() throws Exception {
+    changes(WorkspaceSnapshot.open(mySnapshotFile), myA, myB);
+    assertTrue(WorkspaceSnapshot.open(mySnapshotFile).isEmpty());
+    assertFalse(mySnapshotFile.exists());
+  }
+
+  @Test
+  public void load_committed() throws Exception {
+    run(myA, myB);
+    final WorkspaceSnapshot snapshot = WorkspaceSnapshot.open(mySnapshotFile);
+    assertFalse(snapshot.isEmpty());
+    assertTrue(changes(snapshot, myA, myB).isEmpty());
+  }
+
+  @Test
+  public void modified_content() throws Exception {
+    run(myA, myB);
+    write(myA, "a1", 2000);
+    assertEquals(set(myA), changes(WorkspaceSnapshot.open(mySnapshotFile), myA, myB));
+  }
+
+  @Test
+  public void touched_without_content_change() throws Exception {
+    run(myA, myB);
+    write(myA, "a", 3000);
+    assertTrue(changes(WorkspaceSnapshot.open(mySnapshotFile), myA, myB).isEmpty());
+  }
+
+  @Test
+  public void earlier_modification_is_kept() throws Exception {
+    run(myA, myB);
+    write(myA, "a1", 2000);
+    assertEquals(set(myA), run(myA, myB));
+    write(myB, "b1", 2000);
+    assertEquals(set(myA, myB), run(myA, myB));
+  }
+
+  @Test
+  public void reverted_modification() throws Exception {
+    run(myA, myB);
+    write(myA, "a1", 2000);
+    run(myA, myB);
+    write(myA, "a", 3000);
+    assertTrue(changes(WorkspaceSnapshot.open(mySnapshotFile), myA, myB).isEmpty());
+  }
+
+  @Test
+  public void new_file() throws Exception {
+    run(myA);
+    assertEquals(set(myB), run(myA, myB));
+    assertEquals(set(myB), run(myA, myB));
+  }
+
+  @Test
+  public void deleted_file_is_sent_until_restored() throws Exception {
+    run(myA, myB);
+    assertTrue(myB.delete());
+    assertEquals(set(myB), run(myA));
+    assertEquals(set(myB), run(myA));
+    write(myB, "b", 4000);
+    assertTrue(run(myA, myB).isEmpty());
+  }
+
+  @Test
+  public void created_and_deleted_file() throws Exception {
+    run(myA);
+    run(myA, myB);
+    assertTrue(myB.delete());
+    assertTrue(run(myA).isEmpty());
+  }
+
+  @Test
+  public void reset_moves_base_forward() throws Exception {
+    run(myA, myB);
+    write(myA, "a1", 2000);
+    assertTrue(myB.delete());
+    assertEquals(set(myA, myB), run(myA));
+
+    final WorkspaceSnapshot snapshot = WorkspaceSnapshot.open(mySnapshotFile);
+    snapshot.reset();
+    assertTrue(snapshot.isEmpty());
+    assertEquals(set(myA), changes(snapshot, myA));
+    snapshot.commit();
+
+    assertTrue(run(myA).isEmpty());
+    write(myA, "a2", 3000);
+    assertEquals(set(myA), run(myA));
+  }
+
+  @Test
+  public void reset_not_committed_keeps_base() throws Exception {
+    run(myA, myB);
+    write(myA, "a1", 2000);
+    WorkspaceSnapshot.open(mySnapshotFile).reset();
+    assertEquals(set(myA), run(myA, myB));
+  }
+
+  private Collection<File> run(final File... files) throws IOException {
+    final WorkspaceSnapshot snapshot = WorkspaceSnapshot.open(mySnapshotFile);
+    final Collection<File> changes = changes(snapshot, files);
+    snapshot.commit();
+    return new HashSet<File>(changes);
+  }
+
+  private static Collection<File> changes(final WorkspaceSnapshot snapshot, final File... files) throws IOException {
+    return new HashSet<File>(snapshot.getChanges(Arrays.asList(files), new PathInfoCache(), RuntimeUtil.NULL_MONITOR));
+  }
+
+  private static Collection<File> set(final File... files) {
+    return new HashSet<File>(Arrays.asList(files));
+  }
+
+  private static File write(final File file, final String content, final long timestamp) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes());
+    }
+    assertTrue(file.setLastModified(timestamp));
+    return file;
+  }
+
+}
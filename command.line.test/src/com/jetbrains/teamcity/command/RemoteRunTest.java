@@ -5,7 +5,6 @@ import com.jetbrains.teamcity.TestingUtil;
 import com.jetbrains.teamcity.resources.ITCResource;
 import com.jetbrains.teamcity.resources.ITCResourceMatcher;
 import com.jetbrains.teamcity.resources.TCWorkspace;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.*;
 import jetbrains.buildServer.core.runtime.RuntimeUtil;
@@ -46,7 +45,20 @@ public class RemoteRunTest {
 
   @Test
   public void getApplicableConfigurations() {
-    // TODO: implement it
+    final List<String> requested = Arrays.asList("bt1", "bt2", "bt3");
+
+    // not resolved by the server: everything goes to the full check
+    assertEquals(requested, RemoteRun.getUnconfirmed(requested, null));
+    assertEquals(Arrays.asList("bt2"), RemoteRun.mergeApplicable(requested, null, Arrays.asList("bt2", "bt4")));
+
+    // resolved ones short-circuit, the rest is checked in full
+    final Set<String> resolved = new HashSet<String>(Arrays.asList("bt1", "bt4"));
+    assertEquals(Arrays.asList("bt2", "bt3"), RemoteRun.getUnconfirmed(requested, resolved));
+    assertEquals(Arrays.asList("bt1", "bt3"), RemoteRun.mergeApplicable(requested, resolved, Arrays.asList("bt3")));
+
+    // all resolved: no full check
+    assertTrue(RemoteRun.getUnconfirmed(Arrays.asList("bt1", "bt4"), resolved).isEmpty());
+    assertEquals(Arrays.asList("bt4", "bt1"), RemoteRun.mergeApplicable(Arrays.asList("bt4", "bt1"), resolved, Collections.<String>emptySet()));
   }
 
   @Test
@@ -143,13 +155,6 @@ public class RemoteRunTest {
     assertEquals("wrong files count collected", 5, files.size());
   }
 
-  @Test
-  public void readFromStream() {
-    final String stdin = "a.java\n\rb.cpp";
-    final String out = ourCommand.readFromStream(new ByteArrayInputStream(stdin.getBytes()));
-    assertEquals("wrong stream content read", stdin, out);
-  }
-
   @Test
   public void validate_error() {
     try {
@@ -0,0 +1,82 @@
+package com.jetbrains.teamcity.resources;
+
+import com.jetbrains.teamcity.TestingUtil;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import jetbrains.buildServer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FileBasedMatcherTest {
+
+  private File myRoot;
+  private FileBasedMatcher myMatcher;
+
+  @Before
+  public void setUp() throws Exception {
+    myRoot = TestingUtil.createFS();
+    final File adminFile = new File(myRoot, TCWorkspace.TCC_ADMIN_FILE);
+    FileUtil.writeFileAndReportErrors(adminFile, "java=//depo/java/\n" +
+                                                 "java/resources=//depo/java_resources\n" +
+                                                 "jav=//depo/jav\n" +
+                                                 "cpp/resources/cpp.resources=//depo/single\n");
+    myMatcher = new FileBasedMatcher(adminFile);
+  }
+
+  @After
+  public void tearDown() {
+    TestingUtil.releaseFS(myRoot);
+  }
+
+  @Test
+  public void longest_prefix() {
+    assertMatching("//depo/java", "1.java", new File(myRoot, "java/1.java"));
+    assertMatching("//depo/java_resources", "2.java", new File(myRoot, "java/resources/2.java"));
+    assertMatching("//depo/java_resources", "a/b/c.txt", new File(myRoot, "java/resources/a/b/c.txt"));
+    assertMatching("//depo/java", "", new File(myRoot, "java"));
+  }
+
+  @Test
+  public void partial_segment_is_not_prefix() {
+    assertMatching("//depo/jav", "x.java", new File(myRoot, "jav/x.java"));
+    assertNull(myMatcher.getMatching(new File(myRoot, "javax/x.java")));
+    assertNull(myMatcher.getMatching(new File(myRoot, "1.txt")));
+  }
+
+  @Test
+  public void file_rule() {
+    assertMatching("//depo/single", "", new File(myRoot, "cpp/resources/cpp.resources"));
+    assertNull(myMatcher.getMatching(new File(myRoot, "cpp/resources/other.resources")));
+  }
+
+  @Test
+  public void bulk_matchings() {
+    final List<File> files = Arrays.asList(new File(myRoot, "java/1.java"), new File(myRoot, "java/resources/2.java"), new File(myRoot, "java/resources/a/b.txt"),
+                                           new File(myRoot, "jav/x.java"), new File(myRoot, "javax/x.java"), new File(myRoot, "cpp/resources/cpp.resources"));
+    final Map<File, ITCResourceMatcher.Matching> matchings = myMatcher.getMatchings(files);
+    assertEquals(5, matchings.size());
+    for (final File file : files) {
+      final ITCResourceMatcher.Matching single = myMatcher.getMatching(file);
+      final ITCResourceMatcher.Matching bulk = matchings.get(file);
+      if (single == null) {
+        assertNull(bulk);
+      } else {
+        assertEquals(single.getTCID(), bulk.getTCID());
+        assertEquals(single.getRelativePath(), bulk.getRelativePath());
+      }
+    }
+  }
+
+  private void assertMatching(final String tcid, final String relativePath, final File file) {
+    final ITCResourceMatcher.Matching matching = myMatcher.getMatching(file);
+    assertNotNull("No matching for " + file, matching);
+    assertEquals(tcid, matching.getTCID());
+    assertEquals(relativePath, matching.getRelativePath());
+  }
+
+}
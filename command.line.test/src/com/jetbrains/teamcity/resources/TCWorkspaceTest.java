@@ -1,8 +1,14 @@
 package com.jetbrains.teamcity.resources;
 
+import com.jetbrains.teamcity.PathInfoCache;
 import com.jetbrains.teamcity.TestingUtil;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import jetbrains.buildServer.util.FileUtil;
 import org.junit.After;
 import org.junit.Before;
@@ -47,6 +53,66 @@ public class TCWorkspaceTest {
 		
 	}
 	
+	@Test
+	public void getAdminFileFor_cached() throws Exception {
+		FileUtil.writeFileAndReportErrors(new File(root, TCWorkspace.TCC_ADMIN_FILE), ".=//depo/test/\n");
+		final PathInfoCache paths = new PathInfoCache();
+		final ConcurrentHashMap<File, ITCResourceMatcher> folders = new ConcurrentHashMap<File, ITCResourceMatcher>();
+
+		final ITCResourceMatcher java = TCWorkspace.getMatcherFor(new File(root, "java/resources/2.java"), paths, folders);
+		assertNotNull(java);
+		assertSame(java, folders.get(new File(root, "java").getCanonicalFile()));
+		// sibling folder shares the parsed admin file
+		assertSame(java, TCWorkspace.getMatcherFor(new File(root, "cpp/resources/cpp.resources"), paths, folders));
+
+		// not found is cached too
+		final File outside = root.getCanonicalFile().getParentFile();
+		assertNull(TCWorkspace.getMatcherFor(new File(outside, "file.txt"), paths, folders));
+		assertTrue(folders.containsKey(outside));
+		assertNull(TCWorkspace.getMatcherFor(new File(outside, "file.txt"), paths, folders));
+	}
+
+	@Test
+	public void getMatcherFor_synced_root() throws Exception {
+		final PathInfoCache paths = new PathInfoCache();
+		final File syncedFile = new File(root, "synced.properties");
+		FileUtil.writeFileAndReportErrors(syncedFile, "# buildType=bt1\n.=//depo/synced/\n");
+		final ITCResourceMatcher synced = new FileBasedMatcher(syncedFile, paths);
+		final Map<File, ITCResourceMatcher> roots = Collections.singletonMap(root.getCanonicalFile(), synced);
+
+		assertSame(synced, TCWorkspace.getMatcherFor(new File(root, "java/1.java"), paths, new ConcurrentHashMap<File, ITCResourceMatcher>(), roots));
+
+		// real admin file wins
+		FileUtil.writeFileAndReportErrors(new File(root, TCWorkspace.TCC_ADMIN_FILE), ".=//depo/test/\n");
+		final ITCResourceMatcher admin = TCWorkspace.getMatcherFor(new File(root, "java/1.java"), new PathInfoCache(), new ConcurrentHashMap<File, ITCResourceMatcher>(), roots);
+		assertNotNull(admin);
+		assertNotSame(synced, admin);
+	}
+
+	@Test
+	public void getTCResources_bulk() throws Exception {
+		FileUtil.writeFileAndReportErrors(new File(root, TCWorkspace.TCC_ADMIN_FILE), ".=//depo/test/\n");
+		FileUtil.writeFileAndReportErrors(new File(root, "cpp/" + TCWorkspace.TCC_ADMIN_FILE), ".=//depo/cpp/\n");
+		final List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 5000; i++) {
+			files.add(new File(root, (i % 2 == 0 ? "java/gen/" : "cpp/gen/") + i + ".txt"));
+		}
+		files.add(new File(root, "java/1.java"));
+		files.add(new File(root, "java/./1.java"));
+
+		final TCWorkspace workspace = new TCWorkspace();
+		final List<ITCResource> resources = workspace.getTCResources(files);
+		assertEquals(5001, resources.size());
+		File previous = null;
+		for (final ITCResource resource : resources) {
+			assertTrue(previous == null || previous.compareTo(resource.getLocal()) < 0);
+			assertEquals(workspace.getTCResource(resource.getLocal()), resource);
+			previous = resource.getLocal();
+		}
+		assertEquals("//depo/cpp/gen/1.txt", workspace.getTCResource(new File(root, "cpp/gen/1.txt")).getRepositoryPath());
+		assertEquals("//depo/cpp", workspace.getTCResource(new File(root, "cpp/gen/1.txt")).getRepositoryRoot());
+	}
+
 	@Test
 	public void getAdminFileFor_functionality() throws Exception {
 
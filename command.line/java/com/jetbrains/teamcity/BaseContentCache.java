@@ -0,0 +1,184 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Contents of text files as they were last sent to a server, kept per server and local file. The server keeps
+ * the same contents by their hashes, so the next patch may carry a {@link DeltaEncoder delta} against them.
+ * A base is a copy of the content and a file with its hash, the hash file is written last. Least recently used
+ * bases are {@link #evict(long) evicted} when the cache grows over its size limit.
+ */
+public class BaseContentCache {
+
+  static final String BASES_FOLDER = "bases"; //$NON-NLS-1$
+
+  /**
+   * deltas of bigger files are not computed, both contents are kept in memory
+   */
+  public static final long MAX_BASE_SIZE = 8L * 1024 * 1024;
+
+  private static final String CONTENT_SUFFIX = ".base"; //$NON-NLS-1$
+  private static final String HASH_SUFFIX = ".sha256"; //$NON-NLS-1$
+  private static final int TEXT_PROBE_SIZE = 8 * 1024;
+
+  private final File myFolder;
+
+  public BaseContentCache(@NotNull final String serverUrl) {
+    this(new File(new File(Storage.getInstance().getHome(), BASES_FOLDER), WorkspaceSnapshot.hash(serverUrl.getBytes())));
+  }
+
+  BaseContentCache(@NotNull final File folder) {
+    myFolder = folder;
+  }
+
+  /**
+   * @return base of the local file or null if it has not been sent
+   */
+  @Nullable
+  public Base get(@NotNull final File local) {
+    final String key = getKey(local);
+    final File content = new File(myFolder, key + CONTENT_SUFFIX);
+    final File hash = new File(myFolder, key + HASH_SUFFIX);
+    if (!content.isFile() || !hash.isFile()) {
+      return null;
+    }
+    try {
+      final Base base = new Base(content, FileUtil.readText(hash).trim());
+      // becomes the most recently used one
+      //noinspection ResultOfMethodCallIgnored
+      content.setLastModified(System.currentTimeMillis());
+      return base;
+    } catch (IOException e) {
+      Debug.getInstance().error(BaseContentCache.class, String.format("Could not read base of %s", local), e);
+      return null;
+    }
+  }
+
+  /**
+   * Keeps the current content of the local file as its base, or forgets the base if the file is not a text one of a suitable size
+   */
+  public void update(@NotNull final File local) throws IOException {
+    final String key = getKey(local);
+    final File content = new File(myFolder, key + CONTENT_SUFFIX);
+    final File hash = new File(myFolder, key + HASH_SUFFIX);
+    FileUtil.delete(hash);
+    if (!local.isFile() || local.length() > MAX_BASE_SIZE) {
+      FileUtil.delete(content);
+      return;
+    }
+    if (!myFolder.exists() && !myFolder.mkdirs()) {
+      throw new IOException(String.format("Could not create %s", myFolder));
+    }
+    final byte[] bytes = Files.readAllBytes(local.toPath());
+    if (!isText(bytes)) {
+      FileUtil.delete(content);
+      return;
+    }
+    final File temp = new File(myFolder, key + ".tmp"); //$NON-NLS-1$
+    Files.write(temp.toPath(), bytes);
+    // the copy is hashed: the file may have changed since it was sent, the server has not got the base then
+    final String contentHash = BlobPatchWriter.hash(temp);
+    Files.move(temp.toPath(), content.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    FileUtil.writeFileAndReportErrors(hash, contentHash);
+  }
+
+  /**
+   * Removes least recently used bases while the cache is over the size limit
+   */
+  public void evict(final long maxSize) {
+    final File[] contents = myFolder.listFiles(new FileFilter() {
+      public boolean accept(final File file) {
+        return file.getName().endsWith(CONTENT_SUFFIX);
+      }
+    });
+    if (contents == null) {
+      return;
+    }
+    long size = 0;
+    for (final File content : contents) {
+      size += content.length();
+    }
+    if (size <= maxSize) {
+      return;
+    }
+    Arrays.sort(contents, new Comparator<File>() {
+      public int compare(final File o1, final File o2) {
+        final long m1 = o1.lastModified();
+        final long m2 = o2.lastModified();
+        return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+      }
+    });
+    for (int i = 0; i < contents.length && size > maxSize; i++) {
+      final String key = contents[i].getName().substring(0, contents[i].getName().length() - CONTENT_SUFFIX.length());
+      // the hash goes first: a base without it is not used
+      FileUtil.delete(new File(myFolder, key + HASH_SUFFIX));
+      size -= contents[i].length();
+      FileUtil.delete(contents[i]);
+    }
+  }
+
+  /**
+   * @return true if the beginning of the content has no NUL bytes
+   */
+  public static boolean isText(@NotNull final byte[] content) {
+    for (int i = 0; i < content.length && i < TEXT_PROBE_SIZE; i++) {
+      if (content[i] == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final File local) {
+    return WorkspaceSnapshot.hash(local.getAbsolutePath().getBytes());
+  }
+
+  public static class Base {
+    private final File myContent;
+    private final String myHash;
+
+    Base(@NotNull final File content, @NotNull final String hash) {
+      myContent = content;
+      myHash = hash;
+    }
+
+    @NotNull
+    public File getContent() {
+      return myContent;
+    }
+
+    /**
+     * @return {@link BlobPatchWriter#hash(File)} of the content
+     */
+    @NotNull
+    public String getHash() {
+      return myHash;
+    }
+  }
+
+}
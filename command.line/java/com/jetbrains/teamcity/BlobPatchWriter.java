@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes a patch understood by the command line server plugin: file contents the server already has are sent
+ * as references to its content-addressed store, the plugin turns the patch into a regular one.
+ * Format: version, then operations each starting with its code, terminated by {@link #END}.
+ */
+public class BlobPatchWriter implements Closeable {
+
+  public static final String CONTENT_TYPE = "application/x-teamcity-blob-patch"; //$NON-NLS-1$
+
+  /**
+   * smaller files are not worth a hash and a round trip, the server stores contents of this size and bigger
+   */
+  public static final long MIN_BLOB_SIZE = 64 * 1024;
+
+  static final int VERSION = 1;
+  static final byte END = 0;
+  static final byte CONTENT = 1;
+  static final byte REFERENCE = 2;
+  static final byte DELETE = 3;
+  static final byte DELTA = 4;
+
+  private static final String HASH_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DataOutputStream myOut;
+
+  public BlobPatchWriter(@NotNull final DataOutputStream out) throws IOException {
+    myOut = out;
+    myOut.writeInt(VERSION);
+  }
+
+  public void changeBinary(@NotNull final String path, final long length, @NotNull final LowLevelPatchBuilder.WriteFileContent content) throws IOException {
+    myOut.writeByte(CONTENT);
+    myOut.writeUTF(path);
+    myOut.writeLong(length);
+    content.writeTo(myOut);
+  }
+
+  /**
+   * @param hash {@link #hash(File)} of the content the server has got
+   */
+  public void changeBinary(@NotNull final String path, final long length, @NotNull final String hash) throws IOException {
+    myOut.writeByte(REFERENCE);
+    myOut.writeUTF(path);
+    myOut.writeUTF(hash);
+    myOut.writeLong(length);
+  }
+
+  /**
+   * @param baseHash {@link #hash(File)} of the base content the server has got
+   * @param delta {@link DeltaEncoder#encode(byte[], byte[])} of the content against the base
+   */
+  public void changeDelta(@NotNull final String path, final long length, @NotNull final String baseHash, @NotNull final byte[] delta) throws IOException {
+    myOut.writeByte(DELTA);
+    myOut.writeUTF(path);
+    myOut.writeUTF(baseHash);
+    myOut.writeLong(length);
+    myOut.writeInt(delta.length);
+    myOut.write(delta);
+  }
+
+  public void delete(@NotNull final String path) throws IOException {
+    myOut.writeByte(DELETE);
+    myOut.writeUTF(path);
+  }
+
+  /**
+   * Terminates the patch, the stream is left open
+   */
+  public void close() throws IOException {
+    myOut.writeByte(END);
+    myOut.flush();
+  }
+
+  /**
+   * @return lowercase hex SHA-256 of the file content
+   */
+  @NotNull
+  public static String hash(@NotNull final File file) throws IOException {
+    final MessageDigest digest = createDigest();
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+      while (in.read(buffer) >= 0) {
+        // digest
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @return digest of {@link #hash(File)}, for contents hashed while they are written
+   */
+  @NotNull
+  public static MessageDigest createDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @NotNull
+  public static String toHex(@NotNull final byte[] digest) {
+    final StringBuilder result = new StringBuilder(digest.length * 2);
+    for (final byte b : digest) {
+      result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+}
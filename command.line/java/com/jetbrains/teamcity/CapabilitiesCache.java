@@ -0,0 +1,126 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Command line plugin capabilities of a server as its compressed upload controller reported them, kept per server,
+ * so the capabilities are probed once per time to live instead of by every process.
+ */
+public class CapabilitiesCache {
+
+  static final String CAPABILITIES_FOLDER = "capabilities"; //$NON-NLS-1$
+
+  private static final String TIMESTAMP = "timestamp"; //$NON-NLS-1$
+  private static final String COMPRESSED = "compressed"; //$NON-NLS-1$
+  private static final String BLOBS = "blobs"; //$NON-NLS-1$
+  private static final String MAX_CHUNK_SIZE = "maxChunkSize"; //$NON-NLS-1$
+
+  private final File myFile;
+
+  public CapabilitiesCache(@NotNull final String serverUrl) {
+    this(new File(new File(Storage.getInstance().getHome(), CAPABILITIES_FOLDER), WorkspaceSnapshot.hash(serverUrl.getBytes()) + ".properties")); //$NON-NLS-1$
+  }
+
+  CapabilitiesCache(@NotNull final File file) {
+    myFile = file;
+  }
+
+  /**
+   * @param ttl time to live of the capabilities in milliseconds
+   * @return capabilities or null if there are none or they have expired
+   */
+  @Nullable
+  public synchronized Capabilities get(final long ttl, final long now) {
+    if (!myFile.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(myFile)) {
+      properties.load(in);
+      final long timestamp = Long.parseLong(properties.getProperty(TIMESTAMP));
+      if (now - timestamp >= ttl || timestamp > now) {
+        return null;
+      }
+      return new Capabilities(Boolean.parseBoolean(properties.getProperty(COMPRESSED)), Boolean.parseBoolean(properties.getProperty(BLOBS)),
+                              Integer.parseInt(properties.getProperty(MAX_CHUNK_SIZE)));
+    } catch (IOException | RuntimeException e) {
+      Debug.getInstance().error(CapabilitiesCache.class, String.format("Could not read %s", myFile), e);
+      return null;
+    }
+  }
+
+  public synchronized void put(@NotNull final Capabilities capabilities, final long now) {
+    final Properties properties = new Properties();
+    properties.setProperty(TIMESTAMP, String.valueOf(now));
+    properties.setProperty(COMPRESSED, String.valueOf(capabilities.isCompressedUploadSupported()));
+    properties.setProperty(BLOBS, String.valueOf(capabilities.isBlobUploadSupported()));
+    properties.setProperty(MAX_CHUNK_SIZE, String.valueOf(capabilities.getMaxChunkSize()));
+    try {
+      final File folder = myFile.getAbsoluteFile().getParentFile();
+      if (!folder.exists() && !folder.mkdirs()) {
+        throw new IOException(String.format("Could not create %s", folder));
+      }
+      final File temp = new File(folder, myFile.getName() + ".tmp"); //$NON-NLS-1$
+      try (OutputStream out = new FileOutputStream(temp)) {
+        properties.store(out, null);
+      }
+      Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // the next run just probes the server again
+      Debug.getInstance().error(CapabilitiesCache.class, String.format("Could not save %s", myFile), e);
+    }
+  }
+
+  public synchronized void clear() {
+    //noinspection ResultOfMethodCallIgnored
+    myFile.delete();
+  }
+
+  public static class Capabilities {
+    private final boolean isCompressedUploadSupported;
+    private final boolean isBlobUploadSupported;
+    private final int myMaxChunkSize;
+
+    public Capabilities(final boolean compressedUploadSupported, final boolean blobUploadSupported, final int maxChunkSize) {
+      isCompressedUploadSupported = compressedUploadSupported;
+      isBlobUploadSupported = blobUploadSupported;
+      myMaxChunkSize = maxChunkSize;
+    }
+
+    public boolean isCompressedUploadSupported() {
+      return isCompressedUploadSupported;
+    }
+
+    public boolean isBlobUploadSupported() {
+      return isBlobUploadSupported;
+    }
+
+    /**
+     * @return 0 if the server does not take patches in chunks
+     */
+    public int getMaxChunkSize() {
+      return myMaxChunkSize;
+    }
+  }
+
+}
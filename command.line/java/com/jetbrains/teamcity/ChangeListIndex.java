@@ -0,0 +1,178 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Change lists created for patches, keyed by server and {@link #getPatchKey patch key}. Running the same changes again
+ * reuses the change list instead of sending the patch once more. The most recently used entries are kept.
+ * <p/>
+ * The key is computed from file sizes and timestamps, so looking up changes costs no reading of them. An entry keeps
+ * the key of the sent contents as well, contents are hashed to compare with it only when there is an entry.
+ */
+public class ChangeListIndex {
+
+  static final String INDEX_FILE = "changelists.properties"; //$NON-NLS-1$
+  static final int MAX_ENTRIES = 200;
+
+  private final File myFile;
+
+  public ChangeListIndex() {
+    this(new File(Storage.getInstance().getHome(), INDEX_FILE));
+  }
+
+  ChangeListIndex(@NotNull final File file) {
+    myFile = file;
+  }
+
+  /**
+   * @param contents stamp or hash of the content of every existing file, files without one are deleted by the patch
+   * @return hash of the comment and the sorted repository paths with their contents
+   */
+  @NotNull
+  public static String getPatchKey(@NotNull final String comment, @NotNull final Map<String, String> contents) {
+    final StringBuilder key = new StringBuilder(comment).append('\n');
+    for (final Map.Entry<String, String> entry : new TreeMap<String, String>(contents).entrySet()) {
+      key.append(entry.getKey()).append('\t').append(entry.getValue() != null ? entry.getValue() : "-").append('\n'); //$NON-NLS-1$
+    }
+    try {
+      return WorkspaceSnapshot.hash(key.toString().getBytes("UTF-8")); //$NON-NLS-1$
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Nullable
+  public synchronized Entry get(@NotNull final String serverUrl, @NotNull final String patchKey) {
+    final String value = load().getProperty(getKey(serverUrl, patchKey));
+    if (value == null) {
+      return null;
+    }
+    final String[] fields = value.split(","); //$NON-NLS-1$
+    try {
+      if (fields.length == 3) {
+        return new Entry(Long.parseLong(fields[0]), fields[2]);
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    Debug.getInstance().debug(ChangeListIndex.class, String.format("Ignoring change list entry of unknown format: %s", value));
+    return null;
+  }
+
+  /**
+   * @param contentKey {@link #getPatchKey patch key} computed from content hashes of the files
+   */
+  public synchronized void put(@NotNull final String serverUrl, @NotNull final String patchKey, final long changeListId, @NotNull final String contentKey) {
+    final Properties index = load();
+    index.setProperty(getKey(serverUrl, patchKey), changeListId + "," + System.currentTimeMillis() + "," + contentKey); //$NON-NLS-1$ //$NON-NLS-2$
+    store(index);
+  }
+
+  public synchronized void remove(@NotNull final String serverUrl, @NotNull final String patchKey) {
+    final Properties index = load();
+    if (index.remove(getKey(serverUrl, patchKey)) != null) {
+      store(index);
+    }
+  }
+
+  @NotNull
+  private static String getKey(@NotNull final String serverUrl, @NotNull final String patchKey) {
+    return WorkspaceSnapshot.hash((serverUrl + '\n' + patchKey).getBytes());
+  }
+
+  @NotNull
+  private Properties load() {
+    final Properties index = new Properties();
+    if (myFile.isFile()) {
+      try (InputStream in = new FileInputStream(myFile)) {
+        index.load(in);
+      } catch (IOException e) {
+        Debug.getInstance().error(ChangeListIndex.class, String.format("Could not read %s", myFile), e);
+      }
+    }
+    return index;
+  }
+
+  private void store(@NotNull final Properties index) {
+    // the oldest entries go first
+    final List<String> keys = new ArrayList<String>(index.stringPropertyNames());
+    if (keys.size() > MAX_ENTRIES) {
+      Collections.sort(keys, new Comparator<String>() {
+        public int compare(final String o1, final String o2) {
+          final long t1 = getTimestamp(index.getProperty(o1));
+          final long t2 = getTimestamp(index.getProperty(o2));
+          return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+        }
+      });
+      for (final String key : keys.subList(0, keys.size() - MAX_ENTRIES)) {
+        index.remove(key);
+      }
+    }
+    try {
+      final File folder = myFile.getAbsoluteFile().getParentFile();
+      if (!folder.exists() && !folder.mkdirs()) {
+        throw new IOException(String.format("Could not create %s", folder));
+      }
+      final File temp = new File(folder, myFile.getName() + ".tmp"); //$NON-NLS-1$
+      try (OutputStream out = new FileOutputStream(temp)) {
+        index.store(out, null);
+      }
+      Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // the next run just sends the patch again
+      Debug.getInstance().error(ChangeListIndex.class, String.format("Could not save %s", myFile), e);
+    }
+  }
+
+  private static long getTimestamp(@NotNull final String value) {
+    final String[] fields = value.split(","); //$NON-NLS-1$
+    try {
+      return fields.length > 1 ? Long.parseLong(fields[1]) : 0;
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  public static class Entry {
+    private final long myChangeListId;
+    private final String myContentKey;
+
+    Entry(final long changeListId, @NotNull final String contentKey) {
+      myChangeListId = changeListId;
+      myContentKey = contentKey;
+    }
+
+    public long getChangeListId() {
+      return myChangeListId;
+    }
+
+    /**
+     * @return patch key computed from content hashes of the files sent
+     */
+    @NotNull
+    public String getContentKey() {
+      return myContentKey;
+    }
+  }
+
+}
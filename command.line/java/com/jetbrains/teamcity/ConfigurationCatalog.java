@@ -0,0 +1,180 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.util.*;
+import jetbrains.buildServer.BuildTypeData;
+import jetbrains.buildServer.ProjectData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable view of the projects and build configurations of a server, indexed by internal and external ids and sorted for listing.
+ * It is built once per session, see {@link Server#getCatalog()}. Nothing is computed up front: lookups index projects one by one
+ * until the id is found and the listings are built on first use, so a lazily deserialized project list is only read as far as needed.
+ */
+public class ConfigurationCatalog {
+
+  private static final Comparator<ProjectData> PROJECT_NAME_ORDER = new Comparator<ProjectData>() {
+    public int compare(final ProjectData o1, final ProjectData o2) {
+      return o1.getName().compareTo(o2.getName());
+    }
+  };
+
+  private static final Comparator<BuildTypeData> CONFIGURATION_NAME_ORDER = new Comparator<BuildTypeData>() {
+    public int compare(final BuildTypeData o1, final BuildTypeData o2) {
+      return o1.getName().compareTo(o2.getName());
+    }
+  };
+
+  private final List<ProjectData> myProjects;
+  private List<ProjectData> myProjectsByName;
+  private List<BuildTypeData> myConfigurations;
+  private List<BuildTypeData> myConfigurationsByName;
+  private final Map<String, ProjectData> myProjectIndex = new HashMap<String, ProjectData>();
+  private final Map<String, BuildTypeData> myConfigurationIndex = new HashMap<String, BuildTypeData>();
+  private final Map<String, BuildTypeData> myExternalIdIndex = new HashMap<String, BuildTypeData>();
+  private final Map<String, List<BuildTypeData>> myProjectConfigurations = new HashMap<String, List<BuildTypeData>>();
+  private final Map<ProjectData, List<BuildTypeData>> mySortedConfigurations = new IdentityHashMap<ProjectData, List<BuildTypeData>>();
+  /**
+   * Number of leading projects added to the lookup indexes
+   */
+  private int myIndexed;
+
+  /**
+   * @param projects are kept as is and read only when the catalog is queried
+   */
+  public ConfigurationCatalog(@NotNull final List<ProjectData> projects) {
+    myProjects = Collections.unmodifiableList(projects);
+  }
+
+  /**
+   * Looks the key up, indexing the projects which are not indexed yet until it is found
+   */
+  @Nullable
+  private synchronized <T> T lookup(@NotNull final Map<String, T> index, @NotNull final String key) {
+    T value = index.get(key);
+    while (value == null && myIndexed < myProjects.size()) {
+      final ProjectData project = myProjects.get(myIndexed++);
+      final List<BuildTypeData> projectConfigurations = getSortedConfigurations(project);
+      index(myProjectIndex, project.getProjectId(), project);
+      index(myProjectIndex, project.getExternalId(), project);
+      index(myProjectConfigurations, project.getProjectId(), projectConfigurations);
+      index(myProjectConfigurations, project.getExternalId(), projectConfigurations);
+      for (final BuildTypeData configuration : projectConfigurations) {
+        index(myConfigurationIndex, configuration.getId(), configuration);
+        index(myExternalIdIndex, configuration.getExternalId(), configuration);
+      }
+      value = index.get(key);
+    }
+    return value;
+  }
+
+  private static <T> void index(@NotNull final Map<String, T> index, @Nullable final String key, @NotNull final T value) {
+    if (key != null && !index.containsKey(key)) {
+      index.put(key, value);
+    }
+  }
+
+  @NotNull
+  private synchronized List<BuildTypeData> getSortedConfigurations(@NotNull final ProjectData project) {
+    List<BuildTypeData> sorted = mySortedConfigurations.get(project);
+    if (sorted == null) {
+      final List<BuildTypeData> own = new ArrayList<BuildTypeData>(project.getBuildTypes());
+      Collections.sort(own, CONFIGURATION_NAME_ORDER);
+      sorted = Collections.unmodifiableList(own);
+      mySortedConfigurations.put(project, sorted);
+    }
+    return sorted;
+  }
+
+  /**
+   * @return projects in the order the server has sent them
+   */
+  @NotNull
+  public List<ProjectData> getProjects() {
+    return myProjects;
+  }
+
+  @NotNull
+  public synchronized List<ProjectData> getProjectsByName() {
+    if (myProjectsByName == null) {
+      final List<ProjectData> projectsByName = new ArrayList<ProjectData>(myProjects);
+      Collections.sort(projectsByName, PROJECT_NAME_ORDER);
+      myProjectsByName = Collections.unmodifiableList(projectsByName);
+    }
+    return myProjectsByName;
+  }
+
+  /**
+   * @return configurations of all the projects in the order the server has sent them
+   */
+  @NotNull
+  public synchronized List<BuildTypeData> getConfigurations() {
+    if (myConfigurations == null) {
+      final List<BuildTypeData> configurations = new ArrayList<BuildTypeData>(myProjects.size() * 5);
+      for (final ProjectData project : myProjects) {
+        configurations.addAll(project.getBuildTypes());
+      }
+      myConfigurations = Collections.unmodifiableList(configurations);
+    }
+    return myConfigurations;
+  }
+
+  /**
+   * @return configurations sorted by project name and then by configuration name
+   */
+  @NotNull
+  public synchronized List<BuildTypeData> getConfigurationsByName() {
+    if (myConfigurationsByName == null) {
+      final List<BuildTypeData> configurationsByName = new ArrayList<BuildTypeData>(myProjects.size() * 5);
+      for (final ProjectData project : getProjectsByName()) {
+        configurationsByName.addAll(getSortedConfigurations(project));
+      }
+      myConfigurationsByName = Collections.unmodifiableList(configurationsByName);
+    }
+    return myConfigurationsByName;
+  }
+
+  /**
+   * @param projectId internal or external id
+   */
+  @Nullable
+  public ProjectData findProject(@NotNull final String projectId) {
+    return lookup(myProjectIndex, projectId);
+  }
+
+  @Nullable
+  public BuildTypeData findConfiguration(@NotNull final String internalId) {
+    return lookup(myConfigurationIndex, internalId);
+  }
+
+  @Nullable
+  public BuildTypeData findConfigurationByExternalId(@NotNull final String externalId) {
+    return lookup(myExternalIdIndex, externalId);
+  }
+
+  /**
+   * @param projectId internal or external id
+   * @return configurations of the project sorted by name, empty if there is no such project
+   */
+  @NotNull
+  public List<BuildTypeData> getProjectConfigurations(@NotNull final String projectId) {
+    final List<BuildTypeData> configurations = lookup(myProjectConfigurations, projectId);
+    return configurations != null ? configurations : Collections.<BuildTypeData>emptyList();
+  }
+
+}
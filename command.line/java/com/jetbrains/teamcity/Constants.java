@@ -23,4 +23,60 @@ public class Constants {
 
   public static final String UNKNOWN_STRING = "<unknown>";
 
+  /**
+   * set to "false" to build the patch in a file before sending it instead of streaming it in a chunked request
+   */
+  public static final String STREAM_PATCH_SYSTEM_PROPERTY = "teamcity.cli.patch.stream";
+
+  /**
+   * size in bytes up to which a patch which is not streamed is kept in memory rather than in a temporary file
+   */
+  public static final String PATCH_MEMORY_THRESHOLD_SYSTEM_PROPERTY = "teamcity.cli.patch.memory.threshold";
+
+  /**
+   * set to "false" to always send a new patch instead of reusing the change list created for the same changes earlier
+   */
+  public static final String REUSE_CHANGE_LIST_SYSTEM_PROPERTY = "teamcity.cli.changelist.reuse";
+
+  /**
+   * total size in bytes of changed files from which the patch is uploaded in resumable chunks, if the server supports it
+   */
+  public static final String CHUNKED_UPLOAD_THRESHOLD_SYSTEM_PROPERTY = "teamcity.cli.patch.chunked.threshold";
+
+  /**
+   * number of parallel connections a chunked upload may use at most, 1 sends the chunks one after another
+   */
+  public static final String UPLOAD_STREAMS_SYSTEM_PROPERTY = "teamcity.cli.patch.upload.streams";
+
+  public static final long DEFAULT_PROJECTS_CACHE_TTL = 1000 * 60 * 60;// 1 hour
+
+  /**
+   * time in milliseconds projects of a server are cached for while the server reports no changes of them, 0 disables the cache
+   */
+  public static final String PROJECTS_CACHE_TTL_SYSTEM_PROPERTY = "teamcity.cli.projects.cache.ttl";
+
+  public static final long DEFAULT_CAPABILITIES_CACHE_TTL = 1000 * 60 * 60 * 24;// 1 day
+
+  /**
+   * time in milliseconds capabilities of the server's command line plugin are cached for, 0 probes them in every run
+   */
+  public static final String CAPABILITIES_CACHE_TTL_SYSTEM_PROPERTY = "teamcity.cli.capabilities.cache.ttl";
+
+  public static final long DEFAULT_BASES_CACHE_SIZE = 256L * 1024 * 1024;// 256 Mb
+
+  /**
+   * total size in bytes of text contents kept per server as bases of deltas, least recently used ones are removed over it
+   */
+  public static final String BASES_CACHE_SIZE_SYSTEM_PROPERTY = "teamcity.cli.bases.cache.size";
+
+  /**
+   * set to "false" to deserialize projects with all their fields, by default fields the tool does not use are skipped
+   */
+  public static final String PROJECT_SUMMARY_SYSTEM_PROPERTY = "teamcity.cli.projects.summary";
+
+  /**
+   * number of repository paths changes are matched against build configurations with at most, see {@link RepositoryPaths}
+   */
+  public static final String MAX_APPLICABILITY_PATHS_SYSTEM_PROPERTY = "teamcity.cli.applicability.paths.max";
+
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Line based delta of a text content against its base. Runs of lines found in the base are copied from it,
+ * other lines are inserted. Instructions: {@link #COPY} base offset and length, {@link #INSERT} length and bytes, {@link #END}.
+ */
+public class DeltaEncoder {
+
+  static final byte END = 0;
+  static final byte COPY = 1;
+  static final byte INSERT = 2;
+
+  /**
+   * shorter runs cost more as a copy than inserted
+   */
+  private static final int MIN_COPY = 32;
+  private static final int MAX_CANDIDATES = 8;
+
+  /**
+   * @return encoded instructions or null if the delta is not smaller than half of the target
+   */
+  @Nullable
+  public static byte[] encode(@NotNull final byte[] base, @NotNull final byte[] target) throws IOException {
+    final List<Line> baseLines = split(base);
+    final Map<Line, List<Integer>> index = new HashMap<Line, List<Integer>>();
+    for (int i = 0; i < baseLines.size(); i++) {
+      List<Integer> positions = index.get(baseLines.get(i));
+      if (positions == null) {
+        positions = new ArrayList<Integer>(1);
+        index.put(baseLines.get(i), positions);
+      }
+      if (positions.size() < MAX_CANDIDATES) {
+        positions.add(i);
+      }
+    }
+    final List<Line> targetLines = split(target);
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(result);
+    final int limit = target.length / 2;
+    int insertFrom = 0; // target offset of pending inserted bytes
+    int next = 0; // base line following the previous copy
+    int t = 0;
+    while (t < targetLines.size()) {
+      // continuing the previous copy is preferred, repeated lines would match anywhere
+      int bestStart = -1;
+      int bestLength = 0;
+      if (next < baseLines.size() && baseLines.get(next).equals(targetLines.get(t))) {
+        bestStart = next;
+        bestLength = matchLength(baseLines, next, targetLines, t);
+      } else {
+        final List<Integer> candidates = index.get(targetLines.get(t));
+        if (candidates != null) {
+          for (final int candidate : candidates) {
+            final int length = matchLength(baseLines, candidate, targetLines, t);
+            if (length > bestLength) {
+              bestStart = candidate;
+              bestLength = length;
+            }
+          }
+        }
+      }
+      final int copyFrom = bestStart >= 0 ? baseLines.get(bestStart).myStart : 0;
+      final int copyTo = bestStart >= 0 ? baseLines.get(bestStart + bestLength - 1).myEnd : 0;
+      if (copyTo - copyFrom < MIN_COPY) {
+        t++;
+        continue;
+      }
+      writeInsert(out, target, insertFrom, targetLines.get(t).myStart);
+      out.writeByte(COPY);
+      out.writeLong(copyFrom);
+      out.writeInt(copyTo - copyFrom);
+      t += bestLength;
+      next = bestStart + bestLength;
+      insertFrom = t < targetLines.size() ? targetLines.get(t).myStart : target.length;
+      if (out.size() > limit) {
+        return null;
+      }
+    }
+    writeInsert(out, target, insertFrom, target.length);
+    out.writeByte(END);
+    out.flush();
+    return out.size() > limit ? null : result.toByteArray();
+  }
+
+  private static void writeInsert(@NotNull final DataOutputStream out, @NotNull final byte[] target, final int from, final int to) throws IOException {
+    if (to > from) {
+      out.writeByte(INSERT);
+      out.writeInt(to - from);
+      out.write(target, from, to - from);
+    }
+  }
+
+  private static int matchLength(@NotNull final List<Line> base, final int baseFrom, @NotNull final List<Line> target, final int targetFrom) {
+    int length = 0;
+    while (baseFrom + length < base.size() && targetFrom + length < target.size() && base.get(baseFrom + length).equals(target.get(targetFrom + length))) {
+      length++;
+    }
+    return length;
+  }
+
+  @NotNull
+  private static List<Line> split(@NotNull final byte[] content) {
+    final List<Line> lines = new ArrayList<Line>();
+    int start = 0;
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] == '\n') {
+        lines.add(new Line(content, start, i + 1));
+        start = i + 1;
+      }
+    }
+    if (start < content.length) {
+      lines.add(new Line(content, start, content.length));
+    }
+    return lines;
+  }
+
+  /**
+   * Line including its terminator
+   */
+  private static final class Line {
+    private final byte[] myContent;
+    private final int myStart;
+    private final int myEnd;
+    private final int myHash;
+
+    Line(@NotNull final byte[] content, final int start, final int end) {
+      myContent = content;
+      myStart = start;
+      myEnd = end;
+      int hash = 1;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + content[i];
+      }
+      myHash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return myHash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Line)) {
+        return false;
+      }
+      final Line line = (Line) o;
+      if (myHash != line.myHash || myEnd - myStart != line.myEnd - line.myStart) {
+        return false;
+      }
+      for (int i = 0; i < myEnd - myStart; i++) {
+        if (myContent[myStart + i] != line.myContent[line.myStart + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.command.Messages;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.IProgressStatus;
+import jetbrains.buildServer.core.runtime.ProgressStatus;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Collects files of a directory tree. Every directory is listed by its own fork-join task, so
+ * sibling subtrees are scanned in parallel; directories rejected by the filter are never entered.
+ * Attributes read during the walk are registered in the {@link PathInfoCache}, so collected files are not stat-ed again.
+ */
+public class FileCollector {
+
+  private static final long REPORT_INTERVAL = 1000 * 5;
+
+  private final Util.IPathFilter myFilter;
+  private final PathInfoCache myPaths;
+  private final IProgressMonitor myMonitor;
+
+  private final AtomicLong myCollected = new AtomicLong();
+  private final AtomicLong myLastReport = new AtomicLong();
+  private long myStartTime;
+
+  public FileCollector(@NotNull final Util.IPathFilter filter, @NotNull final IProgressMonitor monitor) {
+    this(filter, new PathInfoCache(), monitor);
+  }
+
+  public FileCollector(@NotNull final Util.IPathFilter filter, @NotNull final PathInfoCache paths, @NotNull final IProgressMonitor monitor) {
+    myFilter = filter;
+    myPaths = paths;
+    myMonitor = monitor;
+  }
+
+  @NotNull
+  public Collection<File> collect(@NotNull final File root) {
+    myStartTime = System.currentTimeMillis();
+    myLastReport.set(myStartTime);
+    myCollected.set(0);
+    final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      final List<File> result = pool.invoke(new CollectTask(myPaths.getCanonicalFile(root).toPath()));
+      report();
+      return result;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void collected(final int count) {
+    myCollected.addAndGet(count);
+    final long now = System.currentTimeMillis();
+    final long last = myLastReport.get();
+    if (now - last > REPORT_INTERVAL && myLastReport.compareAndSet(last, now)) {
+      report();
+    }
+  }
+
+  private void report() {
+    final long collected = myCollected.get();
+    final long elapsed = Math.max(1, System.currentTimeMillis() - myStartTime);
+    myMonitor.status(new ProgressStatus(IProgressStatus.INFO, String.format(Messages.getString("RemoteRun.scan.step.progress.message"), collected, elapsed, collected * 1000 / elapsed))); //$NON-NLS-1$
+  }
+
+  private class CollectTask extends RecursiveTask<List<File>> {
+
+    private static final long serialVersionUID = 5718234530221937145L;
+
+    private final Path myDirectory;
+
+    CollectTask(@NotNull final Path directory) {
+      myDirectory = directory;
+    }
+
+    @Override
+    protected List<File> compute() {
+      final List<File> files = new ArrayList<File>();
+      final List<CollectTask> subtasks = new ArrayList<CollectTask>();
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(myDirectory)) {
+        for (final Path child : children) {
+          final PathInfo info;
+          try {
+            final BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            // a child of a canonical directory is canonical unless it's a link
+            info = attributes.isSymbolicLink() ? myPaths.get(child.toFile()) : myPaths.put(child.toFile(), attributes);
+          } catch (IOException | IllegalArgumentException e) {
+            Debug.getInstance().debug(FileCollector.class, String.format("Skipping unreadable %s: %s", child, e.getMessage()));
+            continue;
+          }
+          if (!info.exists()) {
+            Debug.getInstance().debug(FileCollector.class, String.format("Skipping broken link %s", child));
+          } else if (info.isDirectory()) {
+            if (myFilter.acceptDirectory(child)) {
+              final CollectTask subtask = new CollectTask(child);
+              subtask.fork();
+              subtasks.add(subtask);
+            }
+          } else if (myFilter.acceptFile(child)) {
+            files.add(child.toFile());
+          }
+        }
+      } catch (IOException e) {
+        Debug.getInstance().error(FileCollector.class, String.format("Could not list %s", myDirectory), e);
+      }
+      collected(files.size());
+      for (final CollectTask subtask : subtasks) {
+        files.addAll(subtask.join());
+      }
+      return files;
+    }
+  }
+
+}
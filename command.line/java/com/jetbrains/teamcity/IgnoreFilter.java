@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.resources.TCWorkspace;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Extends a filter with {@link IgnoreRules#IGNORE_FILE} rules of every directory on the way to a path from its workspace root:
+ * rules of a directory apply to everything below it, rules of a nested directory take precedence over rules of its parents.
+ * A workspace root is a directory containing {@link TCWorkspace#TCC_ADMIN_FILE} or one of the given roots. Ignore files above
+ * the nearest root are not read, and paths which are not under any root are not filtered by ignore files at all.
+ * Rule files are read once per directory, so a single instance should be shared by a tree walk and explicitly passed paths.
+ */
+public class IgnoreFilter implements Util.IPathFilter {
+
+  private static final Chain OUT_OF_WORKSPACE = new Chain(Collections.<IgnoreRules>emptyList(), false);
+
+  private final Util.IPathFilter myFilter;
+  private final Set<Path> myRoots = new HashSet<Path>();
+  private final ConcurrentHashMap<Path, Chain> myChains = new ConcurrentHashMap<Path, Chain>();
+
+  /**
+   * The current directory is the only workspace root besides the directories with a mapping file
+   */
+  public IgnoreFilter(@NotNull final Util.IPathFilter filter) {
+    this(filter, Collections.singletonList(new File(".")));
+  }
+
+  /**
+   * @param roots workspace roots besides the directories with a mapping file, such as the current directory and directories
+   * with a synced mapping
+   */
+  public IgnoreFilter(@NotNull final Util.IPathFilter filter, @NotNull final Collection<File> roots) {
+    myFilter = filter;
+    for (final File root : roots) {
+      // walked paths are canonical, explicitly passed ones are made absolute
+      myRoots.add(root.toPath().toAbsolutePath().normalize());
+      try {
+        myRoots.add(root.getCanonicalFile().toPath());
+      } catch (IOException e) {
+        Debug.getInstance().error(IgnoreFilter.class, String.format("Could not resolve workspace root %s", root), e);
+      }
+    }
+  }
+
+  /**
+   * @return the filter itself if it already applies ignore files
+   */
+  @NotNull
+  public static Util.IPathFilter wrap(@NotNull final Util.IPathFilter filter) {
+    return filter instanceof IgnoreFilter ? filter : new IgnoreFilter(filter);
+  }
+
+  public boolean acceptDirectory(@NotNull final Path directory) {
+    return myFilter.acceptDirectory(directory) && !isIgnored(directory, true);
+  }
+
+  public boolean acceptFile(@NotNull final Path file) {
+    return myFilter.acceptFile(file) && !isIgnored(file, false);
+  }
+
+  /**
+   * @return decision of the nearest ignore file having a rule for the path, false if there is none
+   */
+  boolean isIgnored(@NotNull Path path, final boolean isDirectory) {
+    path = path.toAbsolutePath().normalize();
+    final Path parent = path.getParent();
+    if (parent == null) {
+      return false;
+    }
+    for (final IgnoreRules rules : getChain(parent).myRules) {
+      final Boolean ignored = rules.decide(path, isDirectory);
+      if (ignored != null) {
+        return ignored;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return rules of the directory and its parents up to the nearest workspace root, nearest first
+   */
+  @NotNull
+  private Chain getChain(@NotNull final Path directory) {
+    final Chain cached = myChains.get(directory);
+    if (cached != null) {
+      return cached;
+    }
+    final boolean isRoot = isWorkspaceRoot(directory);
+    final Path parent = directory.getParent();
+    final Chain parentChain = isRoot ? null : parent != null ? getChain(parent) : OUT_OF_WORKSPACE;
+    final Chain chain;
+    if (parentChain != null && !parentChain.isInWorkspace) {
+      chain = OUT_OF_WORKSPACE;
+    } else {
+      final List<IgnoreRules> parentRules = parentChain != null ? parentChain.myRules : Collections.<IgnoreRules>emptyList();
+      final IgnoreRules rules = IgnoreRules.load(directory.toFile());
+      if (rules == null) {
+        chain = parentChain != null ? parentChain : new Chain(parentRules, true);
+      } else {
+        final List<IgnoreRules> chainRules = new ArrayList<IgnoreRules>(parentRules.size() + 1);
+        chainRules.add(rules);
+        chainRules.addAll(parentRules);
+        chain = new Chain(chainRules, true);
+      }
+    }
+    final Chain previous = myChains.putIfAbsent(directory, chain);
+    return previous != null ? previous : chain;
+  }
+
+  private boolean isWorkspaceRoot(@NotNull final Path directory) {
+    return myRoots.contains(directory) || new File(directory.toFile(), TCWorkspace.TCC_ADMIN_FILE).isFile();
+  }
+
+  private static class Chain {
+    private final List<IgnoreRules> myRules;
+    private final boolean isInWorkspace;
+
+    private Chain(@NotNull final List<IgnoreRules> rules, final boolean inWorkspace) {
+      myRules = rules;
+      isInWorkspace = inWorkspace;
+    }
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Exclusion rules in .gitignore syntax: '#' comments, '!' negation, trailing '/' for directories only,
+ * leading or inner '/' anchors a rule to the root, '*', '?', '[...]' and '**' wildcards. The last matching rule wins.
+ * <p/>
+ * Rules are compiled into a trie of path segments which is run as a non-deterministic automaton over
+ * the segments of a path. States of visited directories are cached, so a tree walk checks every entry with a single step.
+ */
+public class IgnoreRules implements Util.IPathFilter {
+
+  public static final String IGNORE_FILE = ".tccignore"; //$NON-NLS-1$
+
+  private static final String ANY_SEGMENTS = "**"; //$NON-NLS-1$
+
+  private final Path myRoot;
+  private final Node myTrie = new Node(false, null);
+  private final List<Boolean> myNegated = new ArrayList<Boolean>();
+  private final Node[] myRootState;
+  private final ConcurrentHashMap<Path, Node[]> myStates = new ConcurrentHashMap<Path, Node[]>();
+
+  IgnoreRules(@NotNull final File root, @NotNull final List<String> lines) {
+    myRoot = root.getAbsoluteFile().toPath();
+    for (final String line : lines) {
+      addRule(line);
+    }
+    myRootState = closure(Collections.singletonList(myTrie));
+  }
+
+  /**
+   * @return rules of the root's {@link #IGNORE_FILE} or null if there is no such file
+   */
+  @Nullable
+  public static IgnoreRules load(@NotNull final File root) {
+    final File ignoreFile = new File(root, IGNORE_FILE);
+    if (!ignoreFile.isFile()) {
+      return null;
+    }
+    try {
+      final IgnoreRules rules = new IgnoreRules(root, FileUtil.readFile(ignoreFile));
+      Debug.getInstance().debug(IgnoreRules.class, String.format("%d rule(s) loaded from %s", rules.myNegated.size(), ignoreFile));
+      return rules;
+    } catch (IOException e) {
+      throw new IllegalArgumentException(String.format("Could not read \"%s\"", ignoreFile), e);
+    }
+  }
+
+  /**
+   * @param pattern single rule relative to the root
+   */
+  @NotNull
+  public static IgnoreRules compile(@NotNull final File root, @NotNull final String pattern) {
+    return new IgnoreRules(root, Collections.singletonList(pattern));
+  }
+
+  public boolean acceptDirectory(@NotNull final Path directory) {
+    return !matches(directory, true);
+  }
+
+  public boolean acceptFile(@NotNull final Path file) {
+    return !matches(file, false);
+  }
+
+  /**
+   * @return true if the last rule matching the path is not a negation one
+   */
+  public boolean matches(@NotNull final Path path, final boolean isDirectory) {
+    return Boolean.TRUE.equals(decide(path, isDirectory));
+  }
+
+  /**
+   * @return null if no rule matches the path, otherwise true unless the last matching rule is a negation one
+   */
+  @Nullable
+  Boolean decide(@NotNull final Path path, final boolean isDirectory) {
+    final Path parent = path.getParent();
+    if (parent == null || path.getFileName() == null) {
+      return null;
+    }
+    final Node[] parentState = getState(parent);
+    if (parentState == null) {
+      return null; // out of root
+    }
+    final Node[] state = step(parentState, path.getFileName().toString());
+    if (isDirectory) {
+      myStates.putIfAbsent(path, state);
+    }
+    int rule = -1;
+    for (final Node node : state) {
+      rule = Math.max(rule, isDirectory ? Math.max(node.myRule, node.myDirectoryRule) : node.myRule);
+    }
+    return rule >= 0 ? !myNegated.get(rule) : null;
+  }
+
+  @Nullable
+  private Node[] getState(@NotNull final Path directory) {
+    if (directory.equals(myRoot)) {
+      return myRootState;
+    }
+    final Node[] cached = myStates.get(directory);
+    if (cached != null) {
+      return cached;
+    }
+    final Path parent = directory.getParent();
+    if (parent == null || directory.getFileName() == null) {
+      return null;
+    }
+    final Node[] parentState = getState(parent);
+    if (parentState == null) {
+      return null;
+    }
+    final Node[] state = step(parentState, directory.getFileName().toString());
+    myStates.putIfAbsent(directory, state);
+    return state;
+  }
+
+  @NotNull
+  private static Node[] step(@NotNull final Node[] state, @NotNull final String segment) {
+    final List<Node> next = new ArrayList<Node>();
+    for (final Node node : state) {
+      if (node.isAnySegments()) {
+        next.add(node);
+      }
+      final Node literal = node.myLiterals.get(segment);
+      if (literal != null) {
+        next.add(literal);
+      }
+      for (final Node glob : node.myGlobs) {
+        if (glob.myPattern.matcher(segment).matches()) {
+          next.add(glob);
+        }
+      }
+    }
+    return closure(next);
+  }
+
+  /**
+   * '**' matches zero segments too, so reaching a node means reaching its '**' child
+   */
+  @NotNull
+  private static Node[] closure(@NotNull final Collection<Node> nodes) {
+    final LinkedHashSet<Node> result = new LinkedHashSet<Node>();
+    for (Node node : nodes) {
+      while (node != null && result.add(node)) {
+        node = node.myAnySegments;
+      }
+    }
+    return result.toArray(new Node[result.size()]);
+  }
+
+  private void addRule(@NotNull String line) {
+    line = trimTrailingSpaces(line);
+    if (line.length() == 0 || line.startsWith("#")) { //$NON-NLS-1$
+      return;
+    }
+    boolean negated = false;
+    if (line.startsWith("!")) { //$NON-NLS-1$
+      negated = true;
+      line = line.substring(1);
+    } else if (line.startsWith("\\#") || line.startsWith("\\!")) { //$NON-NLS-1$ //$NON-NLS-2$
+      line = line.substring(1);
+    }
+    boolean directoryOnly = false;
+    if (line.endsWith("/")) { //$NON-NLS-1$
+      directoryOnly = true;
+      line = line.substring(0, line.length() - 1);
+    }
+    final boolean anchored = line.contains("/"); //$NON-NLS-1$
+    if (line.startsWith("/")) { //$NON-NLS-1$
+      line = line.substring(1);
+    }
+    if (line.length() == 0) {
+      return;
+    }
+    final LinkedList<String> segments = new LinkedList<String>();
+    if (!anchored) {
+      segments.add(ANY_SEGMENTS);
+    }
+    for (final String segment : line.split("/")) { //$NON-NLS-1$
+      if (segment.length() == 0 || (ANY_SEGMENTS.equals(segment) && ANY_SEGMENTS.equals(segments.peekLast()))) {
+        continue;
+      }
+      segments.add(segment);
+    }
+    if (ANY_SEGMENTS.equals(segments.peekLast())) {
+      // trailing '**' matches everything inside, but not the folder itself
+      segments.add(segments.size() - 1, "*"); //$NON-NLS-1$
+    }
+    final int rule = myNegated.size();
+    myNegated.add(negated);
+    Node node = myTrie;
+    for (final String segment : segments) {
+      node = node.child(segment);
+    }
+    if (directoryOnly) {
+      node.myDirectoryRule = rule;
+    } else {
+      node.myRule = rule;
+    }
+  }
+
+  @NotNull
+  private static String trimTrailingSpaces(@NotNull final String line) {
+    int end = line.length();
+    while (end > 0 && line.charAt(end - 1) == ' ' && !(end > 1 && line.charAt(end - 2) == '\\')) {
+      end--;
+    }
+    return line.substring(0, end);
+  }
+
+  static boolean hasWildcards(@NotNull final String segment) {
+    return segment.contains("*") || segment.contains("?") || segment.contains("[") || segment.contains("\\"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+  }
+
+  @NotNull
+  static Pattern toPattern(@NotNull final String glob) {
+    final StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      final char c = glob.charAt(i);
+      if (c == '*') {
+        regex.append("[^/]*"); //$NON-NLS-1$
+      } else if (c == '?') {
+        regex.append("[^/]"); //$NON-NLS-1$
+      } else if (c == '\\' && i + 1 < glob.length()) {
+        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+      } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+        final int end = glob.indexOf(']', i + 2);
+        String range = glob.substring(i + 1, end);
+        if (range.startsWith("!")) { //$NON-NLS-1$
+          range = "^" + range.substring(1); //$NON-NLS-1$
+        }
+        regex.append('[').append(range.replace("\\", "\\\\").replace("[", "\\[")).append(']'); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        i = end;
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  private static class Node {
+    private final boolean myIsAnySegments;
+    private final Pattern myPattern;
+    private final Map<String, Node> myLiterals = new HashMap<String, Node>();
+    private final Map<String, Node> myGlobsByText = new HashMap<String, Node>();
+    private final List<Node> myGlobs = new ArrayList<Node>();
+    private Node myAnySegments;
+    private int myRule = -1;
+    private int myDirectoryRule = -1;
+
+    Node(final boolean isAnySegments, @Nullable final Pattern pattern) {
+      myIsAnySegments = isAnySegments;
+      myPattern = pattern;
+    }
+
+    boolean isAnySegments() {
+      return myIsAnySegments;
+    }
+
+    @NotNull
+    Node child(@NotNull final String segment) {
+      if (ANY_SEGMENTS.equals(segment)) {
+        if (myAnySegments == null) {
+          myAnySegments = new Node(true, null);
+        }
+        return myAnySegments;
+      }
+      if (!hasWildcards(segment)) {
+        Node literal = myLiterals.get(segment);
+        if (literal == null) {
+          literal = new Node(false, null);
+          myLiterals.put(segment, literal);
+        }
+        return literal;
+      }
+      Node glob = myGlobsByText.get(segment);
+      if (glob == null) {
+        glob = new Node(false, toPattern(segment));
+        myGlobsByText.put(segment, glob);
+        myGlobs.add(glob);
+      }
+      return glob;
+    }
+  }
+
+}
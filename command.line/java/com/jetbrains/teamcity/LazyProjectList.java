@@ -0,0 +1,67 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import jetbrains.buildServer.ProjectData;
+import jetbrains.buildServer.util.Converter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Projects which are deserialized one by one when they are accessed. The serialized form of a project is dropped once the
+ * project is deserialized, so memory grows with the projects a command actually uses.
+ */
+class LazyProjectList extends AbstractList<ProjectData> implements RandomAccess {
+
+  private final String[] mySerialized;
+  private final ProjectData[] myProjects;
+  private final Converter<ProjectData, String> myDeserializer;
+
+  LazyProjectList(@NotNull final List<String> serialized, @NotNull final Converter<ProjectData, String> deserializer) {
+    mySerialized = serialized.toArray(new String[serialized.size()]);
+    myProjects = new ProjectData[mySerialized.length];
+    myDeserializer = deserializer;
+  }
+
+  @Override
+  public synchronized ProjectData get(final int index) {
+    if (myProjects[index] == null) {
+      myProjects[index] = myDeserializer.createFrom(mySerialized[index]);
+      mySerialized[index] = null;
+    }
+    return myProjects[index];
+  }
+
+  /**
+   * Deserializes the first projects right away, so a serialized form the deserializer cannot read fails here rather than on access
+   *
+   * @param count number of leading projects to deserialize, at most the size of the list is taken
+   * @throws RuntimeException thrown by the deserializer
+   */
+  void preload(final int count) {
+    for (int i = 0; i < Math.min(count, size()); i++) {
+      get(i);
+    }
+  }
+
+  @Override
+  public int size() {
+    return myProjects.length;
+  }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.resources.FileBasedMatcher;
+import com.jetbrains.teamcity.resources.ITCResourceMatcher;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Local copies of server generated mappings ("tcc mapping sync"). A copy is kept per server and checkout root in the admin file
+ * format with absolute paths; header comments keep the build configuration and the stamp of its VCS settings,
+ * so the mapping is downloaded again only when the settings change.
+ */
+public class MappingCache {
+
+  static final String MAPPINGS_FOLDER = "mappings"; //$NON-NLS-1$
+
+  private static final String SERVER_HEADER = "# server="; //$NON-NLS-1$
+  private static final String BUILD_TYPE_HEADER = "# buildType="; //$NON-NLS-1$
+  private static final String STAMP_HEADER = "# stamp="; //$NON-NLS-1$
+  private static final String ROOT_HEADER = "# root="; //$NON-NLS-1$
+
+  private final File myFolder;
+
+  public MappingCache() {
+    this(new File(Storage.getInstance().getHome(), MAPPINGS_FOLDER));
+  }
+
+  MappingCache(@NotNull final File folder) {
+    myFolder = folder;
+  }
+
+  /**
+   * Fetches the mapping of the build configuration for the root unless the cached copy is up to date
+   * @return cached mapping file
+   */
+  @NotNull
+  public Entry sync(@NotNull final Server server, @NotNull final String buildTypeId, @NotNull final File root) throws ECommunicationException {
+    final File canonicalRoot = new PathInfoCache().getCanonicalFile(root);
+    final Entry cached = read(getFile(server.getURL(), canonicalRoot));
+    final String knownStamp = cached != null && buildTypeId.equals(cached.getBuildTypeId()) ? cached.getStamp() : null;
+    final Server.Mapping mapping = server.getMapping(buildTypeId, knownStamp);
+    if (mapping.isUnchanged()) {
+      Debug.getInstance().debug(MappingCache.class, String.format("Mapping of %s for %s is up to date", buildTypeId, canonicalRoot));
+      return cached;
+    }
+    return store(server.getURL(), buildTypeId, mapping.getStamp(), canonicalRoot, mapping.getRules());
+  }
+
+  /**
+   * Re-syncs every mapping cached for the server. Stamps of all the mappings are checked with a single request, only the changed
+   * mappings are downloaded. Failures are logged, the previous copy stays in use then
+   */
+  public void refresh(@NotNull final Server server) {
+    final Collection<Entry> entries = getEntries(server.getURL());
+    if (entries.isEmpty()) {
+      return;
+    }
+    final TreeSet<String> buildTypeIds = new TreeSet<String>();
+    for (final Entry entry : entries) {
+      buildTypeIds.add(entry.getBuildTypeId());
+    }
+    Map<String, String> stamps;
+    try {
+      stamps = server.getMappingStamps(buildTypeIds);
+    } catch (ECommunicationException e) {
+      Debug.getInstance().debug(MappingCache.class, String.format("Could not get mapping stamps, every mapping will be checked separately: %s", e.getMessage()));
+      stamps = Collections.emptyMap();
+    }
+    for (final Entry entry : getOutdated(entries, stamps)) {
+      try {
+        sync(server, entry.getBuildTypeId(), entry.getRoot());
+      } catch (Exception e) {
+        Debug.getInstance().error(MappingCache.class, String.format("Could not refresh mapping of %s for %s", entry.getBuildTypeId(), entry.getRoot()), e);
+      }
+    }
+  }
+
+  /**
+   * @param stamps build configuration -> current settings stamp
+   * @return entries whose stamp differs from the current one, or is unknown on either side
+   */
+  @NotNull
+  static Collection<Entry> getOutdated(@NotNull final Collection<Entry> entries, @NotNull final Map<String, String> stamps) {
+    final ArrayList<Entry> result = new ArrayList<Entry>();
+    for (final Entry entry : entries) {
+      final String current = stamps.get(entry.getBuildTypeId());
+      if (current == null || !current.equals(entry.getStamp())) {
+        result.add(entry);
+      } else {
+        Debug.getInstance().debug(MappingCache.class, String.format("Mapping of %s for %s is up to date", entry.getBuildTypeId(), entry.getRoot()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return canonical checkout root -> matcher of the mapping cached for the server
+   */
+  @NotNull
+  public Map<File, ITCResourceMatcher> getMatchers(@NotNull final String serverUrl, @NotNull final PathInfoCache paths) {
+    final HashMap<File, ITCResourceMatcher> result = new HashMap<File, ITCResourceMatcher>();
+    for (final Entry entry : getEntries(serverUrl)) {
+      if (!entry.getRules().isEmpty()) {
+        result.put(paths.getCanonicalFile(entry.getRoot()), new FileBasedMatcher(entry.getFile(), paths));
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  Collection<Entry> getEntries(@NotNull final String serverUrl) {
+    final ArrayList<Entry> result = new ArrayList<Entry>();
+    final File[] files = myFolder.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        final Entry entry = read(file);
+        if (entry != null && serverUrl.equals(entry.getServerUrl())) {
+          result.add(entry);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param rules checkout root relative path -> repository path
+   */
+  @NotNull
+  Entry store(@NotNull final String serverUrl, @NotNull final String buildTypeId, @Nullable final String stamp, @NotNull final File canonicalRoot,
+              @NotNull final Map<String, String> rules) throws ECommunicationException {
+    final StringBuilder content = new StringBuilder();
+    content.append(SERVER_HEADER).append(serverUrl).append('\n');
+    content.append(BUILD_TYPE_HEADER).append(buildTypeId).append('\n');
+    content.append(STAMP_HEADER).append(stamp != null ? stamp : "").append('\n'); //$NON-NLS-1$
+    content.append(ROOT_HEADER).append(canonicalRoot.getPath()).append('\n');
+    final LinkedHashMap<String, String> absoluteRules = new LinkedHashMap<String, String>();
+    for (final Map.Entry<String, String> rule : rules.entrySet()) {
+      final File local = ".".equals(rule.getKey()) ? canonicalRoot : new File(canonicalRoot, rule.getKey()); //$NON-NLS-1$
+      absoluteRules.put(Util.toPortableString(local.getPath()), rule.getValue());
+      content.append(Util.toPortableString(local.getPath())).append('=').append(rule.getValue()).append('\n');
+    }
+    final File file = getFile(serverUrl, canonicalRoot);
+    try {
+      if (!myFolder.exists() && !myFolder.mkdirs()) {
+        throw new IOException(String.format("Could not create %s", myFolder));
+      }
+      final File temp = new File(myFolder, file.getName() + ".tmp"); //$NON-NLS-1$
+      FileUtil.writeFile(temp, content.toString());
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new ECommunicationException(String.format("Could not store mapping of %s", buildTypeId), e);
+    }
+    Debug.getInstance().debug(MappingCache.class, String.format("%d mapping rule(s) of %s stored in %s", rules.size(), buildTypeId, file));
+    return new Entry(file, serverUrl, buildTypeId, stamp, canonicalRoot, absoluteRules);
+  }
+
+  @NotNull
+  private File getFile(@NotNull final String serverUrl, @NotNull final File canonicalRoot) {
+    return new File(myFolder, WorkspaceSnapshot.hash((serverUrl + '\n' + canonicalRoot.getPath()).getBytes()) + ".properties"); //$NON-NLS-1$
+  }
+
+  @Nullable
+  private static Entry read(@NotNull final File file) {
+    if (!file.isFile() || !file.getName().endsWith(".properties")) { //$NON-NLS-1$
+      return null;
+    }
+    try {
+      String serverUrl = null;
+      String buildTypeId = null;
+      String stamp = null;
+      String root = null;
+      final LinkedHashMap<String, String> rules = new LinkedHashMap<String, String>();
+      for (final String line : FileUtil.readFile(file)) {
+        if (line.startsWith(SERVER_HEADER)) {
+          serverUrl = line.substring(SERVER_HEADER.length());
+        } else if (line.startsWith(BUILD_TYPE_HEADER)) {
+          buildTypeId = line.substring(BUILD_TYPE_HEADER.length());
+        } else if (line.startsWith(STAMP_HEADER)) {
+          stamp = line.substring(STAMP_HEADER.length());
+        } else if (line.startsWith(ROOT_HEADER)) {
+          root = line.substring(ROOT_HEADER.length());
+        } else if (line.contains("=")) { //$NON-NLS-1$
+          rules.put(line.substring(0, line.indexOf('=')), line.substring(line.indexOf('=') + 1));
+        }
+      }
+      if (serverUrl == null || buildTypeId == null || root == null) {
+        Debug.getInstance().debug(MappingCache.class, String.format("Ignoring mapping %s of unknown format", file));
+        return null;
+      }
+      return new Entry(file, serverUrl, buildTypeId, stamp != null && stamp.length() > 0 ? stamp : null, new File(root), rules);
+    } catch (IOException e) {
+      Debug.getInstance().error(MappingCache.class, String.format("Could not read mapping %s", file), e);
+      return null;
+    }
+  }
+
+  public static class Entry {
+    private final File myFile;
+    private final String myServerUrl;
+    private final String myBuildTypeId;
+    private final String myStamp;
+    private final File myRoot;
+    private final Map<String, String> myRules;
+
+    Entry(@NotNull final File file, @NotNull final String serverUrl, @NotNull final String buildTypeId, @Nullable final String stamp, @NotNull final File root,
+          @NotNull final Map<String, String> rules) {
+      myFile = file;
+      myServerUrl = serverUrl;
+      myBuildTypeId = buildTypeId;
+      myStamp = stamp;
+      myRoot = root;
+      myRules = rules;
+    }
+
+    @NotNull
+    public File getFile() {
+      return myFile;
+    }
+
+    @NotNull
+    public String getServerUrl() {
+      return myServerUrl;
+    }
+
+    @NotNull
+    public String getBuildTypeId() {
+      return myBuildTypeId;
+    }
+
+    @Nullable
+    public String getStamp() {
+      return myStamp;
+    }
+
+    @NotNull
+    public File getRoot() {
+      return myRoot;
+    }
+
+    /**
+     * @return absolute local path -> repository path
+     */
+    @NotNull
+    public Map<String, String> getRules() {
+      return myRules;
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Patch content of a known length. Patches below the threshold are kept in off-heap segments,
+ * a bigger patch is spilled to a temporary file once the threshold is crossed.
+ */
+public class PatchBuffer extends OutputStream {
+
+  public static final long DEFAULT_THRESHOLD = 16L * 1024 * 1024;
+
+  private static final int SEGMENT_SIZE = 1024 * 1024;
+  private static final int TRANSFER_SIZE = 64 * 1024;
+
+  private final long myThreshold;
+  private final List<ByteBuffer> mySegments = new ArrayList<ByteBuffer>();
+  private File mySpillFile;
+  private OutputStream mySpill;
+  private long myLength;
+
+  public PatchBuffer() {
+    this(getThreshold());
+  }
+
+  public PatchBuffer(final long threshold) {
+    myThreshold = threshold;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(@NotNull final byte[] b, int off, int len) throws IOException {
+    if (mySpill == null && myLength + len > myThreshold) {
+      spill();
+    }
+    myLength += len;
+    if (mySpill != null) {
+      mySpill.write(b, off, len);
+      return;
+    }
+    while (len > 0) {
+      ByteBuffer segment = mySegments.isEmpty() ? null : mySegments.get(mySegments.size() - 1);
+      if (segment == null || !segment.hasRemaining()) {
+        segment = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SIZE, Math.max(myThreshold, 1)));
+        mySegments.add(segment);
+      }
+      final int chunk = Math.min(len, segment.remaining());
+      segment.put(b, off, chunk);
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (mySpill != null) {
+      mySpill.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (mySpill != null) {
+      mySpill.close();
+    }
+  }
+
+  public long length() {
+    return myLength;
+  }
+
+  /**
+   * @return temporary file the content is spilled to or null if the content is in memory
+   */
+  @Nullable
+  public File getSpillFile() {
+    return mySpillFile;
+  }
+
+  /**
+   * Writes the whole content, may be called several times
+   */
+  public void writeTo(@NotNull final OutputStream out) throws IOException {
+    if (mySpillFile != null) {
+      mySpill.flush();
+      Files.copy(mySpillFile.toPath(), out);
+    } else {
+      writeSegments(out);
+    }
+  }
+
+  private void writeSegments(@NotNull final OutputStream out) throws IOException {
+    final byte[] transfer = new byte[TRANSFER_SIZE];
+    for (final ByteBuffer segment : mySegments) {
+      final ByteBuffer content = (ByteBuffer) segment.duplicate().flip();
+      while (content.hasRemaining()) {
+        final int chunk = Math.min(transfer.length, content.remaining());
+        content.get(transfer, 0, chunk);
+        out.write(transfer, 0, chunk);
+      }
+    }
+  }
+
+  /**
+   * Releases memory and deletes the spill file
+   */
+  public void dispose() {
+    mySegments.clear();
+    if (mySpillFile != null) {
+      try {
+        mySpill.close();
+      } catch (IOException e) {
+        //
+      }
+      FileUtil.delete(mySpillFile);
+    }
+  }
+
+  private void spill() throws IOException {
+    final File spillFile = FileUtil.createTempFile("tcc.jar-", ".patch"); //$NON-NLS-1$ //$NON-NLS-2$
+    spillFile.deleteOnExit();
+    final OutputStream spill = new BufferedOutputStream(new FileOutputStream(spillFile), TRANSFER_SIZE);
+    writeSegments(spill);
+    mySegments.clear();
+    mySpillFile = spillFile;
+    mySpill = spill;
+    Debug.getInstance().debug(PatchBuffer.class, String.format("Patch exceeds %d bytes, spilled to %s", myThreshold, mySpillFile));
+  }
+
+  private static long getThreshold() {
+    final String threshold = System.getProperty(Constants.PATCH_MEMORY_THRESHOLD_SYSTEM_PROPERTY);
+    if (threshold != null) {
+      try {
+        return Long.parseLong(threshold.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(PatchBuffer.class, "Could not parse patch memory threshold", e);
+      }
+    }
+    return DEFAULT_THRESHOLD;
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Buffered patch output. When the patch goes to a file, file bodies are copied with {@link FileChannel#transferTo}
+ * straight into the patch file, so their bytes do not pass through the Java heap. Lengths are 64-bit all the way.
+ */
+public class PatchOutputStream extends DataOutputStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel myChannel;
+
+  public PatchOutputStream(@NotNull final File patchFile) throws IOException {
+    this(new FileOutputStream(patchFile));
+  }
+
+  private PatchOutputStream(@NotNull final FileOutputStream out) {
+    super(new BufferedOutputStream(out, BUFFER_SIZE));
+    myChannel = out.getChannel();
+  }
+
+  public PatchOutputStream(@NotNull final OutputStream out) {
+    super(new BufferedOutputStream(out, BUFFER_SIZE));
+    myChannel = null;
+  }
+
+  /**
+   * Appends exactly length bytes of the source from its beginning
+   * @throws EOFException if the source is shorter than expected, e.g. the file was truncated after it had been stat-ed
+   */
+  public void transferFrom(@NotNull final FileChannel source, final long length) throws IOException {
+    if (myChannel == null) {
+      copy(source, length, this);
+      return;
+    }
+    flush(); // the channel shares its position with the buffered stream
+    long position = 0;
+    while (position < length) {
+      final long transferred = source.transferTo(position, length - position, myChannel);
+      if (transferred <= 0) {
+        throw new EOFException(String.format("Expected %d bytes, got %d", length, position));
+      }
+      position += transferred;
+    }
+    written = (int) Math.min(Integer.MAX_VALUE, written + length);
+  }
+
+  private static void copy(@NotNull final FileChannel source, final long length, @NotNull final OutputStream out) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+    long position = 0;
+    while (position < length) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), length - position));
+      final int read = source.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException(String.format("Expected %d bytes, got %d", length, position));
+      }
+      out.write(buffer.array(), 0, read);
+      position += read;
+    }
+  }
+
+  /**
+   * Content of a local file: transferred by the channel when written into {@link PatchOutputStream}, copied otherwise
+   */
+  public static class FileContent implements LowLevelPatchBuilder.WriteFileContent {
+    private final File myFile;
+    private final long myLength;
+
+    /**
+     * @param length number of bytes to write, the length the file had when it was stat-ed
+     */
+    public FileContent(@NotNull final File file, final long length) {
+      myFile = file;
+      myLength = length;
+    }
+
+    public void writeTo(@Nullable final OutputStream os) throws IOException {
+      if (os == null) {
+        return;
+      }
+      try (FileChannel channel = FileChannel.open(myFile.toPath(), StandardOpenOption.READ)) {
+        if (os instanceof PatchOutputStream) {
+          ((PatchOutputStream) os).transferFrom(channel, myLength);
+        } else {
+          copy(channel, myLength, os);
+        }
+      }
+    }
+  }
+
+}
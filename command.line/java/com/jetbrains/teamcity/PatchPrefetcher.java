@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads files ahead of the patch writer. Contents are read by a pool of threads in patch order while the single writer
+ * drains them in the same order, so disk latency overlaps with patch encoding. Read ahead bytes are bounded;
+ * files too big to be kept in memory are not read ahead and go by {@link PatchOutputStream.FileContent} instead.
+ * <p/>
+ * Not thread-safe: contents must be taken by a single thread with growing indices.
+ */
+public class PatchPrefetcher implements Closeable {
+
+  static final int DEFAULT_THREADS = 4;
+  static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  static final long MAX_PREFETCHED_FILE = 8L * 1024 * 1024;
+
+  private final List<PathInfo> myFiles;
+  private final long myMaxBytes;
+  private final List<Future<byte[]>> myPending;
+  private final ExecutorService myExecutor;
+
+  private int myNextToSubmit;
+  private int myNextToTake;
+  private long myBytesInFlight;
+
+  public PatchPrefetcher(@NotNull final List<PathInfo> files) {
+    this(files, DEFAULT_THREADS, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param files files in patch order, missing ones and null entries are skipped
+   * @param maxBytes limit of read ahead but not yet taken bytes
+   */
+  public PatchPrefetcher(@NotNull final List<PathInfo> files, final int threads, final long maxBytes) {
+    myFiles = files;
+    myMaxBytes = maxBytes;
+    myPending = new ArrayList<Future<byte[]>>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      myPending.add(null);
+    }
+    final AtomicInteger counter = new AtomicInteger();
+    myExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(@NotNull final Runnable r) {
+        final Thread thread = new Thread(r, "Patch prefetch " + counter.incrementAndGet()); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * @param index index of the file in the list, greater than the index of the previously taken one
+   * @return content of exactly {@link PathInfo#length()} bytes
+   */
+  @NotNull
+  public LowLevelPatchBuilder.WriteFileContent getContent(final int index) throws IOException {
+    if (index < myNextToTake) {
+      throw new IllegalArgumentException(String.format("Content of %d is already taken", index));
+    }
+    // skipped files are not needed anymore
+    while (myNextToTake < index) {
+      final Future<byte[]> skipped = release(myNextToTake++);
+      if (skipped != NONE) {
+        skipped.cancel(false);
+      }
+    }
+    submitAhead(index);
+    final Future<byte[]> future = release(myNextToTake++);
+    // the budget of the taken file is free: keep readers busy while it is written
+    submitAhead(index);
+    final PathInfo file = myFiles.get(index);
+    if (future == NONE) {
+      return new PatchOutputStream.FileContent(file.getFile(), file.length());
+    }
+    try {
+      return new ByteArrayContent(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  public void close() {
+    myExecutor.shutdownNow();
+  }
+
+  private void submitAhead(final int index) {
+    while (myNextToSubmit < myFiles.size()) {
+      final PathInfo file = myFiles.get(myNextToSubmit);
+      if (!isPrefetched(file)) {
+        myPending.set(myNextToSubmit++, NONE);
+        continue;
+      }
+      // the file the writer waits for is read regardless of the limit
+      if (myNextToSubmit > index && myBytesInFlight > 0 && myBytesInFlight + file.length() > myMaxBytes) {
+        return;
+      }
+      myBytesInFlight += file.length();
+      myPending.set(myNextToSubmit++, myExecutor.submit(new Callable<byte[]>() {
+        public byte[] call() throws IOException {
+          return read(file);
+        }
+      }));
+    }
+  }
+
+  @NotNull
+  private Future<byte[]> release(final int index) {
+    Future<byte[]> future = myPending.set(index, null);
+    if (future == null) {
+      future = NONE; // not submitted yet
+    } else if (future != NONE) {
+      myBytesInFlight -= myFiles.get(index).length();
+    }
+    return future;
+  }
+
+  private static boolean isPrefetched(@Nullable final PathInfo file) {
+    return file != null && file.isFile() && file.length() <= MAX_PREFETCHED_FILE;
+  }
+
+  @NotNull
+  private static byte[] read(@NotNull final PathInfo file) throws IOException {
+    final byte[] content = new byte[(int) file.length()];
+    final ByteBuffer buffer = ByteBuffer.wrap(content);
+    try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException(String.format("Expected %d bytes of %s, got %d", content.length, file.getFile(), buffer.position()));
+        }
+      }
+    }
+    return content;
+  }
+
+  /**
+   * marks files which are not read ahead
+   */
+  private static final Future<byte[]> NONE = new FutureTask<byte[]>(new Callable<byte[]>() {
+    public byte[] call() {
+      return null;
+    }
+  });
+
+  private static class ByteArrayContent implements LowLevelPatchBuilder.WriteFileContent {
+    private final byte[] myContent;
+
+    ByteArrayContent(@NotNull final byte[] content) {
+      myContent = content;
+    }
+
+    public void writeTo(final OutputStream os) throws IOException {
+      if (os != null) {
+        os.write(myContent);
+      }
+    }
+  }
+
+}
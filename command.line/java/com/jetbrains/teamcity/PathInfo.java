@@ -0,0 +1,75 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Canonical location and attributes of a file as they were seen once during the run. See {@link PathInfoCache}
+ */
+public class PathInfo {
+
+  private final File myFile;
+  private final boolean isExists;
+  private final boolean isDirectory;
+  private final long myLength;
+  private final long myLastModified;
+
+  PathInfo(@NotNull final File canonicalFile, @Nullable final BasicFileAttributes attributes) {
+    myFile = canonicalFile;
+    isExists = attributes != null;
+    isDirectory = attributes != null && attributes.isDirectory();
+    myLength = attributes != null ? attributes.size() : 0;
+    myLastModified = attributes != null ? attributes.lastModifiedTime().toMillis() : 0;
+  }
+
+  /**
+   * @return canonical absolute file
+   */
+  @NotNull
+  public File getFile() {
+    return myFile;
+  }
+
+  public boolean exists() {
+    return isExists;
+  }
+
+  public boolean isDirectory() {
+    return isDirectory;
+  }
+
+  public boolean isFile() {
+    return isExists && !isDirectory;
+  }
+
+  public long length() {
+    return myLength;
+  }
+
+  public long lastModified() {
+    return myLastModified;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: exists=%s, length=%d, modified=%d", myFile, isExists, myLength, myLastModified); //$NON-NLS-1$
+  }
+
+}
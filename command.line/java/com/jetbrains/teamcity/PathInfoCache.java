@@ -0,0 +1,165 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Per-run cache of {@link PathInfo}: every path is canonicalized and stat-ed once. A file which is not a symbolic
+ * link is resolved against the cached canonical parent, so resolving a file costs a single attributes read
+ * and every directory is canonicalized once for all of its children. On a case-insensitive file system the name
+ * of the file is additionally brought to its on-disk case, as {@link File#getCanonicalFile()} would do.
+ * <p/>
+ * The cache is not invalidated: it is supposed to live as long as a single command execution.
+ */
+public class PathInfoCache {
+
+  private final ConcurrentHashMap<File, PathInfo> myInfos = new ConcurrentHashMap<File, PathInfo>();
+  private final ConcurrentHashMap<File, Boolean> myCaseInsensitive = new ConcurrentHashMap<File, Boolean>();
+
+  /**
+   * @throws IllegalArgumentException if the file attributes could not be read
+   */
+  @NotNull
+  public PathInfo get(@NotNull final File file) throws IllegalArgumentException {
+    final File absolute = file.getAbsoluteFile();
+    final PathInfo cached = myInfos.get(absolute);
+    if (cached != null) {
+      return cached;
+    }
+    try {
+      final PathInfo info = resolve(absolute);
+      myInfos.putIfAbsent(absolute, info);
+      myInfos.putIfAbsent(info.getFile(), info);
+      return info;
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /**
+   * @return canonical absolute file
+   */
+  @NotNull
+  public File getCanonicalFile(@NotNull final File file) throws IllegalArgumentException {
+    return get(file).getFile();
+  }
+
+  /**
+   * Registers attributes which are already known, e.g. read while walking a directory tree
+   * @param canonicalFile file which is known to be canonical
+   * @param attributes attributes of the file, null if it does not exist
+   */
+  @NotNull
+  public PathInfo put(@NotNull final File canonicalFile, @Nullable final BasicFileAttributes attributes) {
+    final PathInfo info = new PathInfo(canonicalFile, attributes);
+    final PathInfo existing = myInfos.putIfAbsent(canonicalFile, info);
+    return existing != null ? existing : info;
+  }
+
+  @NotNull
+  private PathInfo resolve(@NotNull final File absolute) throws IOException {
+    final File parent = absolute.getParentFile();
+    final String name = absolute.getName();
+    if (parent == null || name.length() == 0 || ".".equals(name) || "..".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+      final File canonical = absolute.getCanonicalFile();
+      return new PathInfo(canonical, readAttributes(canonical.toPath()));
+    }
+    final File canonicalParent = get(parent).getFile();
+    final Path path = new File(canonicalParent, name).toPath();
+    final BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (FileSystemException e) {
+      // missing or inaccessible: same as java.io.File.exists()
+      return new PathInfo(path.toFile(), null);
+    }
+    if (attributes.isSymbolicLink()) {
+      final File canonical = absolute.getCanonicalFile();
+      return new PathInfo(canonical, readAttributes(canonical.toPath()));
+    }
+    if (!swapCase(name).equals(name) && isCaseInsensitive(canonicalParent)) {
+      final Path real = path.toRealPath(LinkOption.NOFOLLOW_LINKS);
+      return new PathInfo(new File(canonicalParent, real.getFileName().toString()), attributes);
+    }
+    return new PathInfo(path.toFile(), attributes);
+  }
+
+  /**
+   * Probes the directory itself by its name in the other case. Directories without cased letters in the name
+   * take the answer of the parent, a root without such a parent takes the java.io.File comparison semantics
+   *
+   * @param directory canonical directory
+   * @return true if names in the directory are looked up ignoring case
+   */
+  boolean isCaseInsensitive(@NotNull final File directory) {
+    final Boolean cached = myCaseInsensitive.get(directory);
+    if (cached != null) {
+      return cached;
+    }
+    final String name = directory.getName();
+    final String swapped = swapCase(name);
+    final File parent = directory.getParentFile();
+    final boolean result;
+    if (!swapped.equals(name) && parent != null) {
+      result = isSameFile(directory.toPath(), new File(parent, swapped).toPath());
+    } else if (parent != null) {
+      result = isCaseInsensitive(parent);
+    } else {
+      result = new File("a").equals(new File("A")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    myCaseInsensitive.putIfAbsent(directory, result);
+    return result;
+  }
+
+  private static boolean isSameFile(@NotNull final Path path, @NotNull final Path other) {
+    try {
+      return Files.isSameFile(path, other);
+    } catch (IOException e) {
+      // the name in the other case does not exist
+      return false;
+    }
+  }
+
+  @NotNull
+  static String swapCase(@NotNull final String name) {
+    final StringBuilder result = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      result.append(Character.isUpperCase(c) ? Character.toLowerCase(c) : Character.toUpperCase(c));
+    }
+    return result.toString();
+  }
+
+  @Nullable
+  private static BasicFileAttributes readAttributes(@NotNull final Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (FileSystemException e) {
+      return null;
+    }
+  }
+
+}
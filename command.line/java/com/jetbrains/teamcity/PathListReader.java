@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads a list of paths from a stream one by one, as they arrive. Paths are separated either by line breaks
+ * or by NUL characters (as printed by "find -print0" or "git ls-files -z"), so only the current path is kept in memory.
+ * Empty entries are skipped.
+ */
+public class PathListReader implements Iterable<String> {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Reader myReader;
+  private final boolean isNullSeparated;
+
+  private final char[] myBuffer = new char[BUFFER_SIZE];
+  private int myPosition;
+  private int myLimit;
+  private boolean isEof;
+
+  public PathListReader(@NotNull final InputStream stream, final boolean nullSeparated) {
+    this(new InputStreamReader(stream), nullSeparated);
+  }
+
+  public PathListReader(@NotNull final Reader reader, final boolean nullSeparated) {
+    myReader = reader;
+    isNullSeparated = nullSeparated;
+  }
+
+  /**
+   * @return next non-empty path or null if the stream is over
+   */
+  @Nullable
+  public String next() throws IOException {
+    final StringBuilder path = new StringBuilder();
+    while (fill()) {
+      final int start = myPosition;
+      while (myPosition < myLimit && !isSeparator(myBuffer[myPosition])) {
+        myPosition++;
+      }
+      path.append(myBuffer, start, myPosition - start);
+      if (myPosition < myLimit) {
+        myPosition++; // separator
+        if (path.length() > 0) {
+          return path.toString();
+        }
+      }
+    }
+    return path.length() > 0 ? path.toString() : null;
+  }
+
+  /**
+   * I/O errors are rethrown as unchecked ones
+   */
+  @NotNull
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private String myNext;
+
+      public boolean hasNext() {
+        if (myNext == null) {
+          try {
+            myNext = PathListReader.this.next();
+          } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+          }
+        }
+        return myNext != null;
+      }
+
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        final String next = myNext;
+        myNext = null;
+        return next;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private boolean fill() throws IOException {
+    if (myPosition < myLimit) {
+      return true;
+    }
+    if (isEof) {
+      return false;
+    }
+    final int read = myReader.read(myBuffer);
+    if (read == -1) {
+      isEof = true;
+      return false;
+    }
+    myPosition = 0;
+    myLimit = read;
+    return true;
+  }
+
+  private boolean isSeparator(final char c) {
+    return isNullSeparated ? c == '\0' : c == '\n' || c == '\r';
+  }
+
+}
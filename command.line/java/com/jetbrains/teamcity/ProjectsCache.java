@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Projects of a server as the server has serialized them, kept per server and user. The projects are used while they are
+ * younger than the time to live and the server answers the same change stamp they were got with.
+ */
+public class ProjectsCache {
+
+  static final String PROJECTS_FOLDER = "projects"; //$NON-NLS-1$
+  private static final int VERSION = 1;
+
+  private final File myFile;
+
+  public ProjectsCache(@NotNull final String serverUrl, @NotNull final String username) {
+    this(new File(new File(Storage.getInstance().getHome(), PROJECTS_FOLDER), WorkspaceSnapshot.hash((serverUrl + '\n' + username).getBytes())));
+  }
+
+  ProjectsCache(@NotNull final File file) {
+    myFile = file;
+  }
+
+  /**
+   * @param stamp current change stamp of the server
+   * @param ttl time to live of the projects in milliseconds
+   * @return serialized projects or null if there are none with the stamp or they have expired
+   */
+  @Nullable
+  public synchronized List<String> get(@NotNull final String stamp, final long ttl, final long now) {
+    if (!myFile.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(myFile))))) {
+      if (in.readInt() != VERSION || !stamp.equals(in.readUTF())) {
+        return null;
+      }
+      final long timestamp = in.readLong();
+      if (now - timestamp >= ttl || timestamp > now) {
+        return null;
+      }
+      final int count = in.readInt();
+      final List<String> projects = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        final byte[] project = new byte[in.readInt()];
+        in.readFully(project);
+        projects.add(new String(project, "UTF-8")); //$NON-NLS-1$
+      }
+      return projects;
+    } catch (IOException e) {
+      Debug.getInstance().error(ProjectsCache.class, String.format("Could not read %s", myFile), e);
+      return null;
+    }
+  }
+
+  public synchronized void put(@NotNull final String stamp, @NotNull final List<String> projects, final long now) {
+    try {
+      final File folder = myFile.getAbsoluteFile().getParentFile();
+      if (!folder.exists() && !folder.mkdirs()) {
+        throw new IOException(String.format("Could not create %s", folder));
+      }
+      final File temp = new File(folder, myFile.getName() + ".tmp"); //$NON-NLS-1$
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+        out.writeInt(VERSION);
+        out.writeUTF(stamp);
+        out.writeLong(now);
+        out.writeInt(projects.size());
+        for (final String project : projects) {
+          final byte[] bytes = project.getBytes("UTF-8"); //$NON-NLS-1$
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+      Files.move(temp.toPath(), myFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // the next run just gets the projects again
+      Debug.getInstance().error(ProjectsCache.class, String.format("Could not save %s", myFile), e);
+    }
+  }
+
+  public synchronized void clear() {
+    //noinspection ResultOfMethodCallIgnored
+    myFile.delete();
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.util.*;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bounds the number of repository paths of changed files before they are matched against build configurations. Checkout rules may
+ * select single files, so paths are only compacted when there are more of them than the limit, and the compaction is lossy then.
+ */
+public class RepositoryPaths {
+
+  private RepositoryPaths() {
+  }
+
+  /**
+   * Keeps all the paths if there are not more of them than the given number. Otherwise keeps a file per directory, and if there
+   * are still too many paths, files of sibling directories are represented by a file of their parent, then of the grandparent
+   * and so on up to the root the path belongs to, so every root keeps a representative even if there are more roots than the limit.
+   * A configuration which only covers files or directories which are not represented is missed then, so the limit is meant to be generous.
+   * @param paths repository paths with the VCS root prefix of each, see {@link com.jetbrains.teamcity.resources.ITCResource#getRepositoryRoot()}
+   * @param maxPaths paths to keep at most
+   * @return sorted paths, a subset of the given ones, all of them if they fit the limit or if the root of some path is not its prefix
+   */
+  @NotNull
+  public static Collection<String> compact(@NotNull final Map<String, String> paths, final int maxPaths) {
+    if (paths.size() <= Math.max(1, maxPaths)) {
+      return new TreeSet<String>(paths.keySet());
+    }
+    int depth = 0;
+    for (final Map.Entry<String, String> entry : paths.entrySet()) {
+      final String root = entry.getValue();
+      if (root == null || !entry.getKey().startsWith(root + '/')) {
+        Debug.getInstance().debug(RepositoryPaths.class, String.format("Root of \"%s\" is not known, repository paths are not compacted", entry.getKey()));
+        return new TreeSet<String>(paths.keySet());
+      }
+      depth = Math.max(depth, getDepth(getRelativePath(entry.getKey(), root)));
+    }
+    SortedMap<String, String> representatives = getRepresentatives(paths.keySet(), paths, depth);
+    while (representatives.size() > Math.max(1, maxPaths) && depth > 0) {
+      representatives = getRepresentatives(representatives.values(), paths, --depth);
+    }
+    final Collection<String> result = new TreeSet<String>(representatives.values());
+    if (result.size() < paths.size()) {
+      Debug.getInstance().debug(RepositoryPaths.class, String.format("%d repository path(s) compacted to %d", paths.size(), result.size()));
+    }
+    return result;
+  }
+
+  /**
+   * @return the first path in order for every root and directory under it cut to the given depth
+   */
+  @NotNull
+  private static SortedMap<String, String> getRepresentatives(@NotNull final Collection<String> paths, @NotNull final Map<String, String> roots, final int depth) {
+    final SortedMap<String, String> representatives = new TreeMap<String, String>();
+    for (final String path : paths) {
+      final String root = roots.get(path);
+      // paths are sent line by line, so a line break cannot clash with a root or a directory
+      final String directory = root + '\n' + getDirectory(getRelativePath(path, root), depth);
+      final String known = representatives.get(directory);
+      if (known == null || path.compareTo(known) < 0) {
+        representatives.put(directory, path);
+      }
+    }
+    return representatives;
+  }
+
+  @NotNull
+  private static String getRelativePath(@NotNull final String path, @NotNull final String root) {
+    return path.substring(root.length() + 1);
+  }
+
+  /**
+   * @return number of separators before the file name
+   */
+  private static int getDepth(@NotNull final String path) {
+    int depth = 0;
+    for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * @return the path up to its separator number depth, the directory of the file if it is not that deep
+   */
+  @NotNull
+  private static String getDirectory(@NotNull final String path, final int depth) {
+    int end = -1;
+    for (int i = 0; i < depth; i++) {
+      final int next = path.indexOf('/', end + 1);
+      if (next < 0) {
+        break;
+      }
+      end = next;
+    }
+    return end >= 0 ? path.substring(0, end) : "";
+  }
+
+}
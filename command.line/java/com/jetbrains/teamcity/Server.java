@@ -17,9 +17,10 @@ package com.jetbrains.teamcity;
 
 import java.io.*;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 import jetbrains.buildServer.*;
 import jetbrains.buildServer.core.runtime.IProgressMonitor;
 import jetbrains.buildServer.core.runtime.IProgressStatus;
@@ -31,23 +32,52 @@ import jetbrains.buildServer.serverProxy.impl.SessionXmlRpcTargetImpl;
 import jetbrains.buildServer.serverSide.TriggeredByBuilder;
 import jetbrains.buildServer.serverSide.auth.AuthenticationFailedException;
 import jetbrains.buildServer.serverSide.userChanges.PreTestedCommitType;
+import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.ExceptionUtil;
+import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.version.ServerVersionHolder;
 import jetbrains.buildServer.xmlrpc.RemoteCallException;
 import jetbrains.buildServer.xmlrpc.XmlRpcTarget.Cancelable;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.httpclient.*;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class Server {
 
   public static final String UPLOAD_URL = "uploadChanges.html";
+  public static final String MAPPING_URL = "httpAuth/ajax.html";
+  public static final String COMPRESSED_UPLOAD_URL = "httpAuth/commandline/uploadChanges.html";
+  public static final String BLOBS_URL = "httpAuth/commandline/blobs.html";
+  private static final String ENCODINGS_HEADER = "X-TeamCity-CommandLine-Encodings";
+  private static final String BLOBS_HEADER = "X-TeamCity-CommandLine-Blobs";
+  public static final String CHUNKS_URL = "httpAuth/commandline/chunks.html";
+  public static final String PROJECTS_URL = "httpAuth/commandline/projects.html";
+  public static final String CONFIGURATIONS_URL = "httpAuth/commandline/configurations.html";
+  private static final String CHUNKS_HEADER = "X-TeamCity-CommandLine-Chunks";
+  private static final String CHECKSUM_HEADER = "X-TeamCity-CommandLine-Checksum";
+  private static final int MAX_CHUNK_ATTEMPTS = 3;
+  private static final int MAX_CONNECTIONS = 4;
+  private static final int DEFAULT_UPLOAD_STREAMS = 8;
   private final URL myUrl;
   private SessionXmlRpcTarget mySession;
   private RemoteServerFacade myServerFacade;
   private List<ProjectData> myProjects;
+  private volatile ConfigurationCatalog myCatalog;
+  private Boolean isCompressedUploadSupported;
+  private boolean isBlobUploadSupported;
+  private int myMaxChunkSize;
+  private MultiThreadedHttpConnectionManager myConnectionManager;
+  private HttpClient myHttpClient;
 
   public Server(final URL url) {
     myUrl = url;
@@ -84,6 +114,18 @@ public class Server {
     return Constants.DEFAULT_XMLRPC_TIMEOUT;
   }
 
+  private static int getMaxUploadStreams() {
+    final String streams = System.getProperty(Constants.UPLOAD_STREAMS_SYSTEM_PROPERTY);
+    if (streams != null) {
+      try {
+        return Math.max(1, Integer.parseInt(streams.trim()));
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(Server.class, "Could not parse upload streams", e);
+      }
+    }
+    return DEFAULT_UPLOAD_STREAMS;
+  }
+
   public void logon(final String username, final String password) throws ECommunicationException, EAuthorizationException {
     mySession.setCredentials(username, password);
     try {
@@ -117,20 +159,130 @@ public class Server {
   }
 
   @SuppressWarnings("rawtypes")
-  public synchronized Collection<ProjectData> getProjects() throws ECommunicationException {
+  public Collection<ProjectData> getProjects() throws ECommunicationException {
+    return getProjectList();
+  }
+
+  /**
+   * @return projects in the order the server has sent them, deserialized when they are accessed
+   */
+  @NotNull
+  private synchronized List<ProjectData> getProjectList() throws ECommunicationException {
     if (myProjects == null) {
-      myProjects = getServerFacade().getRegisteredProjects();
+      myProjects = loadProjects();
     }
     return myProjects;
   }
 
-  public synchronized Collection<BuildTypeData> getConfigurations() throws ECommunicationException {
-    final Collection<ProjectData> allProjects = getProjects();
-    final ArrayList<BuildTypeData> configurations = new ArrayList<BuildTypeData>(allProjects.size() * 5);
-    for (ProjectData project : allProjects) {
-      configurations.addAll(project.getBuildTypes());
+  /**
+   * Projects are taken from the {@link ProjectsCache} while the server reports the same change stamp, otherwise they are downloaded and cached
+   */
+  @NotNull
+  private List<ProjectData> loadProjects() throws ECommunicationException {
+    final long ttl = getProjectsCacheTtl();
+    // the stamp is got first, so changes made during the download are not hidden by it
+    final String stamp = ttl > 0 ? getProjectsStamp() : null;
+    final ProjectsCache cache = new ProjectsCache(myUrl.toExternalForm(), String.valueOf(mySession.getUsername()));
+    if (stamp != null) {
+      final List<String> cached = cache.get(stamp, ttl, System.currentTimeMillis());
+      if (cached != null) {
+        try {
+          final LazyProjectList projects = deserializeProjects(cached);
+          // a cache of another tool version fails here rather than in the middle of a command
+          projects.preload(1);
+          Debug.getInstance().debug(Server.class, String.format("%d project(s) taken from cache, stamp %s", projects.size(), stamp));
+          return projects;
+        } catch (RuntimeException e) {
+          Debug.getInstance().error(Server.class, "Could not read cached projects", e);
+          cache.clear();
+        }
+      }
+    }
+    final List<String> serialized = getServerFacade().getSerializedProjects();
+    if (stamp != null) {
+      cache.put(stamp, serialized, System.currentTimeMillis());
+    }
+    return deserializeProjects(serialized);
+  }
+
+  /**
+   * @return projects deserialized when they are accessed, without the fields the tool does not use unless
+   * {@link Constants#PROJECT_SUMMARY_SYSTEM_PROPERTY} is "false"
+   */
+  @NotNull
+  private static LazyProjectList deserializeProjects(@NotNull final List<String> serialized) {
+    final boolean summary = !"false".equalsIgnoreCase(System.getProperty(Constants.PROJECT_SUMMARY_SYSTEM_PROPERTY));
+    return new LazyProjectList(serialized, new Converter<ProjectData, String>() {
+      public ProjectData createFrom(@NotNull final String source) {
+        return summary ? XStreamUtil.deserializeProjectSummary(source) : XStreamUtil.<ProjectData>deserializeObject(source);
+      }
+    });
+  }
+
+  private static long getProjectsCacheTtl() {
+    return getTtl(Constants.PROJECTS_CACHE_TTL_SYSTEM_PROPERTY, Constants.DEFAULT_PROJECTS_CACHE_TTL);
+  }
+
+  private static long getTtl(@NotNull final String property, final long defaultTtl) {
+    final String ttl = System.getProperty(property);
+    if (ttl != null) {
+      try {
+        return Long.parseLong(ttl.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(Server.class, String.format("Could not parse %s", property), e);
+      }
+    }
+    return defaultTtl;
+  }
+
+  /**
+   * @return stamp which changes with projects on the server or null if the server does not tell it
+   */
+  @Nullable
+  private String getProjectsStamp() {
+    GetMethod getMethod = null;
+    try {
+      getMethod = new GetMethod(createUrl(PROJECTS_URL));
+      addAuthorizationHeader(getMethod);
+      getMethod.setRequestHeader("Accept", "text/plain");
+      getMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      execute(getMethod);
+      if (getMethod.getStatusCode() != HttpStatus.SC_OK) {
+        Debug.getInstance().debug(Server.class, String.format("Could not get projects stamp: HTTP Status code %d", getMethod.getStatusCode()));
+        return null;
+      }
+      final String stamp = getMethod.getResponseBodyAsString().trim();
+      return stamp.length() > 0 ? stamp : null;
+
+    } catch (IOException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not get projects stamp: %s", e.getMessage()));
+      return null;
+    } finally {
+      if (getMethod != null) {
+        getMethod.releaseConnection();
+      }
     }
-    return configurations;
+  }
+
+  public Collection<BuildTypeData> getConfigurations() throws ECommunicationException {
+    return getCatalog().getConfigurations();
+  }
+
+  /**
+   * @return projects and configurations indexed for lookups, built once per session
+   */
+  @NotNull
+  public ConfigurationCatalog getCatalog() throws ECommunicationException {
+    ConfigurationCatalog catalog = myCatalog;
+    if (catalog == null) {
+      synchronized (this) {
+        if (myCatalog == null) {
+          myCatalog = new ConfigurationCatalog(getProjectList());
+        }
+        catalog = myCatalog;
+      }
+    }
+    return catalog;
   }
 
   public TeamServerSummaryData getSummary() throws ECommunicationException {
@@ -156,75 +308,678 @@ public class Server {
 
   public long createChangeList(@NotNull final File patchFile, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
 
-    HttpConnection connection = null;
+    PostMethod postMethod = null;
     try {
       monitor.beginTask("Sending patch to TeamCity Server");
-      connection = getHttpConnection();
 
-      final PostMethod postMethod = new PostMethod(createUploadPatchUrl());
       final BufferedInputStream content = new BufferedInputStream(new FileInputStream(patchFile));
+      try {
+        postMethod = uploadPatch(new InputStreamRequestEntity(content, patchFile.length()), comment, false);
+      } finally {
+        content.close();
+      }
+
+      final long changeListId = getChangeListId(postMethod);
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes", patchFile.length())));
+      monitor.done();
+      return changeListId;
+
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    } finally {
+      if (postMethod != null) {
+        postMethod.releaseConnection();
+      }
+    }
+  }
 
+  /**
+   * Sends the patch of known length from memory or from the file it has been spilled to
+   */
+  public long createChangeList(@NotNull final PatchBuffer patch, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+
+    PostMethod postMethod = null;
+    try {
+      monitor.beginTask("Sending patch to TeamCity Server");
+
+      postMethod = uploadPatch(new RequestEntity() {
+        public boolean isRepeatable() {
+          return true;
+        }
+
+        public void writeRequest(final OutputStream out) throws IOException {
+          patch.writeTo(out);
+        }
+
+        public long getContentLength() {
+          return patch.length();
+        }
+
+        public String getContentType() {
+          return null;
+        }
+      }, comment, false);
+
+      final long changeListId = getChangeListId(postMethod);
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes", patch.length())));
+      monitor.done();
+      return changeListId;
+
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    } finally {
+      if (postMethod != null) {
+        postMethod.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * Sends the patch in a chunked request while it is being written, so building and sending the patch overlap
+   * and no patch file is needed
+   * @return change list id or null if the server requires the patch length upfront or the connection was dropped while the patch
+   * was being sent, the patch has to be sent with {@link #createChangeList(PatchBuffer, String, IProgressMonitor)} then
+   */
+  @Nullable
+  public Long createChangeList(@NotNull final IPatchWriter patch, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+    return streamPatch(patch, isCompressedUploadSupported(), null, comment, monitor);
+  }
+
+  /**
+   * Streams a patch written with {@link BlobPatchWriter}, see {@link #getMissingBlobs(Collection)}
+   * @return change list id or null if the server could not resolve a referenced content, e.g. it has been evicted
+   * since it was negotiated, or does not take chunked requests. A regular patch has to be sent then
+   */
+  @Nullable
+  public Long createChangeListWithBlobs(@NotNull final IPatchWriter patch, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+    return streamPatch(patch, true, BlobPatchWriter.CONTENT_TYPE, comment, monitor);
+  }
+
+  /**
+   * The request asks for "100-continue", so a server refusing chunked requests answers 411 or 501 before any byte of the patch is sent
+   * @return null if the server refused the request, see the callers
+   */
+  @Nullable
+  private Long streamPatch(@NotNull final IPatchWriter patch, final boolean compressed, @Nullable final String contentType,
+                           @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+
+    final UploadStream[] connection = new UploadStream[1];
+    PostMethod postMethod = null;
+    try {
+      monitor.beginTask("Sending patch to TeamCity Server");
+
+      final long[] sent = new long[2];
+      postMethod = uploadPatch(new RequestEntity() {
+        public boolean isRepeatable() {
+          return false;
+        }
+
+        public void writeRequest(final OutputStream out) throws IOException {
+          final UploadStream sentStream = new UploadStream(out);
+          connection[0] = sentStream;
+          final GZIPOutputStream gzip = compressed ? new GZIPOutputStream(sentStream, 64 * 1024) : null;
+          final UploadStream patchStream = gzip != null ? new UploadStream(gzip) : sentStream;
+          patch.write(patchStream);
+          patchStream.checkFailure();
+          sentStream.checkFailure();
+          if (gzip != null) {
+            gzip.finish();
+          }
+          sentStream.flush();
+          sent[0] = patchStream.getCount();
+          sent[1] = sentStream.getCount();
+        }
+
+        public long getContentLength() {
+          return -1; // chunked
+        }
+
+        public String getContentType() {
+          return contentType;
+        }
+      }, comment, compressed);
+
+      if (compressed && postMethod.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        Debug.getInstance().debug(Server.class, "Server does not accept compressed patches anymore");
+        resetCapabilities();
+        return null;
+      }
+      if (postMethod.getStatusCode() == HttpStatus.SC_LENGTH_REQUIRED || postMethod.getStatusCode() == HttpStatus.SC_NOT_IMPLEMENTED) {
+        Debug.getInstance().debug(Server.class, String.format("Server does not accept chunked patch: HTTP Status code %d", postMethod.getStatusCode()));
+        return null;
+      }
+      if (contentType != null && postMethod.getStatusCode() == HttpStatus.SC_CONFLICT) {
+        Debug.getInstance().debug(Server.class, String.format("Server could not resolve the patch: %s", postMethod.getResponseBodyAsString()));
+        return null;
+      }
+
+      final long changeListId = getChangeListId(postMethod);
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, compressed ? String.format("sent %d bytes compressed to %d", sent[0], sent[1])
+                                                                         : String.format("sent %d bytes", sent[0])));
+      monitor.done();
+      return changeListId;
+
+    } catch (IOException e) {
+      if (connection[0] != null && connection[0].getFailure() != null) {
+        // the connection was dropped while the body was being sent, e.g. by a server or proxy refusing chunked requests
+        // without waiting for the body despite "Expect: 100-continue". A request with the length is the fallback then
+        Debug.getInstance().debug(Server.class, String.format("Could not stream the patch: %s", e.getMessage()));
+        return null;
+      }
+      throw new ECommunicationException(e);
+    } finally {
+      if (postMethod != null) {
+        postMethod.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * @param compressed content is gzip-compressed, it goes to the command line plugin controller then
+   */
+  @NotNull
+  private PostMethod uploadPatch(@NotNull final RequestEntity content, @NotNull final String comment, final boolean compressed) throws IOException {
+    final PostMethod postMethod = new PostMethod(compressed ? createUrl(COMPRESSED_UPLOAD_URL) : createUploadPatchUrl());
+    if (compressed) {
+      postMethod.setRequestHeader("Content-Encoding", "gzip");
+    }
+    addAuthorizationHeader(postMethod);
+    postMethod.setRequestHeader("Accept", "text/plain");
+    postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+
+    postMethod.setRequestEntity(content);
+    if (content.getContentLength() < 0) {
+      // a chunked request may be refused: let the server answer before the body is streamed
+      postMethod.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
+    }
+    postMethod.setQueryString(getUploadParameters(comment));
+    execute(postMethod);
+    return postMethod;
+  }
+
+  @NotNull
+  private NameValuePair[] getUploadParameters(@NotNull final String comment) {
+    return new NameValuePair[] { new NameValuePair("userId", String.valueOf(getCurrentUser())),
+      new NameValuePair("description", comment),
+      new NameValuePair("date", String.valueOf(System.currentTimeMillis())),
+      new NameValuePair("commitType", String.valueOf(PreTestedCommitType.NONE.getId())), };
+  }
+
+  /**
+   * @return chunk size of the upload session the server accepts at most, 0 if the server does not take patches in chunks
+   */
+  public int getMaxChunkSize() {
+    return isCompressedUploadSupported() ? myMaxChunkSize : 0;
+  }
+
+  /**
+   * Uploads the patch in chunks, chunks the server has got from an earlier attempt are not sent again.
+   * A failed chunk is retried a few times; if it still fails the session stays on the server and may be resumed later
+   */
+  public long createChangeList(@NotNull final UploadSession session, @NotNull final String comment, @NotNull final IProgressMonitor monitor) throws ECommunicationException {
+    PostMethod postMethod = null;
+    try {
+      monitor.beginTask("Sending patch to TeamCity Server");
+      postMethod = new PostMethod(createUrl(CHUNKS_URL));
+      addAuthorizationHeader(postMethod);
+      postMethod.setRequestHeader("Accept", "text/plain");
+      postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      postMethod.setQueryString(new NameValuePair[] { new NameValuePair("action", "start"),
+        new NameValuePair("session", session.getHash()),
+        new NameValuePair("length", String.valueOf(session.getLength())),
+        new NameValuePair("chunkSize", String.valueOf(session.getChunkSize())), });
+      execute(postMethod);
+      if (postMethod.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+        resetCapabilities();
+      }
+      if (postMethod.getStatusCode() != HttpStatus.SC_OK) {
+        throw new ECommunicationException("Error starting upload session with /" + CHUNKS_URL + ": " + postMethod.getResponseBodyAsString() +
+                                          "; HTTP Status code: " + postMethod.getStatusCode());
+      }
+      final Set<Integer> received = new HashSet<Integer>();
+      for (final String line : postMethod.getResponseBodyAsString().split("\n")) {
+        if (line.trim().length() > 0) {
+          received.add(Integer.parseInt(line.trim()));
+        }
+      }
+      postMethod.releaseConnection();
+      postMethod = null;
+      if (!received.isEmpty()) {
+        monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("resuming upload, %d of %d chunk(s) already sent", received.size(), session.getChunkCount())));
+      }
+
+      final List<Integer> chunks = new ArrayList<Integer>();
+      for (int index = 0; index < session.getChunkCount(); index++) {
+        if (!received.contains(index)) {
+          chunks.add(index);
+        }
+      }
+      final long sent = uploadChunks(session, chunks);
+
+      postMethod = new PostMethod(createUrl(CHUNKS_URL));
+      addAuthorizationHeader(postMethod);
+      postMethod.setRequestHeader("Accept", "text/plain");
+      postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      final List<NameValuePair> parameters = new ArrayList<NameValuePair>(Arrays.asList(getUploadParameters(comment)));
+      parameters.add(new NameValuePair("action", "commit"));
+      parameters.add(new NameValuePair("session", session.getHash()));
+      postMethod.setQueryString(parameters.toArray(new NameValuePair[parameters.size()]));
+      execute(postMethod);
+
+      final long changeListId = getChangeListId(postMethod);
+      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes of %d", sent, session.getLength())));
+      monitor.done();
+      return changeListId;
+
+    } catch (IOException | NumberFormatException e) {
+      throw new ECommunicationException(e);
+    } finally {
+      if (postMethod != null) {
+        postMethod.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * Sends the chunks over as many parallel connections as pay off, see {@link UploadStreams}.
+   * The server puts every chunk at its offset, so the order chunks arrive in does not matter
+   * @return number of sent bytes
+   */
+  private long uploadChunks(@NotNull final UploadSession session, @NotNull final List<Integer> chunks) throws IOException, ECommunicationException {
+    final int maxStreams = getMaxUploadStreams();
+    final UploadStreams streams = new UploadStreams(2, maxStreams, System.nanoTime());
+    final ExecutorService executor = Executors.newFixedThreadPool(maxStreams);
+    final CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+    final Iterator<Integer> pending = chunks.iterator();
+    long sent = 0;
+    int inFlight = 0;
+    try {
+      while (pending.hasNext() || inFlight > 0) {
+        while (pending.hasNext() && inFlight < streams.getStreams()) {
+          final int index = pending.next();
+          completion.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+              return uploadChunk(session, index, streams);
+            }
+          });
+          inFlight++;
+        }
+        final int length = completion.take().get();
+        inFlight--;
+        sent += length;
+        streams.sent(length, System.nanoTime());
+      }
+      return sent;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof ECommunicationException) {
+        throw (ECommunicationException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new ECommunicationException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return number of sent bytes
+   */
+  private int uploadChunk(@NotNull final UploadSession session, final int index, @NotNull final UploadStreams streams) throws IOException, ECommunicationException {
+    final byte[] chunk = new byte[(int) Math.min(session.getChunkSize(), session.getLength() - (long) index * session.getChunkSize())];
+    try (RandomAccessFile patch = new RandomAccessFile(session.getPatchFile(), "r")) {
+      patch.seek((long) index * session.getChunkSize());
+      patch.readFully(chunk);
+    }
+    final CRC32 checksum = new CRC32();
+    checksum.update(chunk);
+
+    for (int attempt = 1; ; attempt++) {
+      final PostMethod postMethod = new PostMethod(createUrl(CHUNKS_URL));
       try {
         addAuthorizationHeader(postMethod);
-        postMethod.setRequestHeader("Connection", "close");
-        postMethod.setRequestHeader("Accept", "text/plain");
         postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
-
-        postMethod.setRequestEntity(new InputStreamRequestEntity(content, patchFile.length()));
-        postMethod.setQueryString(new NameValuePair[] { new NameValuePair("userId", String.valueOf(getCurrentUser())),
-          new NameValuePair("description", comment),
-          new NameValuePair("date", String.valueOf(System.currentTimeMillis())),
-          new NameValuePair("commitType", String.valueOf(PreTestedCommitType.NONE.getId())), });
-        postMethod.execute(new HttpState(), connection);
+        postMethod.setRequestHeader(CHECKSUM_HEADER, String.valueOf(checksum.getValue()));
+        postMethod.setQueryString(new NameValuePair[] { new NameValuePair("session", session.getHash()),
+          new NameValuePair("index", String.valueOf(index)), });
+        postMethod.setRequestEntity(new ByteArrayRequestEntity(chunk, "application/octet-stream"));
+        execute(postMethod);
+        if (postMethod.getStatusCode() < 300) {
+          return chunk.length;
+        }
+        if (attempt >= MAX_CHUNK_ATTEMPTS) {
+          throw new ECommunicationException(String.format("Error sending chunk %d of %d with /%s: %s; HTTP Status code: %d", index, session.getChunkCount(),
+                                                          CHUNKS_URL, postMethod.getResponseBodyAsString(), postMethod.getStatusCode()));
+        }
+        Debug.getInstance().debug(Server.class, String.format("Chunk %d failed with HTTP Status code %d, retrying", index, postMethod.getStatusCode()));
+        streams.failed();
+      } catch (IOException e) {
+        if (attempt >= MAX_CHUNK_ATTEMPTS) {
+          throw e;
+        }
+        Debug.getInstance().debug(Server.class, String.format("Chunk %d failed: %s, retrying", index, e.getMessage()));
+        streams.failed();
       } finally {
-        content.close();
+        postMethod.releaseConnection();
+      }
+      try {
+        Thread.sleep(1000L * attempt);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
       }
+    }
+  }
 
-      if (postMethod.getStatusCode() >= 400) {
-        throw new ECommunicationException("Error creating change list on server with /" + UPLOAD_URL + ": " + postMethod.getResponseBodyAsString() +
-                                          "; take a look at TeamCity/logs/teamcity-server.log file for details. HTTP Status code: " + postMethod.getStatusCode());
+  /**
+   * Servers with the command line plugin accept compressed patches, older ones get plain patches.
+   * The capabilities are probed once per {@link Constants#CAPABILITIES_CACHE_TTL_SYSTEM_PROPERTY time to live} and cached for the server
+   */
+  private synchronized boolean isCompressedUploadSupported() {
+    if (isCompressedUploadSupported == null) {
+      final long ttl = getTtl(Constants.CAPABILITIES_CACHE_TTL_SYSTEM_PROPERTY, Constants.DEFAULT_CAPABILITIES_CACHE_TTL);
+      final CapabilitiesCache cache = new CapabilitiesCache(myUrl.toExternalForm());
+      CapabilitiesCache.Capabilities capabilities = ttl > 0 ? cache.get(ttl, System.currentTimeMillis()) : null;
+      if (capabilities == null) {
+        capabilities = probeCapabilities();
+        if (capabilities != null && ttl > 0) {
+          cache.put(capabilities, System.currentTimeMillis());
+        }
+      } else {
+        Debug.getInstance().debug(Server.class, "Capabilities taken from cache");
       }
+      isCompressedUploadSupported = capabilities != null && capabilities.isCompressedUploadSupported();
+      isBlobUploadSupported = capabilities != null && capabilities.isBlobUploadSupported();
+      myMaxChunkSize = capabilities != null ? capabilities.getMaxChunkSize() : 0;
+      Debug.getInstance().debug(Server.class, String.format("Compressed upload supported: %s, blobs supported: %s", isCompressedUploadSupported, isBlobUploadSupported));
+    }
+    return isCompressedUploadSupported;
+  }
 
-      // post requests to queue
-      final String response = postMethod.getResponseBodyAsString();
+  /**
+   * Forgets the capabilities after the server has refused a request relying on them, e.g. the plugin has been removed
+   */
+  private synchronized void resetCapabilities() {
+    new CapabilitiesCache(myUrl.toExternalForm()).clear();
+    isCompressedUploadSupported = null;
+  }
 
-      monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("sent %d bytes", patchFile.length())));
-      monitor.done();
-      return Long.parseLong(response);
+  /**
+   * @return null if the server could not be asked
+   */
+  @Nullable
+  private CapabilitiesCache.Capabilities probeCapabilities() {
+    GetMethod getMethod = null;
+    try {
+      getMethod = new GetMethod(createUrl(COMPRESSED_UPLOAD_URL));
+      addAuthorizationHeader(getMethod);
+      getMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      execute(getMethod);
+      final Header encodings = getMethod.getResponseHeader(ENCODINGS_HEADER);
+      final boolean compressed = getMethod.getStatusCode() == HttpStatus.SC_OK && encodings != null && encodings.getValue().contains("gzip");
+      final Header blobs = getMethod.getResponseHeader(BLOBS_HEADER);
+      final Header chunks = getMethod.getResponseHeader(CHUNKS_HEADER);
+      int maxChunkSize = 0;
+      if (compressed && chunks != null) {
+        try {
+          maxChunkSize = Integer.parseInt(chunks.getValue().trim());
+        } catch (NumberFormatException e) {
+          Debug.getInstance().debug(Server.class, String.format("Unexpected %s: %s", CHUNKS_HEADER, chunks.getValue()));
+        }
+      }
+      return new CapabilitiesCache.Capabilities(compressed, compressed && blobs != null && blobs.getValue().contains("sha-256"), maxChunkSize);
+    } catch (IOException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not check compressed upload support: %s", e.getMessage()));
+      return null;
+    } finally {
+      if (getMethod != null) {
+        getMethod.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * Servers with the command line plugin keep contents of uploaded files, a patch may refer to them instead of carrying them
+   */
+  public synchronized boolean isBlobUploadSupported() {
+    return isCompressedUploadSupported() && isBlobUploadSupported;
+  }
+
+  /**
+   * Asks the server which contents it has not got
+   * @param hashes {@link BlobPatchWriter#hash(File)} of file contents
+   * @return hashes unknown to the server or null if the server could not answer
+   */
+  @Nullable
+  public Set<String> getMissingBlobs(@NotNull final Collection<String> hashes) {
+    if (!isBlobUploadSupported()) {
+      return null;
+    }
+    PostMethod postMethod = null;
+    try {
+      final StringBuilder request = new StringBuilder(hashes.size() * 65);
+      for (final String hash : hashes) {
+        request.append(hash).append('\n');
+      }
+      postMethod = new PostMethod(createUrl(BLOBS_URL));
+      addAuthorizationHeader(postMethod);
+      postMethod.setRequestHeader("Accept", "text/plain");
+      postMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      postMethod.setRequestEntity(new ByteArrayRequestEntity(request.toString().getBytes("US-ASCII"), "text/plain"));
+      execute(postMethod);
+      if (postMethod.getStatusCode() != HttpStatus.SC_OK) {
+        Debug.getInstance().debug(Server.class, String.format("Could not negotiate contents: HTTP Status code %d", postMethod.getStatusCode()));
+        return null;
+      }
+      final Set<String> missing = new HashSet<String>();
+      for (final String line : postMethod.getResponseBodyAsString().split("\n")) {
+        if (line.trim().length() > 0) {
+          missing.add(line.trim());
+        }
+      }
+      Debug.getInstance().debug(Server.class, String.format("Server has %d of %d contents", hashes.size() - missing.size(), hashes.size()));
+      return missing;
+
+    } catch (IOException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not negotiate contents: %s", e.getMessage()));
+      return null;
+    } finally {
+      if (postMethod != null) {
+        postMethod.releaseConnection();
+      }
+    }
+  }
+
+  private static long getChangeListId(@NotNull final PostMethod postMethod) throws IOException, ECommunicationException {
+    if (postMethod.getStatusCode() >= 400) {
+      throw new ECommunicationException("Error creating change list on server with /" + UPLOAD_URL + ": " + postMethod.getResponseBodyAsString() +
+                                        "; take a look at TeamCity/logs/teamcity-server.log file for details. HTTP Status code: " + postMethod.getStatusCode());
+    }
+    // post requests to queue
+    return Long.parseLong(postMethod.getResponseBodyAsString());
+  }
+
+  /**
+   * Resolves build configurations by the server in one request, instead of looking them up in all the {@link #getProjects() projects}
+   * @param buildTypeIds external or internal ids of build configurations, ignored if the project is given
+   * @param projectId external or internal id of the project whose build configurations are resolved
+   * @param urls repository paths of the changes, if given the server tells which configurations they are applicable to
+   * @return resolved configurations or null if the server does not resolve them
+   */
+  @Nullable
+  public List<Configuration> resolveConfigurations(@NotNull final Collection<String> buildTypeIds,
+                                                   @Nullable final String projectId,
+                                                   @Nullable final Collection<String> urls) {
+    HttpMethod method = null;
+    try {
+      final NameValuePair parameter = projectId != null
+                                      ? new NameValuePair("project", projectId)
+                                      : new NameValuePair("buildTypes", StringUtil.join(",", buildTypeIds));
+      if (urls != null) {
+        final StringBuilder request = new StringBuilder();
+        for (final String url : urls) {
+          request.append(url).append('\n');
+        }
+        final PostMethod postMethod = new PostMethod(createUrl(CONFIGURATIONS_URL));
+        postMethod.setRequestEntity(new ByteArrayRequestEntity(request.toString().getBytes("UTF-8"), "text/plain; charset=UTF-8"));
+        method = postMethod;
+      } else {
+        method = new GetMethod(createUrl(CONFIGURATIONS_URL));
+      }
+      addAuthorizationHeader(method);
+      method.setRequestHeader("Accept", "text/plain");
+      method.addRequestHeader("User-Agent", mySession.getUserAgent());
+      method.setQueryString(new NameValuePair[] { parameter });
+      execute(method);
+      if (method.getStatusCode() != HttpStatus.SC_OK) {
+        Debug.getInstance().debug(Server.class, String.format("Could not resolve configurations: HTTP Status code %d", method.getStatusCode()));
+        return null;
+      }
+      final List<Configuration> configurations = new ArrayList<Configuration>();
+      for (final String line : method.getResponseBodyAsString().split("\n")) {
+        final String[] fields = line.trim().split("\t");
+        if (fields.length == 3) {
+          configurations.add(new Configuration(fields[0], fields[1], "1".equals(fields[2]) ? Boolean.TRUE : "0".equals(fields[2]) ? Boolean.FALSE : null));
+        }
+      }
+      return configurations;
+
+    } catch (IOException e) {
+      Debug.getInstance().debug(Server.class, String.format("Could not resolve configurations: %s", e.getMessage()));
+      return null;
+    } finally {
+      if (method != null) {
+        method.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * Fetches the mapping the server generates for the build configuration's VCS settings
+   * @param knownStamp settings stamp of the mapping the caller already has, if the settings are still the same
+   *                   the mapping is not generated and the result is {@link Mapping#isUnchanged()}
+   */
+  @NotNull
+  public Mapping getMapping(@NotNull final String externalId, @Nullable final String knownStamp) throws ECommunicationException {
+    GetMethod getMethod = null;
+    try {
+      getMethod = new GetMethod(createUrl(MAPPING_URL));
+      addAuthorizationHeader(getMethod);
+      getMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      getMethod.setQueryString(new NameValuePair[] { new NameValuePair("mappingFor", externalId),
+        new NameValuePair("stamp", knownStamp != null ? knownStamp : ""), });
+      execute(getMethod);
+
+      if (getMethod.getStatusCode() >= 400) {
+        throw new ECommunicationException("Error getting mapping from server with /" + MAPPING_URL + ": " + getMethod.getResponseBodyAsString() +
+                                          "; HTTP Status code: " + getMethod.getStatusCode());
+      }
+      final Element mapping = new SAXBuilder().build(getMethod.getResponseBodyAsStream()).getRootElement().getChild("mapping");
+      final Mapping result = new Mapping(mapping != null ? mapping.getAttributeValue("stamp") : null,
+                                         mapping != null && Boolean.parseBoolean(mapping.getAttributeValue("unchanged")));
+      if (mapping != null) {
+        for (final Object map : mapping.getChildren("map")) {
+          result.myRules.put(((Element) map).getAttributeValue("from"), ((Element) map).getAttributeValue("to"));
+        }
+      }
+      return result;
+
+    } catch (JDOMException e) {
+      throw new ECommunicationException(String.format("Could not parse mapping of \"%s\"", externalId), e);
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    } finally {
+      if (getMethod != null) {
+        getMethod.releaseConnection();
+      }
+    }
+  }
+
+  /**
+   * Gets settings stamps of several build configurations in one request, see {@link #getMapping(String, String)}
+   * @return external id -> current stamp, configurations unknown to the server are missing
+   */
+  @NotNull
+  public Map<String, String> getMappingStamps(@NotNull final Collection<String> externalIds) throws ECommunicationException {
+    GetMethod getMethod = null;
+    try {
+      getMethod = new GetMethod(createUrl(MAPPING_URL));
+      addAuthorizationHeader(getMethod);
+      getMethod.addRequestHeader("User-Agent", mySession.getUserAgent());
+      getMethod.setQueryString(new NameValuePair[] { new NameValuePair("mappingStampsFor", StringUtil.join(",", externalIds)), });
+      execute(getMethod);
+
+      if (getMethod.getStatusCode() >= 400) {
+        throw new ECommunicationException("Error getting mapping stamps from server with /" + MAPPING_URL + ": " + getMethod.getResponseBodyAsString() +
+                                          "; HTTP Status code: " + getMethod.getStatusCode());
+      }
+      final Element stamps = new SAXBuilder().build(getMethod.getResponseBodyAsStream()).getRootElement().getChild("stamps");
+      if (stamps == null) {
+        throw new ECommunicationException("Server does not report mapping stamps");
+      }
+      final HashMap<String, String> result = new HashMap<String, String>();
+      for (final Object stamp : stamps.getChildren("stamp")) {
+        result.put(((Element) stamp).getAttributeValue("buildType"), ((Element) stamp).getAttributeValue("value"));
+      }
+      return result;
 
+    } catch (JDOMException e) {
+      throw new ECommunicationException("Could not parse mapping stamps", e);
     } catch (IOException e) {
       throw new ECommunicationException(e);
     } finally {
-      if (connection != null) {
-        connection.close();
+      if (getMethod != null) {
+        getMethod.releaseConnection();
       }
     }
   }
 
   @NotNull
   private String createUploadPatchUrl() {
+    return createUrl(UPLOAD_URL);
+  }
+
+  @NotNull
+  private String createUrl(@NotNull final String path) {
     String result = getURL();
     if (!result.endsWith("/")) {
       result += "/";
     }
-    result += UPLOAD_URL;
+    result += path;
     return result;
   }
 
-  @NotNull
-  private HttpConnection getHttpConnection() throws IOException {
-    final SimpleHttpConnectionManager manager = new SimpleHttpConnectionManager(true);
-    HostConfiguration hostConfiguration = new HostConfiguration();
-    hostConfiguration.setHost(new URI(getURL(), false));
-    HttpConnection connection = manager.getConnection(hostConfiguration);
+  /**
+   * Executes the method on a pooled keep-alive connection, the caller releases it with {@link HttpMethod#releaseConnection()}
+   */
+  private void execute(@NotNull final HttpMethod method) throws IOException {
+    try {
+      getHttpClient().executeMethod(method);
+    } catch (IOException e) {
+      method.releaseConnection();
+      throw e;
+    }
+  }
 
-    if (!connection.isOpen()) {
-      connection.open();
+  @NotNull
+  private synchronized HttpClient getHttpClient() {
+    if (myHttpClient == null) {
+      myConnectionManager = new MultiThreadedHttpConnectionManager();
+      final int maxConnections = Math.max(MAX_CONNECTIONS, getMaxUploadStreams());
+      myConnectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+      myConnectionManager.getParams().setMaxTotalConnections(maxConnections);
+      myConnectionManager.getParams().setSoTimeout(getTimeout());
+      myHttpClient = new HttpClient(myConnectionManager);
     }
-    return connection;
+    return myHttpClient;
   }
 
-  private void addAuthorizationHeader(@NotNull PostMethod method) {
+  private void addAuthorizationHeader(@NotNull HttpMethod method) {
     final String crePair = mySession.getUsername() + ":" + mySession.getPassword();
     try {
       String encoded = new String(Base64.encodeBase64(crePair.getBytes("US-ASCII")), "US-ASCII"); // we expect ASCII login name and password here
@@ -238,5 +993,151 @@ public class Server {
 
   public void dispose() {
     mySession.dispose();
+    synchronized (this) {
+      if (myConnectionManager != null) {
+        myConnectionManager.shutdown();
+        myConnectionManager = null;
+        myHttpClient = null;
+      }
+    }
+  }
+
+  /**
+   * Writes the patch into the request body
+   */
+  public interface IPatchWriter {
+    void write(@NotNull OutputStream out) throws IOException;
+  }
+
+  /**
+   * Counts sent bytes. Closing flushes only: the request stream belongs to the connection.
+   * Remembers write failures, so a failure swallowed by the writer does not result in a truncated patch
+   */
+  private static class UploadStream extends FilterOutputStream {
+    private long myCount;
+    private IOException myFailure;
+
+    UploadStream(@NotNull final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        myFailure = e;
+        throw e;
+      }
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        myFailure = e;
+        throw e;
+      }
+      myCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        myFailure = e;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+
+    long getCount() {
+      return myCount;
+    }
+
+    @Nullable
+    IOException getFailure() {
+      return myFailure;
+    }
+
+    void checkFailure() throws IOException {
+      if (myFailure != null) {
+        throw myFailure;
+      }
+    }
+  }
+
+  /**
+   * Server generated mapping of a build configuration: local path relative to the checkout root -> repository path
+   */
+  public static class Mapping {
+    private final String myStamp;
+    private final boolean isUnchanged;
+    private final LinkedHashMap<String, String> myRules = new LinkedHashMap<String, String>();
+
+    Mapping(@Nullable final String stamp, final boolean unchanged) {
+      myStamp = stamp;
+      isUnchanged = unchanged;
+    }
+
+    /**
+     * @return stamp of the VCS settings the mapping was generated from
+     */
+    @Nullable
+    public String getStamp() {
+      return myStamp;
+    }
+
+    /**
+     * @return true if the settings have not changed since the known stamp, no rules are sent then
+     */
+    public boolean isUnchanged() {
+      return isUnchanged;
+    }
+
+    @NotNull
+    public Map<String, String> getRules() {
+      return myRules;
+    }
+  }
+
+  public static class Configuration {
+    private final String myRequestedId;
+    private final String myInternalId;
+    private final Boolean isApplicable;
+
+    Configuration(@NotNull final String requestedId, @NotNull final String internalId, @Nullable final Boolean applicable) {
+      myRequestedId = requestedId;
+      myInternalId = internalId;
+      isApplicable = applicable;
+    }
+
+    /**
+     * @return the id the configuration was requested by, the project id for configurations of a project
+     */
+    @NotNull
+    public String getRequestedId() {
+      return myRequestedId;
+    }
+
+    @NotNull
+    public String getInternalId() {
+      return myInternalId;
+    }
+
+    /**
+     * @return whether the changes are applicable to the configuration, null if no changes were given
+     */
+    @Nullable
+    public Boolean isApplicable() {
+      return isApplicable;
+    }
   }
 }
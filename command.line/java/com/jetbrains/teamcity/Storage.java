@@ -92,6 +92,13 @@ public class Storage {
     put(key, value, true);
   }
 
+  /**
+   * @return folder the storage file resides in. Other persistent data of the tool is kept there too
+   */
+  public File getHome() {
+    return new File(myStorageFile).getAbsoluteFile().getParentFile();
+  }
+
   public static interface IKey<T extends Serializable> extends Serializable {
     Object getKey();
   }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Patch being uploaded in chunks. The patch file and the session are kept until the upload completes,
+ * so an interrupted upload is resumed by a later run of the same changes without building the patch again.
+ */
+public class UploadSession {
+
+  static final String UPLOADS_FOLDER = "uploads"; //$NON-NLS-1$
+  public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private static final String PATCH_SUFFIX = ".patch"; //$NON-NLS-1$
+  private static final String SESSION_SUFFIX = ".properties"; //$NON-NLS-1$
+  private static final String HASH = "hash"; //$NON-NLS-1$
+  private static final String LENGTH = "length"; //$NON-NLS-1$
+  private static final String CHUNK_SIZE = "chunkSize"; //$NON-NLS-1$
+  private static final long STALE_SESSION_AGE = 24L * 60 * 60 * 1000;
+
+  private final File mySessionFile;
+  private final File myPatchFile;
+  private final String myHash;
+  private final long myLength;
+  private final int myChunkSize;
+
+  private UploadSession(@NotNull final File sessionFile, @NotNull final File patchFile, @NotNull final String hash, final long length, final int chunkSize) {
+    mySessionFile = sessionFile;
+    myPatchFile = patchFile;
+    myHash = hash;
+    myLength = length;
+    myChunkSize = chunkSize;
+  }
+
+  @NotNull
+  public static File getFolder() {
+    return new File(Storage.getInstance().getHome(), UPLOADS_FOLDER);
+  }
+
+  /**
+   * @return file to write the patch of a new session into
+   */
+  @NotNull
+  public static File createPatchFile(@NotNull final File folder) throws IOException {
+    FileUtil.createDir(folder);
+    return File.createTempFile("tcc-", PATCH_SUFFIX, folder); //$NON-NLS-1$
+  }
+
+  /**
+   * Starts a session of the written patch, sessions not finished for a day are deleted
+   * @param key identifies the changes the patch is built of
+   * @param patchFile is deleted if the session cannot be created
+   */
+  @NotNull
+  public static UploadSession create(@NotNull final File folder, @NotNull final String serverUrl, @NotNull final String key, @NotNull final File patchFile,
+                                     final int chunkSize) throws IOException {
+    deleteStale(folder);
+    final String name = getName(serverUrl, key);
+    final File sessionFile = new File(folder, name + SESSION_SUFFIX);
+    final File sessionPatchFile = new File(folder, name + PATCH_SUFFIX);
+    if (!patchFile.equals(sessionPatchFile)) {
+      Files.move(patchFile.toPath(), sessionPatchFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    boolean created = false;
+    try {
+      final UploadSession session = new UploadSession(sessionFile, sessionPatchFile, BlobPatchWriter.hash(sessionPatchFile), sessionPatchFile.length(), chunkSize);
+      final Properties properties = new Properties();
+      properties.setProperty(HASH, session.myHash);
+      properties.setProperty(LENGTH, String.valueOf(session.myLength));
+      properties.setProperty(CHUNK_SIZE, String.valueOf(chunkSize));
+      try (OutputStream out = new FileOutputStream(sessionFile)) {
+        properties.store(out, serverUrl);
+      }
+      created = true;
+      return session;
+    } finally {
+      if (!created) {
+        // the patch may be large, it is not left until the stale sessions are swept
+        FileUtil.delete(sessionFile);
+        FileUtil.delete(sessionPatchFile);
+      }
+    }
+  }
+
+  /**
+   * @return unfinished session of the changes or null
+   */
+  @Nullable
+  public static UploadSession load(@NotNull final File folder, @NotNull final String serverUrl, @NotNull final String key) {
+    final String name = getName(serverUrl, key);
+    final File sessionFile = new File(folder, name + SESSION_SUFFIX);
+    final File patchFile = new File(folder, name + PATCH_SUFFIX);
+    if (!sessionFile.isFile() || !patchFile.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(sessionFile)) {
+      properties.load(in);
+      final UploadSession session = new UploadSession(sessionFile, patchFile, properties.getProperty(HASH), Long.parseLong(properties.getProperty(LENGTH)),
+                                                      Integer.parseInt(properties.getProperty(CHUNK_SIZE)));
+      if (session.myHash == null || session.myLength != patchFile.length()) {
+        session.delete();
+        return null;
+      }
+      return session;
+    } catch (IOException | RuntimeException e) {
+      Debug.getInstance().error(UploadSession.class, String.format("Could not read upload session %s", sessionFile), e);
+      return null;
+    }
+  }
+
+  private static void deleteStale(@NotNull final File folder) {
+    final File[] files = folder.listFiles();
+    if (files != null) {
+      final long now = System.currentTimeMillis();
+      for (final File file : files) {
+        if (now - file.lastModified() > STALE_SESSION_AGE) {
+          FileUtil.delete(file);
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private static String getName(@NotNull final String serverUrl, @NotNull final String key) {
+    return WorkspaceSnapshot.hash((serverUrl + '\n' + key).getBytes());
+  }
+
+  @NotNull
+  public File getPatchFile() {
+    return myPatchFile;
+  }
+
+  /**
+   * @return SHA-256 of the patch
+   */
+  @NotNull
+  public String getHash() {
+    return myHash;
+  }
+
+  public long getLength() {
+    return myLength;
+  }
+
+  public int getChunkSize() {
+    return myChunkSize;
+  }
+
+  public int getChunkCount() {
+    return (int) ((myLength + myChunkSize - 1) / myChunkSize);
+  }
+
+  /**
+   * Deletes the session and its patch
+   */
+  public void delete() {
+    FileUtil.delete(mySessionFile);
+    FileUtil.delete(myPatchFile);
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+/**
+ * Number of parallel connections a chunked upload uses. Starting from a couple of streams it adds one stream while that
+ * raises the throughput noticeably and steps back once it does not; failed chunks halve the number of streams
+ */
+class UploadStreams {
+
+  private static final double GAIN = 1.1;
+
+  private final int myMaxStreams;
+  private int myStreams;
+  private boolean isGrowing = true;
+  private long myWindowStart;
+  private long myWindowBytes;
+  private int myWindowChunks;
+  private double myThroughput;
+
+  /**
+   * @param now {@link System#nanoTime()}
+   */
+  UploadStreams(final int initialStreams, final int maxStreams, final long now) {
+    myMaxStreams = Math.max(1, maxStreams);
+    myStreams = Math.max(1, Math.min(initialStreams, myMaxStreams));
+    myWindowStart = now;
+  }
+
+  synchronized int getStreams() {
+    return myStreams;
+  }
+
+  /**
+   * Accounts a sent chunk. The throughput is measured over a window of as many chunks as there are streams
+   * @param now {@link System#nanoTime()}
+   */
+  synchronized void sent(final long bytes, final long now) {
+    myWindowBytes += bytes;
+    myWindowChunks++;
+    if (myWindowChunks < Math.max(2, myStreams)) {
+      return;
+    }
+    final double throughput = myWindowBytes * 1e9 / Math.max(1, now - myWindowStart);
+    if (isGrowing) {
+      if (myThroughput == 0 || throughput > myThroughput * GAIN) {
+        if (myStreams < myMaxStreams) {
+          myStreams++;
+        } else {
+          isGrowing = false;
+        }
+      } else {
+        myStreams = Math.max(1, myStreams - 1);
+        isGrowing = false;
+      }
+    } else if (throughput * GAIN < myThroughput) {
+      isGrowing = true; // the link has changed, probe it again
+    }
+    Debug.getInstance().debug(UploadStreams.class, String.format("Upload throughput %.0f bytes/s, %d stream(s)", throughput, myStreams));
+    myThroughput = throughput;
+    myWindowStart = now;
+    myWindowBytes = 0;
+    myWindowChunks = 0;
+  }
+
+  /**
+   * Accounts a failed attempt to send a chunk
+   */
+  synchronized void failed() {
+    myStreams = Math.max(1, myStreams / 2);
+    isGrowing = false;
+  }
+
+}
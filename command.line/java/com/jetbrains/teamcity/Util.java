@@ -17,22 +17,32 @@ package com.jetbrains.teamcity;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.*;
-import java.util.regex.Pattern;
-import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.RuntimeUtil;
 import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
 
 public class Util {
 
-  public static IFileFilter CVS_FILES_FILTER = new CVSFilter();
+  public static final IPathFilter ALL_FILES_FILTER = new IPathFilter() {
+    public boolean acceptDirectory(@NotNull final Path directory) {
+      return true;
+    }
 
-  public static IFileFilter SVN_FILES_FILTER = new SVNFilter();
+    public boolean acceptFile(@NotNull final Path file) {
+      return true;
+    }
+  };
 
-  private static final Pattern ASTERISK_PATTERN = Pattern.compile(".*"); //$NON-NLS-1$
+  public static final IPathFilter VCS_FILES_FILTER = new VCSFilter();
 
   public static String getArgumentValue(final String[] args, final String... arguments) {
     final List<String> res = getArgumentValues(args, arguments);
@@ -132,42 +142,93 @@ public class Util {
   }
 
   public static Collection<File> getFiles(final String path) throws IllegalArgumentException {
+    return getFiles(path, ALL_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+  }
+
+  public static Collection<File> getFiles(final String path, @NotNull final IPathFilter filter, @NotNull final IProgressMonitor monitor) throws IllegalArgumentException {
+    return getFiles(path, filter, new PathInfoCache(), monitor);
+  }
+
+  /**
+   * @param filter applied while the tree is walked: rejected directories are not entered at all. {@link IgnoreRules#IGNORE_FILE}
+   *               rules are applied on top of it unless it is an {@link IgnoreFilter} already
+   * @param paths receives attributes of the collected files
+   */
+  public static Collection<File> getFiles(final String path, @NotNull final IPathFilter filter, @NotNull final PathInfoCache paths, @NotNull final IProgressMonitor monitor) throws IllegalArgumentException {
+    final IPathFilter ignoring = IgnoreFilter.wrap(filter);
+    final PathInfo info;
     try {
-      final File simpleFile = new File(path).getCanonicalFile().getAbsoluteFile();
-      if (simpleFile.exists() && simpleFile.isFile()) {
-        return Collections.singletonList(simpleFile);
-      } else if (simpleFile.exists() && simpleFile.isDirectory()) {
-        final ArrayList<File> list = new ArrayList<File>();
-        FileUtil.collectMatchedFiles(simpleFile, ASTERISK_PATTERN, list);
-        return list;
-      } else if (hasFilePatterns(path)) {
-        final ArrayList<File> list = new ArrayList<File>();
-        FileUtil.collectMatchedFiles(simpleFile, Pattern.compile(path), list);
-        return list;
-      }
-      return Collections.singletonList(simpleFile);// let it be
-    } catch (IOException e) {
+      info = paths.get(new File(path));
+    } catch (IllegalArgumentException e) {
       throw new IllegalArgumentException(MessageFormat.format("Wrong path passed: {0}", path));
     }
+    final File simpleFile = info.getFile();
+    if (info.isFile()) {
+      return isAccepted(simpleFile, ignoring) ? Collections.singletonList(simpleFile) : Collections.<File>emptyList();
+    } else if (info.isDirectory()) {
+      return isAcceptedDirectory(simpleFile.toPath(), ignoring) ? new FileCollector(ignoring, paths, monitor).collect(simpleFile) : Collections.<File>emptyList();
+    } else if (hasFilePatterns(path)) {
+      return getMatchedFiles(path, ignoring, paths, monitor);
+    }
+    return isAccepted(simpleFile, ignoring) ? Collections.singletonList(simpleFile) : Collections.<File>emptyList();// let it be
   }
 
   static boolean hasFilePatterns(String path) {
-    return path.contains("*") || path.contains("!"); //$NON-NLS-1$//$NON-NLS-2$
+    return path.contains("*") || path.contains("?") || path.contains("["); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+  }
+
+  /**
+   * @param path wildcard path like "src/**&#47;*.java": the part before the first wildcard segment is walked, the rest is matched with
+   *             {@link IgnoreRules} glob syntax
+   */
+  private static Collection<File> getMatchedFiles(final String path, final IPathFilter filter, final PathInfoCache paths, final IProgressMonitor monitor) {
+    final String[] segments = path.replace(File.separatorChar, '/').split("/"); //$NON-NLS-1$
+    final StringBuilder base = new StringBuilder();
+    final StringBuilder glob = new StringBuilder();
+    for (final String segment : segments) {
+      if (glob.length() == 0 && !IgnoreRules.hasWildcards(segment)) {
+        base.append(segment).append('/');
+      } else {
+        glob.append('/').append(segment);
+      }
+    }
+    final PathInfo rootInfo = paths.get(new File(base.length() > 0 ? base.toString() : ".")); //$NON-NLS-1$
+    if (!rootInfo.isDirectory()) {
+      return Collections.emptyList();
+    }
+    final File root = rootInfo.getFile();
+    final IgnoreRules pattern = IgnoreRules.compile(root, glob.toString());
+    final ArrayList<File> matched = new ArrayList<File>();
+    for (final File file : new FileCollector(filter, paths, monitor).collect(root)) {
+      if (pattern.matches(file.toPath(), false)) {
+        matched.add(file);
+      }
+    }
+    return matched;
   }
 
   public static Collection<File> getFiles(final File file) {
+    return getFiles(file, ALL_FILES_FILTER, RuntimeUtil.NULL_MONITOR);
+  }
+
+  public static Collection<File> getFiles(final File file, @NotNull final IPathFilter filter, @NotNull final IProgressMonitor monitor) {
+    return getFiles(file, filter, new PathInfoCache(), monitor);
+  }
+
+  public static Collection<File> getFiles(final File file, @NotNull final IPathFilter filter, @NotNull final PathInfoCache paths, @NotNull final IProgressMonitor monitor) {
     if (!file.exists()) {
       throw new IllegalArgumentException(MessageFormat.format("File is not found \"{0}\"", file.getAbsolutePath())); //$NON-NLS-1$
     }
     if (file.length() == 0) {
       throw new IllegalArgumentException(MessageFormat.format("File \"{0}\" is empty", file.getAbsolutePath())); //$NON-NLS-1$	
     }
-    try {
-      final List<String> content = FileUtil.readFile(file);
-      final HashSet<File> files = new HashSet<File>(content.size());
-      for (String path : content) {
+    try (InputStream in = new FileInputStream(file)) {
+      final HashSet<File> files = new HashSet<File>();
+      final PathListReader reader = new PathListReader(in, false);
+      String path;
+      while ((path = reader.next()) != null) {
         if (path.trim().length() > 0) {
-          files.addAll(getFiles(path));
+          files.addAll(getFiles(path, filter, paths, monitor));
         }
       }
       return files;
@@ -176,35 +237,51 @@ public class Util {
     }
   }
 
-  public interface IFileFilter {
-    public Collection<File> accept(final Collection<File> files);
+  /**
+   * Checks a single file which was not reached by a tree walk: the file itself and all its parent directories have to be accepted
+   */
+  public static boolean isAccepted(@NotNull final File file, @NotNull final IPathFilter filter) {
+    final Path path = file.toPath();
+    return filter.acceptFile(path) && (path.getParent() == null || isAcceptedDirectory(path.getParent(), filter));
   }
 
-  private static class CVSFilter implements IFileFilter {
-
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        final String normalPath = Util.toPortableString(file.getPath().toLowerCase());
-        if (!normalPath.endsWith("cvs/entries") && !normalPath.endsWith("cvs/repository") && !normalPath.endsWith("cvs/root")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-          result.add(file);
-        }
+  /**
+   * Checks a directory which was not reached by a tree walk: the directory itself and all its parent directories have to be accepted
+   */
+  private static boolean isAcceptedDirectory(@NotNull final Path directory, @NotNull final IPathFilter filter) {
+    for (Path parent = directory; parent != null && parent.getFileName() != null; parent = parent.getParent()) {
+      if (!filter.acceptDirectory(parent)) {
+        return false;
       }
-      return result;
     }
+    return true;
   }
 
-  private static class SVNFilter implements IFileFilter {
+  public interface IPathFilter {
+    public boolean acceptDirectory(@NotNull final Path directory);
 
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        final String normalPath = file.getPath().toLowerCase();
-        if (!normalPath.contains(".svn")) { //$NON-NLS-1$
-          result.add(file);
-        }
+    public boolean acceptFile(@NotNull final Path file);
+  }
+
+  /**
+   * Skips Subversion administrative areas and CVS/Entries, CVS/Repository, CVS/Root files
+   */
+  private static class VCSFilter implements IPathFilter {
+
+    public boolean acceptDirectory(@NotNull final Path directory) {
+      return !directory.getFileName().toString().toLowerCase().contains(".svn"); //$NON-NLS-1$
+    }
+
+    public boolean acceptFile(@NotNull final Path file) {
+      final String name = file.getFileName().toString().toLowerCase();
+      if (name.contains(".svn")) { //$NON-NLS-1$
+        return false;
+      }
+      final Path parent = file.getParent();
+      if (parent != null && parent.getFileName() != null && "cvs".equals(parent.getFileName().toString().toLowerCase())) { //$NON-NLS-1$
+        return !"entries".equals(name) && !"repository".equals(name) && !"root".equals(name); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
       }
-      return result;
+      return true;
     }
   }
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity;
+
+import com.jetbrains.teamcity.command.Messages;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+import jetbrains.buildServer.core.runtime.IProgressStatus;
+import jetbrains.buildServer.core.runtime.ProgressStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Path, size, modification time and content hash of every file seen by Remote Runs from a workspace, together with
+ * the hash the file had when the snapshot was taken. A file is sent while its content differs from that base state,
+ * so edits sent by an earlier run are not lost when a later run touches other files. The base is taken by the first run
+ * and moved forward by {@link #reset()}, e.g. once the changes are committed or the workspace is updated from VCS.
+ * Kept in the Storage home, one file per workspace root.
+ */
+public class WorkspaceSnapshot {
+
+  static final String SNAPSHOTS_FOLDER = "snapshots"; //$NON-NLS-1$
+
+  private static final int FORMAT_VERSION = 2;
+
+  /**
+   * hash of a file which did not exist
+   */
+  static final String ABSENT = ""; //$NON-NLS-1$
+
+  private final File mySnapshotFile;
+  private final Map<String, Entry> myEntries;
+  private Map<String, Entry> myPending;
+
+  private WorkspaceSnapshot(@NotNull final File snapshotFile, @NotNull final Map<String, Entry> entries) {
+    mySnapshotFile = snapshotFile;
+    myEntries = entries;
+  }
+
+  @NotNull
+  public static WorkspaceSnapshot load(@NotNull final File root) {
+    return open(getSnapshotFile(root));
+  }
+
+  @NotNull
+  static WorkspaceSnapshot open(@NotNull final File snapshotFile) {
+    return new WorkspaceSnapshot(snapshotFile, read(snapshotFile));
+  }
+
+  @NotNull
+  static File getSnapshotFile(@NotNull final File root) {
+    String key;
+    try {
+      key = root.getCanonicalPath();
+    } catch (IOException e) {
+      key = root.getAbsolutePath();
+    }
+    return new File(new File(Storage.getInstance().getHome(), SNAPSHOTS_FOLDER), hash(key.getBytes()) + ".snapshot"); //$NON-NLS-1$
+  }
+
+  public boolean isEmpty() {
+    return myEntries.isEmpty();
+  }
+
+  /**
+   * Drops the base, so the next {@link #getChanges(Collection, PathInfoCache, IProgressMonitor)} call takes a new one from the
+   * current content. The stored snapshot is replaced only by {@link #commit()}
+   */
+  public void reset() {
+    myEntries.clear();
+    myPending = null;
+  }
+
+  /**
+   * On the first call every file is a change and its current content becomes the base. Files appearing later have no base.
+   *
+   * @param files current content of the workspace
+   * @return files whose content differs from the base: modified and new files, plus files of the base which do not exist anymore.
+   * The state observed here is persisted by {@link #commit()}
+   */
+  @NotNull
+  public Collection<File> getChanges(@NotNull final Collection<File> files, @NotNull final PathInfoCache paths, @NotNull final IProgressMonitor monitor) throws IOException {
+    final boolean first = myEntries.isEmpty();
+    final Map<String, Entry> pending = new HashMap<String, Entry>(myEntries);
+    final List<File> changes = new ArrayList<File>();
+    final Set<String> seen = new HashSet<String>(files.size());
+    int modified = 0;
+    int deleted = 0;
+    for (final File file : files) {
+      final String key = file.getAbsolutePath();
+      seen.add(key);
+      final Entry previous = myEntries.get(key);
+      final Entry current = Entry.stat(paths.get(file), previous);
+      final String base = previous != null ? previous.myBaseHash : first ? current.myHash : ABSENT;
+      if (current.myHash.equals(ABSENT)) {
+        // passed explicitly but is not on disk: will be sent as deleted
+        changes.add(file);
+        if (base.equals(ABSENT)) {
+          pending.remove(key);
+        } else {
+          pending.put(key, current.withBase(base));
+          deleted++;
+        }
+      } else {
+        pending.put(key, current.withBase(base));
+        if (first || !current.myHash.equals(base)) {
+          changes.add(file);
+          modified++;
+        }
+      }
+    }
+    for (final Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+      final String key = entry.getKey();
+      if (!seen.contains(key)) {
+        final File file = new File(key);
+        if (!paths.get(file).exists()) {
+          if (entry.getValue().myBaseHash.equals(ABSENT)) {
+            // created and removed since the base
+            pending.remove(key);
+          } else {
+            pending.put(key, Entry.absent(entry.getValue().myBaseHash));
+            changes.add(file);
+            deleted++;
+          }
+        }
+      }
+    }
+    myPending = pending;
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format(Messages.getString("WorkspaceSnapshot.changes.message"), modified, deleted))); //$NON-NLS-1$
+    return changes;
+  }
+
+  /**
+   * persists the state observed by the recent {@link #getChanges(Collection, PathInfoCache, IProgressMonitor)} call
+   */
+  public void commit() throws IOException {
+    if (myPending == null) {
+      return;
+    }
+    write(mySnapshotFile, myPending);
+    myEntries.clear();
+    myEntries.putAll(myPending);
+    myPending = null;
+  }
+
+  @NotNull
+  private static Map<String, Entry> read(@NotNull final File snapshotFile) {
+    final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        Debug.getInstance().debug(WorkspaceSnapshot.class, String.format("Ignoring snapshot %s of unknown format", snapshotFile));
+        return entries;
+      }
+      final int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        final String path = in.readUTF();
+        entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+      }
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      // first run
+    } catch (IOException e) {
+      Debug.getInstance().error(WorkspaceSnapshot.class, String.format("Could not read snapshot %s, all files will be sent", snapshotFile), e);
+      entries.clear();
+    }
+    return entries;
+  }
+
+  private static void write(@NotNull final File snapshotFile, @NotNull final Map<String, Entry> entries) throws IOException {
+    final File folder = snapshotFile.getParentFile();
+    if (!folder.exists() && !folder.mkdirs()) {
+      throw new IOException(String.format("Could not create %s", folder));
+    }
+    final File temp = new File(folder, snapshotFile.getName() + ".tmp"); //$NON-NLS-1$
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(entries.size());
+      for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().mySize);
+        out.writeLong(entry.getValue().myTimestamp);
+        out.writeUTF(entry.getValue().myHash);
+        out.writeUTF(entry.getValue().myBaseHash);
+      }
+    }
+    Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @NotNull
+  static String hash(@NotNull final byte[] content) {
+    final MessageDigest digest = createDigest();
+    return toHex(digest.digest(content));
+  }
+
+  @NotNull
+  static String hash(@NotNull final File file) throws IOException {
+    final MessageDigest digest = createDigest();
+    try (InputStream in = new FileInputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(final byte[] digest) {
+    return String.format("%032x", new BigInteger(1, digest)); //$NON-NLS-1$
+  }
+
+  static class Entry {
+    private final long mySize;
+    private final long myTimestamp;
+    private final String myHash;
+    private final String myBaseHash;
+
+    Entry(final long size, final long timestamp, @NotNull final String hash, @NotNull final String baseHash) {
+      mySize = size;
+      myTimestamp = timestamp;
+      myHash = hash;
+      myBaseHash = baseHash;
+    }
+
+    @NotNull
+    static Entry absent(@NotNull final String baseHash) {
+      return new Entry(-1, -1, ABSENT, baseHash);
+    }
+
+    @NotNull
+    Entry withBase(@NotNull final String baseHash) {
+      return baseHash.equals(myBaseHash) ? this : new Entry(mySize, myTimestamp, myHash, baseHash);
+    }
+
+    /**
+     * @return {@link #ABSENT} hash if the file does not exist. Content is hashed only if size or timestamp differ from the previous entry.
+     * The base of the previous entry is kept
+     */
+    @NotNull
+    static Entry stat(@NotNull final PathInfo file, @Nullable final Entry previous) throws IOException {
+      final String base = previous != null ? previous.myBaseHash : ABSENT;
+      if (!file.isFile()) {
+        return absent(base);
+      }
+      final long size = file.length();
+      final long timestamp = file.lastModified();
+      if (previous != null && previous.mySize == size && previous.myTimestamp == timestamp && !previous.myHash.equals(ABSENT)) {
+        return previous;
+      }
+      return new Entry(size, timestamp, hash(file.getFile()), base);
+    }
+  }
+
+}
@@ -6,7 +6,11 @@ import jetbrains.buildServer.xstream.ServerXStreamFormat;
 import jetbrains.buildServer.xstream.XStreamWrapper;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Map;
 import java.util.Vector;
+import jetbrains.buildServer.BuildTypeData;
+import jetbrains.buildServer.ProjectData;
 
 public class XStreamUtil {
   private final static XStreamHolder ourXStreamHolder = new XStreamHolder() {
@@ -15,10 +19,38 @@ public class XStreamUtil {
     }
   };
 
+  /**
+   * Skips map fields of projects and build configurations, like parameters, which are not used by the command line tool
+   */
+  private final static XStreamHolder ourSummaryXStreamHolder = new XStreamHolder() {
+    protected void configureXStream(XStream xStream) {
+      ServerXStreamFormat.formatXStream(xStream);
+      omitMapFields(xStream, ProjectData.class);
+      omitMapFields(xStream, BuildTypeData.class);
+    }
+  };
+
+  private static void omitMapFields(final XStream xStream, final Class<?> type) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (final Field field : c.getDeclaredFields()) {
+        if (Map.class.isAssignableFrom(field.getType())) {
+          xStream.omitField(c, field.getName());
+        }
+      }
+    }
+  }
+
   public static <T> T deserializeObject(final Object typeData) {
     return XStreamWrapper.<T>deserializeObject((String) typeData, ourXStreamHolder);
   }
 
+  /**
+   * Deserializes a project leaving out the fields the command line tool does not use, see {@link #ourSummaryXStreamHolder}
+   */
+  public static ProjectData deserializeProjectSummary(final String typeData) {
+    return XStreamWrapper.<ProjectData>deserializeObject(typeData, ourSummaryXStreamHolder);
+  }
+
   public static <T> Vector serializeObjects(final java.util.List<T> list) {
     return XStreamWrapper.<T>serializeObjects(list, ourXStreamHolder);
   }
@@ -50,6 +50,7 @@ class CommandRegistry {
     register(new ListCommand());
     register(new Login());
     register(new Logout());
+    register(new MappingCommand());
     register(new RemoteRun());
     // register(new Share());
     // register(new Unshare());
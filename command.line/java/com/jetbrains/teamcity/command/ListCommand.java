@@ -18,10 +18,7 @@ package com.jetbrains.teamcity.command;
 import com.jetbrains.teamcity.*;
 import com.jetbrains.teamcity.Util.StringTable;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 import javax.naming.directory.InvalidAttributesException;
 import jetbrains.buildServer.BuildTypeData;
 import jetbrains.buildServer.ProjectData;
@@ -72,44 +69,25 @@ public class ListCommand implements ICommand {
     } else {
       filterByProject = null;
     }
-    // get & sort
-    // cache projects
-    final HashMap<String, String> prjMap = new HashMap<String, String>();
-    for (final ProjectData prj : server.getProjects()) {
-      prjMap.put(prj.getExternalId(), prj.getName());
-    }
-    final ArrayList<BuildTypeData> configurations = new ArrayList<BuildTypeData>(server.getConfigurations());
-    Collections.sort(configurations, new Comparator<BuildTypeData>() {
-      public int compare(BuildTypeData o1, BuildTypeData o2) {
-        if (filterByProject != null) {
-          return o1.getName().compareTo(o2.getName());
-        }
-        final String prj1name = prjMap.get(o1.getExternalId());
-        final String prj2name = prjMap.get(o2.getExternalId());
-        return (prj1name + " " + o1.getName()).compareTo(prj2name + " " + o2.getName());
-      }
-    });
+    // sorted by the catalog
+    final ConfigurationCatalog catalog = server.getCatalog();
+    final List<BuildTypeData> configurations = filterByProject != null
+                                               ? catalog.getProjectConfigurations(filterByProject)
+                                               : catalog.getConfigurationsByName();
     // display
     final StringTable table = new Util.StringTable(Messages.getString("List.config.list.header")); //$NON-NLS-1$
     for (final BuildTypeData config : configurations) {
-      // check
-      if ((filterByProject == null) || config.getProjectExternalId().equals(filterByProject)) {
-        final String description = config.getDescription() == null ? EMPTY : config.getDescription();
-        final String prjName = prjMap.get(config.getProjectExternalId());
-        table.addRow(MessageFormat.format(Messages.getString("List.config.list.pattern"), config.getExternalId(), prjName, config.getName(), config.getStatus(), description)); //$NON-NLS-1$
-      }
+      final String description = config.getDescription() == null ? EMPTY : config.getDescription();
+      final ProjectData project = catalog.findProject(config.getProjectExternalId());
+      final String prjName = project != null ? project.getName() : null;
+      table.addRow(MessageFormat.format(Messages.getString("List.config.list.pattern"), config.getExternalId(), prjName, config.getName(), config.getStatus(), description)); //$NON-NLS-1$
     }
     return table.toString();
   }
 
   private String printProjects(final Server server) throws ECommunicationException {
-    // get & sort
-    final ArrayList<ProjectData> projects = new ArrayList<ProjectData>(server.getProjects());
-    Collections.sort(projects, new Comparator<ProjectData>() {
-      public int compare(ProjectData o1, ProjectData o2) {
-        return o1.getName().compareTo(o2.getName());
-      }
-    });
+    // sorted by the catalog
+    final List<ProjectData> projects = server.getCatalog().getProjectsByName();
 
     // display
     final StringTable table = new Util.StringTable(Messages.getString("List.project.list.header")); //$NON-NLS-1$
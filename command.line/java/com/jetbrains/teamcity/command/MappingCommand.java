@@ -0,0 +1,80 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jetbrains.teamcity.command;
+
+import com.jetbrains.teamcity.*;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.Map;
+import javax.naming.directory.InvalidAttributesException;
+import jetbrains.buildServer.core.runtime.IProgressMonitor;
+
+public class MappingCommand implements ICommand {
+
+  private static final String ID = Messages.getString("Mapping.command.id"); //$NON-NLS-1$
+
+  private static final String SYNC = Messages.getString("Mapping.sync.subcommand"); //$NON-NLS-1$
+
+  private static final String CONFIGURATION_PARAM = Messages.getString("Mapping.config.runtime.param"); //$NON-NLS-1$
+  private static final String CONFIGURATION_PARAM_LONG = Messages.getString("Mapping.config.runtime.param.long"); //$NON-NLS-1$
+
+  private String myResultDescription;
+
+  public void execute(final Server server, final Args args, final IProgressMonitor monitor) throws EAuthorizationException, ECommunicationException, ERemoteError, InvalidAttributesException {
+    final String buildTypeId = args.getArgument(CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG);
+    final File root = new File(".").getAbsoluteFile(); //$NON-NLS-1$
+    monitor.beginTask(MessageFormat.format(Messages.getString("Mapping.sync.step.name"), buildTypeId)); //$NON-NLS-1$
+    final MappingCache.Entry entry = new MappingCache().sync(server, buildTypeId, root);
+    monitor.done();
+    final StringBuilder result = new StringBuilder(MessageFormat.format(Messages.getString("Mapping.result.ok.pattern"), //$NON-NLS-1$
+                                                                        entry.getRules().size(), buildTypeId, entry.getRoot()));
+    for (final Map.Entry<String, String> rule : entry.getRules().entrySet()) {
+      result.append(MessageFormat.format(Messages.getString("Mapping.rule.pattern"), rule.getKey(), rule.getValue())); //$NON-NLS-1$
+    }
+    myResultDescription = result.toString();
+  }
+
+  public void validate(final Args args) throws IllegalArgumentException {
+    if (args.getArguments().length == 0 || !SYNC.equals(args.getArguments()[0])) {
+      throw new IllegalArgumentException(MessageFormat.format("missing {0}", SYNC));
+    }
+    if (args.getArgument(CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG) == null) {
+      throw new IllegalArgumentException(MessageFormat.format("missing {0}", CONFIGURATION_PARAM));
+    }
+  }
+
+  public String getId() {
+    return ID;
+  }
+
+  public boolean isConnectionRequired(final Args args) {
+    return true;
+  }
+
+  public String getUsageDescription() {
+    return MessageFormat.format(Messages.getString("Mapping.help.usage.pattern"), //$NON-NLS-1$
+                                getCommandDescription(), getId(), SYNC, CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG);
+  }
+
+  public String getCommandDescription() {
+    return Messages.getString("Mapping.help.description"); //$NON-NLS-1$
+  }
+
+  public String getResultDescription() {
+    return myResultDescription;
+  }
+
+}
@@ -16,12 +16,16 @@
 package com.jetbrains.teamcity.command;
 
 import com.jetbrains.teamcity.*;
-import com.jetbrains.teamcity.Util.IFileFilter;
+import com.jetbrains.teamcity.Util.IPathFilter;
 import com.jetbrains.teamcity.resources.FileBasedMatcher;
 import com.jetbrains.teamcity.resources.ITCResource;
 import com.jetbrains.teamcity.resources.ITCResourceMatcher;
 import com.jetbrains.teamcity.resources.TCWorkspace;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
 import javax.naming.directory.InvalidAttributesException;
 import jetbrains.buildServer.*;
@@ -29,31 +33,26 @@ import jetbrains.buildServer.core.runtime.IProgressMonitor;
 import jetbrains.buildServer.core.runtime.IProgressStatus;
 import jetbrains.buildServer.core.runtime.ProgressStatus;
 import jetbrains.buildServer.serverSide.userChanges.PersonalChangeCommitDecision;
-import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.ThreadUtil;
-import jetbrains.buildServer.util.filters.Filter;
 import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
 import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilderImpl;
-import jetbrains.buildServer.vcs.patches.PatchBuilderImpl;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import static java.text.MessageFormat.format;
-import static jetbrains.buildServer.util.CollectionsUtil.filterAndConvertCollection;
 
 public class RemoteRun implements ICommand {
 
-  private static final IFileFilter TCC_FILTER = new IFileFilter() {
+  private static final IPathFilter TCC_FILTER = new IPathFilter() {
 
-    public Collection<File> accept(Collection<File> files) {
-      final HashSet<File> result = new HashSet<File>();
-      for (final File file : files) {
-        if (!file.getName().toLowerCase().equals(TCWorkspace.TCC_ADMIN_FILE)) {
-          result.add(file);
-        }
-      }
-      return result;
+    public boolean acceptDirectory(@NotNull final Path directory) {
+      return Util.VCS_FILES_FILTER.acceptDirectory(directory);
+    }
+
+    public boolean acceptFile(@NotNull final Path file) {
+      return Util.VCS_FILES_FILTER.acceptFile(file) && !file.getFileName().toString().toLowerCase().equals(TCWorkspace.TCC_ADMIN_FILE);
     }
   };
 
@@ -84,6 +83,20 @@ public class RemoteRun implements ICommand {
   private static final String FORCE_CLEAN_SWITCH = getMsg("RemoteRun.force.clean.param.long");
   private static final String REBUILD_DEPS_SWITCH = getMsg("RemoteRun.rebuild.dependencies");
   static final String BUILD_PARAM_SWITCH = getMsg("RemoteRun.build.param");
+  static final String CHANGED_SINCE_SNAPSHOT_SWITCH = getMsg("RemoteRun.changed.since.snapshot.param.long");
+  static final String RESET_SNAPSHOT_SWITCH = getMsg("RemoteRun.reset.snapshot.param.long");
+  private static final String NULL_SEPARATED_SWITCH = getMsg("RemoteRun.null.separated.param");
+  static final String NULL_SEPARATED_SWITCH_LONG = getMsg("RemoteRun.null.separated.param.long");
+  static final String STDIN_SWITCH_LONG = getMsg("RemoteRun.stdin.param.long");
+
+  /**
+   * FILE argument standing for the file names read from stdin
+   */
+  static final String STDIN_PATH = "-"; //$NON-NLS-1$
+
+  private static final long DEFAULT_CHUNKED_UPLOAD_THRESHOLD = 64L * 1024 * 1024;
+
+  private static final int DEFAULT_MAX_APPLICABILITY_PATHS = 10000;
 
   private Server myServer;
   private String myComment;
@@ -95,7 +108,19 @@ public class RemoteRun implements ICommand {
 
   private boolean myCleanoff;
 
-  private Map<String, String> myConfigExternal2InternalMap;
+  private PathInfoCache myPaths = new PathInfoCache();
+  private IPathFilter myFilter = new IgnoreFilter(TCC_FILTER);
+
+  private ChangeListIndex myChangeListIndex;
+
+  /**
+   * Requested configurations the server has found the changes applicable to, null if it has not checked them
+   */
+  private Set<String> myResolvedApplicable;
+  /**
+   * repository paths of the collected changes sent to check the applicability, see {@link #getRepositoryPaths}
+   */
+  private Collection<String> myRepositoryPaths;
 
   private volatile ECommunicationException myRecentSummaryError;
   private int mySummaryFailureCount;
@@ -136,26 +161,39 @@ public class RemoteRun implements ICommand {
     // do not clean after run
     myCleanoff = args.isCleanOff();
 
-    final TCWorkspace workspace = new TCWorkspace(getOverridingMatcher(args));
+    // every file is canonicalized and stat-ed, every ignore file is read once per run
+    myPaths = new PathInfoCache();
+    myChangeListIndex = new ChangeListIndex();
+    myRepositoryPaths = null;
+
+    final ITCResourceMatcher overridingMatcher = getOverridingMatcher(args);
+    final Map<File, ITCResourceMatcher> syncedMatchers = overridingMatcher == null ? getSyncedMatchers() : Collections.<File, ITCResourceMatcher>emptyMap();
+    final TCWorkspace workspace = new TCWorkspace(overridingMatcher, myPaths, syncedMatchers);
+    // ignore files are read up to the workspace root: the current directory, a directory with a mapping file or a synced mapping
+    final List<File> workspaceRoots = new ArrayList<File>(syncedMatchers.keySet());
+    workspaceRoots.add(new File("."));
+    myFilter = new IgnoreFilter(TCC_FILTER, workspaceRoots);
 
     // collect files
-    final Collection<File> files = getFiles(args, monitor);
+    final WorkspaceSnapshot snapshot = getSnapshot(args);
+    final Collection<File> files = getChangedFiles(snapshot, getFiles(args, monitor), monitor);
 
     // collect TC files
     final Collection<ITCResource> tcResources = getTCResources(workspace, files, monitor);
 
-    // prepare patch
-    final File patchFile = createPatch(tcResources, monitor);
-
     // collect configurations for running
-    final Collection<String> requestedInternalIds = getRequestedConfigurations(args);
-    final Collection<String> internalIds = getApplicableConfigurations(requestedInternalIds, tcResources, monitor, args.hasArgument(FORCE_COMPATIBILITY_CHECK_SWITCH));
+    final boolean forceCompatibilityCheck = args.hasArgument(FORCE_COMPATIBILITY_CHECK_SWITCH);
+    final Collection<String> requestedInternalIds = getRequestedConfigurations(args, forceCompatibilityCheck ? tcResources : null, monitor);
+    final Collection<String> internalIds = getApplicableConfigurations(requestedInternalIds, tcResources, monitor, forceCompatibilityCheck);
     if (internalIds.isEmpty()) {
       throw new IllegalArgumentException(String.format("No one of [%s] configurations affected by collected changes",
                                                        StringUtil.join(",", requestedInternalIds)));
     }
-    // prepare changes list
-    final long chaneListId = myServer.createChangeList(patchFile, myComment, monitor);
+    // prepare patch & changes list
+    final long chaneListId = createChangeList(tcResources, monitor);
+    if (snapshot != null) {
+      commitSnapshot(snapshot);
+    }
 
     Map<String, String> parameterMap = convertToMapAndUnescape(args.getArgValues(BUILD_PARAM_SWITCH));
 
@@ -202,33 +240,82 @@ public class RemoteRun implements ICommand {
   }
 
   /**
+   * @param files changes to check the requested configurations against, null if they are not checked
    * @return A string of joined build configuration internal IDs which should be used to start the build
    */
-  private Collection<String> getRequestedConfigurations(final Args args) throws ECommunicationException {
+  private Collection<String> getRequestedConfigurations(final Args args, @Nullable final Collection<ITCResource> files,
+                                                        final IProgressMonitor monitor) throws ECommunicationException {
 
+    myResolvedApplicable = null;
     final String projectId = args.getArgument(PROJECT_PARAM, PROJECT_PARAM_LONG);
+    final String buildTypeIds = args.getArgument(CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG);
+    if (projectId != null && StringUtil.isNotEmpty(projectId) || projectId == null && buildTypeIds != null) {
+      final List<String> resolved = resolveConfigurations(projectId, buildTypeIds, files, monitor);
+      if (resolved != null) {
+        return resolved;
+      }
+    }
+
     if (projectId != null) {
       return getBuildTypeInternalIds(projectId);
     }
 
-    final String buildTypeIds = args.getArgument(CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG);
     return convertExternalId2InternalId(buildTypeIds);
   }
 
+  /**
+   * Resolves the requested configurations by the server, the projects are not fetched then. Applicability of the changes
+   * is resolved at once and kept in {@link #myResolvedApplicable}
+   * @return internal ids or null if the server does not resolve configurations
+   */
+  @Nullable
+  private List<String> resolveConfigurations(@Nullable final String projectId,
+                                             @Nullable final String buildTypeIds,
+                                             @Nullable final Collection<ITCResource> files,
+                                             final IProgressMonitor monitor) throws IllegalArgumentException {
+    final Collection<String> ids = parseConfigurations(buildTypeIds);
+    final Collection<String> urls = files != null ? getRepositoryPaths(files, monitor) : null;
+    final List<Server.Configuration> configurations = myServer.resolveConfigurations(ids, projectId, urls);
+    if (configurations == null) {
+      return null;
+    }
+    final List<String> result = new ArrayList<String>();
+    final Set<String> resolvedIds = new HashSet<String>();
+    final Set<String> applicable = new HashSet<String>();
+    for (final Server.Configuration configuration : configurations) {
+      result.add(configuration.getInternalId());
+      resolvedIds.add(configuration.getRequestedId());
+      if (Boolean.TRUE.equals(configuration.isApplicable())) {
+        applicable.add(configuration.getInternalId());
+      }
+    }
+    if (projectId != null) {
+      if (result.isEmpty()) {
+        throw new IllegalArgumentException(String.format("Cannot find any relevant configurations for project with id [%s]", projectId));
+      }
+    } else {
+      for (final String id : ids) {
+        if (!resolvedIds.contains(id) && id.matches("bt\\d+")) {
+          result.add(id);
+        }
+      }
+      if (ids.size() > 0 && result.isEmpty()) {
+        throw new IllegalArgumentException(String.format("Cannot find any relevant configuration ids for [%s]", buildTypeIds));
+      }
+    }
+    debug("Configurations resolved by server: %s, applicable: %s", result, urls != null ? applicable : "not checked");
+    myResolvedApplicable = urls != null ? applicable : null;
+    return result;
+  }
+
   /**
    * @param projectId Could be internal or external ID
    */
   private List<String> getBuildTypeInternalIds(final String projectId) throws ECommunicationException {
-    final List<String> result = filterAndConvertCollection(myServer.getConfigurations(), new Converter<String, BuildTypeData>() {
-                                                             public String createFrom(@NotNull final BuildTypeData source) {
-                                                               return source.getId();
-                                                             }
-                                                           }, new Filter<BuildTypeData>() {
-                                                             public boolean accept(@NotNull final BuildTypeData data) {
-                                                               return projectId.equals(data.getProjectId()) || projectId.equals(data.getProjectExternalId());
-                                                             }
-                                                           }
-    );
+    final List<String> result = new ArrayList<String>();
+    for (final BuildTypeData configuration : myServer.getCatalog().getProjectConfigurations(projectId)) {
+      result.add(configuration.getId());
+    }
 
     if (result.size() == 0 && StringUtil.isNotEmpty(projectId)) {
       throw new IllegalArgumentException(String.format("Cannot find any relevant configurations for project with id [%s]", projectId));
@@ -239,11 +326,12 @@ public class RemoteRun implements ICommand {
 
   private List<String> convertExternalId2InternalId(final String buildTypeIds) throws ECommunicationException {
     final Collection<String> ids = parseConfigurations(buildTypeIds);
+    final ConfigurationCatalog catalog = ids.isEmpty() ? null : myServer.getCatalog();
     final ArrayList<String> result = new ArrayList<String>();
     for (String id : ids) {
-      final String internalId = getExternal2InternalMap().get(id);
-      if (internalId != null) {
-        result.add(internalId);
+      final BuildTypeData configuration = catalog.findConfigurationByExternalId(id);
+      if (configuration != null) {
+        result.add(configuration.getId());
       }
       else if (id.matches("bt\\d+")) {
         result.add(id);
@@ -257,37 +345,366 @@ public class RemoteRun implements ICommand {
     return result;
   }
 
-  private Map<String, String> getExternal2InternalMap() throws ECommunicationException {
-    if (myConfigExternal2InternalMap == null) {
-      myConfigExternal2InternalMap = new HashMap<String, String>();
-      for (BuildTypeData configuration : myServer.getConfigurations()) {
-        myConfigExternal2InternalMap.put(configuration.getExternalId(), configuration.getId());
+
+  /**
+   * @return snapshot of the current directory if any of the snapshot switches is set, without a base if a new one is requested
+   */
+  @Nullable
+  WorkspaceSnapshot getSnapshot(final Args args) {
+    final boolean reset = args.hasArgument(RESET_SNAPSHOT_SWITCH);
+    if (!reset && !args.hasArgument(CHANGED_SINCE_SNAPSHOT_SWITCH)) {
+      return null;
+    }
+    final WorkspaceSnapshot snapshot = WorkspaceSnapshot.load(new File("."));
+    if (reset) {
+      debug("Workspace snapshot is reset, all the files will be sent");
+      snapshot.reset();
+    }
+    return snapshot;
+  }
+
+  /**
+   * @param snapshot state of the workspace seen by the previous successful runs, null to send all the files
+   */
+  Collection<File> getChangedFiles(final WorkspaceSnapshot snapshot, final Collection<File> files, final IProgressMonitor monitor) throws IllegalArgumentException {
+    if (snapshot == null) {
+      return files;
+    }
+    if (snapshot.isEmpty()) {
+      debug("No snapshot of previous run found, all %d file(s) will be sent", files.size());
+    }
+    monitor.beginTask(getMsg("RemoteRun.changed.since.snapshot.step.name"));
+    try {
+      final Collection<File> changes = snapshot.getChanges(files, myPaths, monitor);
+      if (changes.isEmpty()) {
+        throw new IllegalArgumentException(getMsg("RemoteRun.no.changes.since.snapshot.error.message"));
       }
+      return changes;
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    } finally {
+      monitor.done();
     }
-    return myConfigExternal2InternalMap;
   }
 
+  private void commitSnapshot(final WorkspaceSnapshot snapshot) {
+    try {
+      snapshot.commit();
+    } catch (IOException e) {
+      // the change list is already on the server: next run will just send more files than needed
+      Debug.getInstance().error(RemoteRun.class, "Could not save workspace snapshot", e);
+    }
+  }
 
   Collection<ITCResource> getTCResources(final TCWorkspace workspace, final Collection<File> files, final IProgressMonitor monitor) throws IllegalArgumentException {
     monitor.beginTask(getMsg("RemoteRun.mapping.step.name"));
-    final HashSet<ITCResource> out = new HashSet<ITCResource>(files.size());
-    for (final File file : files) {
-      final ITCResource resource = workspace.getTCResource(file);
-      if (resource != null && resource.getRepositoryPath() != null) {
-        out.add(resource);
-      } else {
-        debug("? \"%s\" has not associated ITCResource(%s) or empty RepositoryPath(%s)", file, resource, resource != null ? resource.getRepositoryPath() : null);
+    final long startTime = System.currentTimeMillis();
+    final List<ITCResource> out = workspace.getTCResources(files);
+    // patch entries go in a stable order, so the same changes make the same patch
+    Collections.sort(out, new Comparator<ITCResource>() {
+      public int compare(final ITCResource o1, final ITCResource o2) {
+        return o1.getRepositoryPath().compareTo(o2.getRepositoryPath());
       }
-    }
+    });
+    final long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
     // fire exception if nothing found
     if (out.isEmpty()) {
       throw new IllegalArgumentException(String.format(getMsg("RemoteRun.no.one.mappings.found.error.message"), files.size()));
     }
     monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format(getMsg("RemoteRun.mapping.step.done.message"), out.size(), files.size())));
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format(getMsg("RemoteRun.mapping.step.rate.message"), files.size(), elapsed, files.size() * 1000L / elapsed)));
     monitor.done(); 
     return out;
   }
 
+  /**
+   * The patch is streamed to the server while it is built unless streaming is switched off, the patch file
+   * is kept for debugging or the server needs the patch length upfront. A patch which is not streamed
+   * is kept in memory up to a threshold. Contents the server already has are not sent again and text files
+   * the server has a previous content of are sent as deltas if the server supports it.
+   * If the same changes have been sent with the same comment before, their change list is reused while it exists
+   */
+  long createChangeList(final Collection<ITCResource> resources, final IProgressMonitor monitor) throws ECommunicationException {
+    final Map<File, String> contentHashes = new HashMap<File, String>();
+    final String patchKey = !myCleanoff && !"false".equalsIgnoreCase(System.getProperty(Constants.REUSE_CHANGE_LIST_SYSTEM_PROPERTY)) //$NON-NLS-1$
+                            ? getPatchKey(resources) : null;
+    if (patchKey != null) {
+      final ChangeListIndex.Entry reused = getReusableChangeList(resources, patchKey);
+      if (reused != null) {
+        monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("Same changes were sent as Change %d, reusing it", reused.getChangeListId())));
+        myChangeListIndex.put(myServer.getURL(), patchKey, reused.getChangeListId(), reused.getContentKey());
+        return reused.getChangeListId();
+      }
+    }
+    final long changeListId = isChunkedUpload(resources) ? sendChunked(resources, patchKey, contentHashes, monitor) : sendPatch(resources, contentHashes, monitor);
+    if (patchKey != null) {
+      final String contentKey = getContentKey(resources, contentHashes);
+      if (contentKey != null) {
+        myChangeListIndex.put(myServer.getURL(), patchKey, changeListId, contentKey);
+      }
+    }
+    return changeListId;
+  }
+
+  /**
+   * @return key of the changes computed from sizes and timestamps of the files
+   */
+  private String getPatchKey(final Collection<ITCResource> resources) {
+    final Map<String, String> entries = new HashMap<String, String>();
+    for (final ITCResource resource : resources) {
+      final PathInfo local = myPaths.get(resource.getLocal());
+      entries.put(resource.getRepositoryPath(), local.exists() ? local.length() + ":" + local.lastModified() : null); //$NON-NLS-1$
+    }
+    return ChangeListIndex.getPatchKey(myComment != null ? myComment : "", entries);
+  }
+
+  /**
+   * @param knownHashes content hashes of files written into the patch, other files are hashed
+   * @return key of the changes computed from content hashes of the files or null if a file could not be read
+   */
+  @Nullable
+  private String getContentKey(final Collection<ITCResource> resources, final Map<File, String> knownHashes) {
+    final Map<String, String> entries = new HashMap<String, String>();
+    try {
+      for (final ITCResource resource : resources) {
+        final PathInfo local = myPaths.get(resource.getLocal());
+        final String known = knownHashes.get(resource.getLocal());
+        entries.put(resource.getRepositoryPath(), known != null ? known : local.exists() ? BlobPatchWriter.hash(local.getFile()) : null);
+      }
+    } catch (IOException e) {
+      Debug.getInstance().error(RemoteRun.class, "Could not hash file contents", e);
+      return null;
+    }
+    return ChangeListIndex.getPatchKey(myComment != null ? myComment : "", entries);
+  }
+
+  /**
+   * Contents are hashed only if changes with the same file stamps were sent before
+   * @return entry of the change list created for the same contents before if it is still among personal changes of the user
+   */
+  @Nullable
+  private ChangeListIndex.Entry getReusableChangeList(final Collection<ITCResource> resources, final String patchKey) {
+    final ChangeListIndex.Entry entry = myChangeListIndex.get(myServer.getURL(), patchKey);
+    if (entry == null) {
+      return null;
+    }
+    final long changeListId = entry.getChangeListId();
+    if (!entry.getContentKey().equals(getContentKey(resources, Collections.<File, String>emptyMap()))) {
+      debug("Contents differ from the ones sent as Change %d, sending the patch", changeListId);
+      myChangeListIndex.remove(myServer.getURL(), patchKey);
+      return null;
+    }
+    final List<UserChangeInfoData> personalChanges = getPersonalChanges();
+    if (personalChanges == null) {
+      return null;
+    }
+    for (final UserChangeInfoData data : personalChanges) {
+      if (data.getPersonalDesc() != null && data.getPersonalDesc().getId() == changeListId) {
+        return entry;
+      }
+    }
+    debug("Change %d is not found on the server, sending the patch", changeListId);
+    myChangeListIndex.remove(myServer.getURL(), patchKey);
+    return null;
+  }
+
+  /**
+   * Big patches go in resumable chunks unless the patch file is kept for debugging
+   */
+  private boolean isChunkedUpload(final Collection<ITCResource> resources) {
+    if (myCleanoff) {
+      return false;
+    }
+    long threshold = DEFAULT_CHUNKED_UPLOAD_THRESHOLD;
+    final String thresholdValue = System.getProperty(Constants.CHUNKED_UPLOAD_THRESHOLD_SYSTEM_PROPERTY);
+    if (thresholdValue != null) {
+      try {
+        threshold = Long.parseLong(thresholdValue.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(RemoteRun.class, "Could not parse chunked upload threshold", e);
+      }
+    }
+    long size = 0;
+    for (final ITCResource resource : resources) {
+      final PathInfo local = myPaths.get(resource.getLocal());
+      size += local.isFile() ? local.length() : 0;
+    }
+    return size >= threshold && myServer.getMaxChunkSize() > 0;
+  }
+
+  /**
+   * Uploads the patch in chunks. An upload interrupted in an earlier run of the same changes is resumed with its patch
+   * @param patchKey identifies the changes, null if they are not keyed: an interrupted upload is resumed by the server then
+   * @param contentHashes filled with content hashes of the files written into the patch
+   */
+  private long sendChunked(final Collection<ITCResource> resources, @Nullable final String patchKey, final Map<File, String> contentHashes,
+                           final IProgressMonitor monitor) throws ECommunicationException {
+    final File folder = UploadSession.getFolder();
+    UploadSession session = patchKey != null ? UploadSession.load(folder, myServer.getURL(), patchKey) : null;
+    try {
+      if (session == null) {
+        final File patchFile = UploadSession.createPatchFile(folder);
+        try {
+          writePatch(new PatchOutputStream(patchFile), resources, null, contentHashes, monitor);
+          final int chunkSize = Math.min(UploadSession.DEFAULT_CHUNK_SIZE, myServer.getMaxChunkSize());
+          session = UploadSession.create(folder, myServer.getURL(), patchKey != null ? patchKey : BlobPatchWriter.hash(patchFile), patchFile, chunkSize);
+        } finally {
+          if (session == null) {
+            // a partly written patch may be large and would stay until the stale sessions are swept
+            FileUtil.delete(patchFile);
+          }
+        }
+        debug("Patch %s filled with %d bytes", session.getPatchFile(), session.getLength());
+      } else {
+        monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("Resuming upload of the %d byte patch", session.getLength())));
+      }
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    }
+    try {
+      final long changeListId = myServer.createChangeList(session, myComment, monitor);
+      session.delete();
+      return changeListId;
+    } catch (ECommunicationException e) {
+      throw new ECommunicationException(String.format("Patch upload interrupted, run the same command again to resume it: %s", e.getMessage()), e);
+    }
+  }
+
+  /**
+   * @param contentHashes known content hashes of existing files, filled with content hashes of the files written into the patch
+   */
+  private long sendPatch(final Collection<ITCResource> resources, final Map<File, String> contentHashes, final IProgressMonitor monitor) throws ECommunicationException {
+    if (!myCleanoff && !"false".equalsIgnoreCase(System.getProperty(Constants.STREAM_PATCH_SYSTEM_PROPERTY))) { //$NON-NLS-1$
+      final BlobPlan plan = getBlobPlan(resources, contentHashes, monitor);
+      if (plan != null) {
+        final Long changeListId = myServer.createChangeListWithBlobs(new Server.IPatchWriter() {
+          public void write(@NotNull final OutputStream out) throws IOException {
+            writePatch(new PatchOutputStream(out), resources, plan, contentHashes, monitor);
+          }
+        }, myComment, monitor);
+        if (changeListId != null) {
+          updateBases(plan);
+          return changeListId;
+        }
+        debug("Server could not resolve known contents, sending full patch");
+      }
+      final Long changeListId = myServer.createChangeList(new Server.IPatchWriter() {
+        public void write(@NotNull final OutputStream out) throws IOException {
+          writePatch(new PatchOutputStream(out), resources, null, contentHashes, monitor);
+        }
+      }, myComment, monitor);
+      if (changeListId != null) {
+        return changeListId;
+      }
+      debug("Server needs the patch length, sending buffered patch");
+    }
+    if (myCleanoff) {
+      return myServer.createChangeList(createPatch(resources, monitor), myComment, monitor);
+    }
+    final PatchBuffer patch = new PatchBuffer();
+    try {
+      writePatch(new PatchOutputStream(patch), resources, null, contentHashes, monitor);
+      debug("Patch filled with %d bytes%s", patch.length(), patch.getSpillFile() != null ? " in " + patch.getSpillFile() : "");
+      return myServer.createChangeList(patch, myComment, monitor);
+    } catch (IOException e) {
+      throw new ECommunicationException(e);
+    } finally {
+      patch.dispose();
+    }
+  }
+
+  /**
+   * Hashes contents big enough to be kept by the server and asks the server which of them and of their bases it has got
+   * @return null if there is nothing to negotiate or the server does not keep contents
+   */
+  @Nullable
+  private BlobPlan getBlobPlan(final Collection<ITCResource> resources, final Map<File, String> contentHashes, final IProgressMonitor monitor) {
+    if (!myServer.isBlobUploadSupported()) {
+      return null;
+    }
+    final BaseContentCache baseCache = new BaseContentCache(myServer.getURL());
+    final Map<File, String> hashes = new HashMap<File, String>();
+    final Map<File, BaseContentCache.Base> bases = new HashMap<File, BaseContentCache.Base>();
+    try {
+      for (final ITCResource resource : resources) {
+        final PathInfo local = myPaths.get(resource.getLocal());
+        if (local.isFile() && local.length() >= BlobPatchWriter.MIN_BLOB_SIZE) {
+          final String known = contentHashes.get(resource.getLocal());
+          final String hash = known != null ? known : BlobPatchWriter.hash(local.getFile());
+          hashes.put(resource.getLocal(), hash);
+          final BaseContentCache.Base base = local.length() <= BaseContentCache.MAX_BASE_SIZE ? baseCache.get(resource.getLocal()) : null;
+          if (base != null && !base.getHash().equals(hash)) {
+            bases.put(resource.getLocal(), base);
+          }
+        }
+      }
+    } catch (IOException e) {
+      Debug.getInstance().error(RemoteRun.class, "Could not hash file contents", e);
+      return null;
+    }
+    if (hashes.isEmpty()) {
+      return null;
+    }
+    final Set<String> negotiated = new HashSet<String>(hashes.values());
+    for (final BaseContentCache.Base base : bases.values()) {
+      negotiated.add(base.getHash());
+    }
+    final Set<String> missing = myServer.getMissingBlobs(negotiated);
+    if (missing == null) {
+      return null;
+    }
+    final BlobPlan plan = new BlobPlan(baseCache, hashes.keySet());
+    for (final Map.Entry<File, String> entry : hashes.entrySet()) {
+      final BaseContentCache.Base base = bases.get(entry.getKey());
+      if (!missing.contains(entry.getValue())) {
+        plan.myReferences.put(entry.getKey(), entry.getValue());
+      } else if (base != null && !missing.contains(base.getHash())) {
+        plan.myBases.put(entry.getKey(), base);
+      }
+    }
+    monitor.status(new ProgressStatus(IProgressStatus.INFO, String.format("%d of %d large file(s) known to the server, %d to be sent as delta",
+                                                                          plan.myReferences.size(), hashes.size(), plan.myBases.size())));
+    return plan;
+  }
+
+  /**
+   * Sent text contents become bases of the next deltas, the least recently used bases are evicted
+   */
+  private void updateBases(final BlobPlan plan) {
+    for (final File file : plan.mySent) {
+      try {
+        plan.myBaseCache.update(file);
+      } catch (IOException e) {
+        Debug.getInstance().error(RemoteRun.class, String.format("Could not keep base of %s", file), e);
+      }
+    }
+    long maxSize = Constants.DEFAULT_BASES_CACHE_SIZE;
+    final String maxSizeValue = System.getProperty(Constants.BASES_CACHE_SIZE_SYSTEM_PROPERTY);
+    if (maxSizeValue != null) {
+      try {
+        maxSize = Long.parseLong(maxSizeValue.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(RemoteRun.class, "Could not parse bases cache size", e);
+      }
+    }
+    plan.myBaseCache.evict(maxSize);
+  }
+
+  /**
+   * Contents the server has got and bases of text files the server has got
+   */
+  private static class BlobPlan {
+    private final BaseContentCache myBaseCache;
+    private final Collection<File> mySent;
+    private final Map<File, String> myReferences = new HashMap<File, String>();
+    private final Map<File, BaseContentCache.Base> myBases = new HashMap<File, BaseContentCache.Base>();
+
+    BlobPlan(@NotNull final BaseContentCache baseCache, @NotNull final Collection<File> sent) {
+      myBaseCache = baseCache;
+      mySent = sent;
+    }
+  }
+
   File createPatch(Collection<ITCResource> resources, IProgressMonitor monitor) throws ECommunicationException {
     try {
       final File emptyPatchFile = createPatchFile();
@@ -303,9 +720,18 @@ public class RemoteRun implements ICommand {
     }
   }
 
+  /**
+   * Mappings synced with "mapping sync" are checked against the server settings stamp, so they are downloaded again only if changed
+   */
+  private Map<File, ITCResourceMatcher> getSyncedMatchers() {
+    final MappingCache cache = new MappingCache();
+    cache.refresh(myServer);
+    return cache.getMatchers(myServer.getURL(), myPaths);
+  }
+
   ITCResourceMatcher getOverridingMatcher(final Args args) {
     if (args.hasArgument(OVERRIDING_MAPPING_FILE_PARAM)) {
-      return new FileBasedMatcher(new File(args.getArgument(OVERRIDING_MAPPING_FILE_PARAM)));
+      return new FileBasedMatcher(new File(args.getArgument(OVERRIDING_MAPPING_FILE_PARAM)), myPaths);
 
     }
     return null;
@@ -325,11 +751,12 @@ public class RemoteRun implements ICommand {
 
         if (forceCompatibilityCheck) {
           // make intersection of passed and applicable
+          // the server resolving configurations checks their own mappings only, the rest is left to the full check
+          final List<String> unconfirmed = getUnconfirmed(intersection, myResolvedApplicable);
+          final Collection<String> applicable = unconfirmed.isEmpty() ? Collections.<String>emptySet() : collectApplicableConfigurations(monitor, files);
+          debug("Applicable by own mappings: %s, by the full check: %s", myResolvedApplicable, unconfirmed.isEmpty() ? "not needed" : applicable);
 
-          final Collection<String> applicable = collectApplicableConfigurations(monitor, files);
-          debug("Comparing with applicable configurations: %s", applicable);
-
-          intersection.retainAll(applicable);
+          intersection = mergeApplicable(intersection, myResolvedApplicable, applicable);
           debug("Use configurations for running: %s", intersection);
         }
 
@@ -348,19 +775,75 @@ public class RemoteRun implements ICommand {
     }
   }
 
+  /**
+   * @param resolvedApplicable configurations the server found applicable by their own mappings, null if not resolved
+   * @return requested configurations the server has not found applicable by their own mappings, they need the full check
+   */
   @NotNull
-  private Collection<String> collectApplicableConfigurations(final IProgressMonitor monitor, final Collection<ITCResource> files) throws ECommunicationException {
+  static List<String> getUnconfirmed(@NotNull final Collection<String> requested, @Nullable final Collection<String> resolvedApplicable) {
+    final List<String> result = new ArrayList<String>(requested);
+    if (resolvedApplicable != null) {
+      result.removeAll(resolvedApplicable);
+    }
+    return result;
+  }
 
-    final HashSet<String> urls = new HashSet<String>();
-    for (ITCResource file : files) {
-      urls.add(file.getRepositoryPath());
+  /**
+   * @param resolvedApplicable configurations the server found applicable by their own mappings, null if not resolved
+   * @param checkedApplicable configurations found applicable by the full check of the {@link #getUnconfirmed unconfirmed} ones
+   * @return requested configurations applicable by either, in the requested order
+   */
+  @NotNull
+  static List<String> mergeApplicable(@NotNull final Collection<String> requested, @Nullable final Collection<String> resolvedApplicable,
+                                      @NotNull final Collection<String> checkedApplicable) {
+    final List<String> result = new ArrayList<String>();
+    for (final String id : requested) {
+      if (resolvedApplicable != null && resolvedApplicable.contains(id) || checkedApplicable.contains(id)) {
+        result.add(id);
+      }
     }
+    return result;
+  }
 
-    final Set<String> buffer = new TreeSet<String>(myServer.getApplicableConfigurations(urls));
+  @NotNull
+  private Collection<String> collectApplicableConfigurations(final IProgressMonitor monitor, final Collection<ITCResource> files) throws ECommunicationException {
+
+    final Set<String> buffer = new TreeSet<String>(myServer.getApplicableConfigurations(getRepositoryPaths(files, monitor)));
     monitor.status(new ProgressStatus(IProgressStatus.INFO, format(getMsg("RemoteRun.collected.configuration.done.pattern"), buffer.size(), buffer)));
     return buffer;
   }
 
+  /**
+   * Paths are computed once per run. If there are more of them than the limit, they are compacted, see {@link RepositoryPaths#compact},
+   * and the user is warned that some applicable configurations may be missed
+   * @return repository paths of the files
+   */
+  @NotNull
+  private Collection<String> getRepositoryPaths(@NotNull final Collection<ITCResource> files, final IProgressMonitor monitor) {
+    if (myRepositoryPaths != null) {
+      return myRepositoryPaths;
+    }
+    int maxPaths = DEFAULT_MAX_APPLICABILITY_PATHS;
+    final String maxPathsValue = System.getProperty(Constants.MAX_APPLICABILITY_PATHS_SYSTEM_PROPERTY);
+    if (maxPathsValue != null) {
+      try {
+        maxPaths = Integer.parseInt(maxPathsValue.trim());
+      } catch (NumberFormatException e) {
+        Debug.getInstance().error(RemoteRun.class, "Could not parse maximum number of repository paths", e);
+      }
+    }
+    final Map<String, String> urls = new HashMap<String, String>();
+    for (ITCResource file : files) {
+      urls.put(file.getRepositoryPath(), file.getRepositoryRoot());
+    }
+    myRepositoryPaths = RepositoryPaths.compact(urls, maxPaths);
+    if (myRepositoryPaths.size() < urls.size()) {
+      monitor.status(new ProgressStatus(IProgressStatus.WARNING, String.format(getMsg("RemoteRun.repository.paths.compacted.warning"),
+                                                                              urls.size(), myRepositoryPaths.size(), Constants.MAX_APPLICABILITY_PATHS_SYSTEM_PROPERTY)));
+    }
+    return myRepositoryPaths;
+  }
+
   static Collection<String> parseConfigurations(final String cfgId) {
     if (cfgId == null) {
       return Collections.emptyList();
@@ -556,41 +1039,105 @@ public class RemoteRun implements ICommand {
   }
 
   private File fillPatch(final File patchFile, final Collection<ITCResource> resources, final IProgressMonitor monitor) throws IOException {
-    DataOutputStream os = null;
+    writePatch(new PatchOutputStream(patchFile), resources, monitor);
+    return patchFile;
+  }
+
+  /**
+   * writes the patch and closes the stream
+   */
+  private void writePatch(final PatchOutputStream os, final Collection<ITCResource> resources, final IProgressMonitor monitor) throws IOException {
+    writePatch(os, resources, null, null, monitor);
+  }
+
+  /**
+   * @param plan contents and bases the server has got. If not null the patch is written
+   *             with {@link BlobPatchWriter} and contents big enough are kept by the server
+   * @param contentHashes if not null, filled with content hashes of the files as they are written
+   */
+  private void writePatch(final PatchOutputStream os, final Collection<ITCResource> resources, @Nullable final BlobPlan plan,
+                          @Nullable final Map<File, String> contentHashes, final IProgressMonitor monitor) throws IOException {
     LowLevelPatchBuilderImpl patcher = null;
+    BlobPatchWriter blobPatcher = null;
+    PatchPrefetcher prefetcher = null;
     final HashSet<String> modifiedResources = new HashSet<String>();
     final HashSet<String> deletedResources = new HashSet<String>();
     try {
       monitor.beginTask("Preparing patch");
-      os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(patchFile)));
-      patcher = new LowLevelPatchBuilderImpl(os);
+      final List<PathInfo> locals = new ArrayList<PathInfo>(resources.size());
+      final List<PathInfo> prefetched = new ArrayList<PathInfo>(resources.size());
+      for (final ITCResource resource : resources) {
+        final PathInfo local = myPaths.get(resource.getLocal());
+        locals.add(local);
+        // referenced contents are not sent, deltas are computed from whole contents
+        prefetched.add(plan != null && (plan.myReferences.containsKey(resource.getLocal()) || plan.myBases.containsKey(resource.getLocal())) ? null : local);
+      }
+      // files are read ahead in parallel, the patch is written sequentially in the same order
+      prefetcher = new PatchPrefetcher(prefetched);
+      if (plan != null) {
+        blobPatcher = new BlobPatchWriter(os);
+      } else {
+        patcher = new LowLevelPatchBuilderImpl(os);
+      }
+      int index = 0;
       for (final ITCResource resource : resources) {
         // threat file which is not exist as deleted
-        if (resource.getLocal().exists()) {
+        final PathInfo local = locals.get(index);
+        final String hash = plan != null ? plan.myReferences.get(resource.getLocal()) : null;
+        final BaseContentCache.Base base = plan != null ? plan.myBases.get(resource.getLocal()) : null;
+        if (local.exists() && hash != null) {
+          debug("= %s", resource.getRepositoryPath());
+          blobPatcher.changeBinary(resource.getRepositoryPath(), local.length(), hash);
+          if (contentHashes != null) {
+            contentHashes.put(resource.getLocal(), hash);
+          }
+          modifiedResources.add(resource.getLocal().getPath());
+
+        } else if (local.exists() && base != null) {
+          final String written = writeDelta(blobPatcher, resource.getRepositoryPath(), local, base);
+          if (contentHashes != null) {
+            contentHashes.put(resource.getLocal(), written);
+          }
+          modifiedResources.add(resource.getLocal().getPath());
+
+        } else if (local.exists()) {
           debug("+ %s", resource.getRepositoryPath());
-          final LowLevelPatchBuilder.WriteFileContent content = new PatchBuilderImpl.StreamWriteFileContent(new BufferedInputStream(new FileInputStream(resource.getLocal())), resource.getLocal().length());
-          patcher.changeBinary(resource.getRepositoryPath(), (int) resource.getLocal().length(), content, false);
+          final LowLevelPatchBuilder.WriteFileContent content = hashed(prefetcher.getContent(index), resource.getLocal(), contentHashes);
+          if (blobPatcher != null) {
+            blobPatcher.changeBinary(resource.getRepositoryPath(), local.length(), content);
+          } else {
+            patcher.changeBinary(resource.getRepositoryPath(), local.length(), content, false);
+          }
           modifiedResources.add(resource.getLocal().getPath());
 
         } else {
           debug("- %s", resource.getRepositoryPath());
-          patcher.delete(resource.getRepositoryPath(), true, false);
+          if (blobPatcher != null) {
+            blobPatcher.delete(resource.getRepositoryPath());
+          } else {
+            patcher.delete(resource.getRepositoryPath(), true, false);
+          }
           deletedResources.add(resource.getLocal().getPath());
 
         }
+        index++;
       }
 
     } finally {// finalize patching
+      if (prefetcher != null) {
+        prefetcher.close();
+      }
       if (patcher != null) {
         patcher.exit(""); 
         patcher.close();
       }
-      if (os != null) {
-        try {
-          os.close();
-        } catch (IOException e) {
-          //
-        }
+      if (blobPatcher != null) {
+        blobPatcher.close();
+      }
+      try {
+        os.close();
+      } catch (IOException e) {
+        //
       }
       final StringBuilder patchingResult = new StringBuilder();
       if (!modifiedResources.isEmpty()) {
@@ -605,8 +1152,56 @@ public class RemoteRun implements ICommand {
       monitor.status(new ProgressStatus(IProgressStatus.INFO, patchingResult.toString())); 
       monitor.done();
     }
-    return patchFile;
+  }
+
+  /**
+   * @param contentHashes if not null, gets the hash of the content once it is written
+   */
+  private static LowLevelPatchBuilder.WriteFileContent hashed(final LowLevelPatchBuilder.WriteFileContent content, final File file,
+                                                              @Nullable final Map<File, String> contentHashes) {
+    if (contentHashes == null) {
+      return content;
+    }
+    return new LowLevelPatchBuilder.WriteFileContent() {
+      public void writeTo(final OutputStream os) throws IOException {
+        final MessageDigest digest = BlobPatchWriter.createDigest();
+        // the patch stream is not closed by the digest one
+        content.writeTo(new DigestOutputStream(os, digest));
+        contentHashes.put(file, BlobPatchWriter.toHex(digest.digest()));
+      }
+    };
+  }
+
+  /**
+   * Writes a delta against the base or the whole content if the delta is not worth it
+   * @return {@link BlobPatchWriter#hash(File)} of the written content
+   */
+  private String writeDelta(final BlobPatchWriter blobPatcher, final String repositoryPath, final PathInfo local, final BaseContentCache.Base base) throws IOException {
+    final byte[] content = readFully(local);
+    final byte[] delta = BaseContentCache.isText(content) ? DeltaEncoder.encode(Files.readAllBytes(base.getContent().toPath()), content) : null;
+    if (delta != null) {
+      debug("~ %s (%d bytes of %d)", repositoryPath, delta.length, content.length);
+      blobPatcher.changeDelta(repositoryPath, content.length, base.getHash(), delta);
+    } else {
+      debug("+ %s", repositoryPath);
+      blobPatcher.changeBinary(repositoryPath, content.length, new LowLevelPatchBuilder.WriteFileContent() {
+        public void writeTo(final OutputStream os) throws IOException {
+          os.write(content);
+        }
+      });
+    }
+    return BlobPatchWriter.toHex(BlobPatchWriter.createDigest().digest(content));
+  }
 
+  /**
+   * @return exactly {@link PathInfo#length()} bytes, the length the patch entry is written with
+   */
+  private static byte[] readFully(final PathInfo local) throws IOException {
+    final byte[] content = new byte[(int) local.length()];
+    try (DataInputStream in = new DataInputStream(new FileInputStream(local.getFile()))) {
+      in.readFully(content);
+    }
+    return content;
   }
 
   private static File createPatchFile() throws IOException {
@@ -619,7 +1214,7 @@ public class RemoteRun implements ICommand {
     int i = 0;// skip command
     while (i < elements.length) {
       final String currentToken = elements[i].toLowerCase();
-      if (elements[i].startsWith("-")) { 
+      if (elements[i].startsWith("-") && !elements[i].equals(STDIN_PATH)) { 
         if (elements[i].toLowerCase().equals(CONFIGURATION_PARAM) || elements[i].toLowerCase().equals(CONFIGURATION_PARAM_LONG)) {
           i++; // arg
           if (elements[i].toLowerCase().equals(PROJECT_PARAM) || elements[i].toLowerCase().equals(PROJECT_PARAM_LONG)) {
@@ -627,7 +1222,9 @@ public class RemoteRun implements ICommand {
           }
           i++; // arg value
         }
-        else if (elements[i].toLowerCase().equals(NO_WAIT_SWITCH) || currentToken.equals(NO_WAIT_SWITCH_LONG) || currentToken.equals(CHECK_FOR_CHANGES_EARLY_SWITCH)) {
+        else if (elements[i].toLowerCase().equals(NO_WAIT_SWITCH) || currentToken.equals(NO_WAIT_SWITCH_LONG) || currentToken.equals(CHECK_FOR_CHANGES_EARLY_SWITCH)
+                 || currentToken.equals(CHANGED_SINCE_SNAPSHOT_SWITCH) || currentToken.equals(RESET_SNAPSHOT_SWITCH) || currentToken.equals(NULL_SEPARATED_SWITCH) || currentToken.equals(NULL_SEPARATED_SWITCH_LONG)
+                 || currentToken.equals(STDIN_SWITCH_LONG)) {
           i++; // single token
         }
         else {
@@ -642,24 +1239,26 @@ public class RemoteRun implements ICommand {
 
     Collection<File> result;
 
-    if (elements.length > i) {// file's part existing
+    final boolean nullSeparated = args.hasArgument(NULL_SEPARATED_SWITCH, NULL_SEPARATED_SWITCH_LONG);
+    final boolean stdinRequested = nullSeparated || args.hasArgument(STDIN_SWITCH_LONG) || (elements.length == i + 1 && elements[i].equals(STDIN_PATH));
+    if (elements.length > i && !stdinRequested) {// file's part existing
       final String[] buffer = new String[elements.length - i];
       System.arraycopy(elements, i, buffer, 0, buffer.length);
       debug("Read from arguments: %s", Arrays.toString(buffer));
-      result = collectFiles(buffer);
-    } else {
-      // try read from stdin
-      debug("Trying stdin...");
-      final String input = readFromStream(System.in);
-      if (input != null && input.trim().length() > 0) {
-        final String[] buffer = input.split("[\n\r]");
-        debug("Read from stdin: %s", Arrays.toString(buffer));
-        result = collectFiles(buffer);
-
-      } else { // let's use current directory as root if nothing passed
-        debug("Stdin is empty. Will use current (%s) folder as root", new File("."));
-        result = TCC_FILTER.accept(Util.SVN_FILES_FILTER.accept(Util.CVS_FILES_FILTER.accept(Util.getFiles("."))));
+      result = collectFiles(buffer, monitor);
+    } else if (stdinRequested || hasPendingInput()) {
+      // paths are collected as they arrive. Without an explicit request stdin is read only if some input is already there:
+      // an open but idle stdin (a terminal with redirected stdout, ssh, wrappers) must not block the run
+      debug("Reading stdin...");
+      result = collectFiles(new PathListReader(System.in, nullSeparated), monitor);
+      debug("Read %d file(s) from stdin", result.size());
+      if (result.isEmpty() && !stdinRequested) {
+        debug("No file names in stdin. Will use current (%s) folder as root", new File("."));
+        result = Util.getFiles(".", myFilter, myPaths, monitor);
       }
+    } else { // let's use current directory as root if nothing passed
+      debug("No file names passed. Will use current (%s) folder as root", new File("."));
+      result = Util.getFiles(".", myFilter, myPaths, monitor);
     }
     if (result.size() == 0) {
       throw new IllegalArgumentException(getMsg("RemoteRun.no.files.collected.for.remoterun.error.message"));
@@ -688,35 +1287,33 @@ public class RemoteRun implements ICommand {
     return out;
   }
 
-  private Collection<File> collectFiles(final String[] elements) {
+  private Collection<File> collectFiles(final String[] elements, final IProgressMonitor monitor) {
+    return collectFiles(Arrays.asList(elements), monitor);
+  }
+
+  private Collection<File> collectFiles(final Iterable<String> elements, final IProgressMonitor monitor) {
     final HashSet<File> out = new HashSet<File>();
     for (final String path : elements) {
-      final Collection<File> files;
+      // system files are filtered out while collecting
       if (!path.startsWith("@")) { 
-        files = Util.getFiles(path);
+        out.addAll(Util.getFiles(path, myFilter, myPaths, monitor));
       } else {
-        files = Util.getFiles(new File(path.substring(1)));
+        out.addAll(Util.getFiles(new File(path.substring(1)), myFilter, myPaths, monitor));
       }
-      // filter out system files
-      out.addAll(TCC_FILTER.accept(Util.SVN_FILES_FILTER.accept(Util.CVS_FILES_FILTER.accept(files))));
     }
     return out;
   }
 
-  String readFromStream(final InputStream stream) {
-    final StringBuilder buffer = new StringBuilder();
-    final InputStreamReader in = new InputStreamReader(new BufferedInputStream(stream));
+  /**
+   * @return true if stdin has input which can be read without blocking
+   */
+  private static boolean hasPendingInput() {
     try {
-      if (stream.available() != 0) {
-        int n;
-        while ((n = in.read()) != -1) {
-          buffer.append((char) n);
-        }
-      }
+      return System.in.available() > 0;
     } catch (IOException e) {
-      Debug.getInstance().error(RemoteRun.class, e.getMessage(), e);
+      Debug.getInstance().debug(RemoteRun.class, String.format("Could not check stdin: %s", e.getMessage()));
+      return false;
     }
-    return buffer.toString();
   }
 
   public String getId() {
@@ -732,7 +1329,8 @@ public class RemoteRun implements ICommand {
       getMsg("RemoteRun.help.usage.pattern"),
         getCommandDescription(), getId(), CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG, CONFIGURATION_PARAM, CONFIGURATION_PARAM_LONG,
         PROJECT_PARAM, PROJECT_PARAM_LONG, MESSAGE_PARAM, MESSAGE_PARAM_LONG, TIMEOUT_PARAM, TIMEOUT_PARAM_LONG, OVERRIDING_MAPPING_FILE_PARAM,
-        NO_WAIT_SWITCH, NO_WAIT_SWITCH_LONG, CHECK_FOR_CHANGES_EARLY_SWITCH, FORCE_COMPATIBILITY_CHECK_SWITCH, FORCE_CLEAN_SWITCH, REBUILD_DEPS_SWITCH, BUILD_PARAM_SWITCH
+        NO_WAIT_SWITCH, NO_WAIT_SWITCH_LONG, CHECK_FOR_CHANGES_EARLY_SWITCH, FORCE_COMPATIBILITY_CHECK_SWITCH, FORCE_CLEAN_SWITCH, REBUILD_DEPS_SWITCH, BUILD_PARAM_SWITCH,
+        CHANGED_SINCE_SNAPSHOT_SWITCH, RESET_SNAPSHOT_SWITCH, NULL_SEPARATED_SWITCH, NULL_SEPARATED_SWITCH_LONG, STDIN_SWITCH_LONG, STDIN_PATH
     );
   }
 
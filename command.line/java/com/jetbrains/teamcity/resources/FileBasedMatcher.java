@@ -15,6 +15,7 @@
  */
 package com.jetbrains.teamcity.resources;
 
+import com.jetbrains.teamcity.PathInfoCache;
 import com.jetbrains.teamcity.Util;
 import java.io.File;
 import java.io.IOException;
@@ -29,14 +30,13 @@ public class FileBasedMatcher implements ITCResourceMatcher {
 
   private static final String FIELD_DEVIDER = "=";
 
-  private static final Comparator<String> PATH_SORTER = new Comparator<String>() {
-    public int compare(final String key0, final String key1) {
-      return key1.toLowerCase().compareTo(key0.toLowerCase());
-    }
-  };
+  private static final char SEPARATOR = '/';
+
+  private static final String COMMENT = "#";
 
   private final File myFile;
-  private final TreeMap<String, String> myRulesMap = new TreeMap<String, String>(PATH_SORTER);
+  private final PathInfoCache myPaths;
+  private final RuleNode myRules = new RuleNode();
 
   public static FileBasedMatcher create(final File rootFolder, final Map<File, String> localToRepo) throws IllegalArgumentException {
     // check arguments
@@ -79,6 +79,14 @@ public class FileBasedMatcher implements ITCResourceMatcher {
   }
 
   public FileBasedMatcher(final File file) {
+    this(file, new PathInfoCache());
+  }
+
+  /**
+   * @param paths per-run cache of file attributes, used to canonicalize matched files
+   */
+  public FileBasedMatcher(final File file, final PathInfoCache paths) {
+    myPaths = paths;
     if (file == null || !file.exists()) {
       throw new IllegalArgumentException(MessageFormat.format("File is null or not extists: \"{0}\"", file));
     }
@@ -91,6 +99,9 @@ public class FileBasedMatcher implements ITCResourceMatcher {
       }
       // will build ordered by full path map for next local files mapping
       for (final String item : items) {
+        if (item.trim().length() == 0 || item.startsWith(COMMENT)) {
+          continue;
+        }
         final String[] columns = item.trim().split(FIELD_DEVIDER);
         if (columns.length < 2) {
           throw new IllegalArgumentException(MessageFormat.format("\"{0}\" format is wrong", myFile));
@@ -108,32 +119,107 @@ public class FileBasedMatcher implements ITCResourceMatcher {
         if (!ruleContainer.isAbsolute()) {
           ruleContainer = new File(myFile.getParentFile().getAbsoluteFile(), path);
         }
-        myRulesMap.put(Util.toPortableString(ruleContainer.getCanonicalFile().getAbsolutePath()), tcid);
+        addRule(Util.toPortableString(myPaths.getCanonicalFile(ruleContainer).getAbsolutePath()), tcid);
       }
     } catch (IOException e) {
       throw new IllegalArgumentException(e);
     }
   }
 
+  private void addRule(final String rulePath, final String tcid) {
+    RuleNode node = myRules;
+    int start = 0;
+    while (start < rulePath.length()) {
+      int end = rulePath.indexOf(SEPARATOR, start);
+      if (end < 0) {
+        end = rulePath.length();
+      }
+      if (end > start) {
+        node = node.getOrCreateChild(rulePath.substring(start, end));
+      }
+      start = end + 1;
+    }
+    node.myRulePath = rulePath;
+    node.myTCID = tcid;
+  }
+
+  /**
+   * The deepest rule which is the file itself or one of its parent folders wins
+   */
   public Matching getMatching(final File file) throws IllegalArgumentException {
-    try {
-      final String filePath = Util.toPortableString(file.getCanonicalFile().getAbsolutePath());
-      for (final String rulePath : myRulesMap.keySet()) {
-        if (filePath.startsWith(rulePath)) {
-
-          String relativePath = FileUtil.getRelativePath(rulePath, filePath, '/');
-          if (".".equals(relativePath)) relativePath = "";
-          if (relativePath == null || relativePath.startsWith("..")) continue;
-          
-          return new MatchingImpl(myRulesMap.get(rulePath), relativePath);
-        }
+    final String filePath = getPortablePath(file);
+    return toMatching(filePath, walk(new Lookup(myRules), filePath, 0, filePath.length()));
+  }
+
+  public Map<File, Matching> getMatchings(final Collection<File> files) throws IllegalArgumentException {
+    final List<Map.Entry<String, File>> sorted = new ArrayList<Map.Entry<String, File>>(files.size());
+    for (final File file : files) {
+      sorted.add(new AbstractMap.SimpleImmutableEntry<String, File>(getPortablePath(file), file));
+    }
+    // files of a folder come together, so the folder part of their paths is walked once
+    Collections.sort(sorted, new Comparator<Map.Entry<String, File>>() {
+      public int compare(final Map.Entry<String, File> o1, final Map.Entry<String, File> o2) {
+        return o1.getKey().compareTo(o2.getKey());
       }
-      return null;
+    });
+    final HashMap<File, Matching> result = new HashMap<File, Matching>(files.size());
+    String folderPath = null;
+    int folderLength = -1;
+    Lookup folder = null;
+    for (final Map.Entry<String, File> entry : sorted) {
+      final String filePath = entry.getKey();
+      final int nameStart = filePath.lastIndexOf(SEPARATOR) + 1;
+      if (folder == null || nameStart != folderLength || !filePath.regionMatches(0, folderPath, 0, nameStart)) {
+        folderPath = filePath;
+        folderLength = nameStart;
+        folder = walk(new Lookup(myRules), filePath, 0, nameStart);
+      }
+      final Matching matching = toMatching(filePath, walk(folder, filePath, nameStart, filePath.length()));
+      if (matching != null) {
+        result.put(entry.getValue(), matching);
+      }
+    }
+    return result;
+  }
 
-    } catch (IOException e) {
-      throw new IllegalArgumentException(e);
+  private String getPortablePath(final File file) {
+    return Util.toPortableString(myPaths.getCanonicalFile(file).getAbsolutePath());
+  }
+
+  /**
+   * @return state after the segments of path[from, to) are passed down the trie starting from the given state
+   */
+  private static Lookup walk(final Lookup from, final String path, int start, final int to) {
+    RuleNode node = from.myNode;
+    RuleNode matched = from.myMatched;
+    int matchedEnd = from.myMatchedEnd;
+    while (node != null && start < to) {
+      int end = path.indexOf(SEPARATOR, start);
+      if (end < 0 || end > to) {
+        end = to;
+      }
+      if (end > start) {
+        node = node.getChild(path, start, end);
+        if (node != null && node.myTCID != null) {
+          matched = node;
+          matchedEnd = end;
+        }
+      }
+      start = end + 1;
+    }
+    return new Lookup(node, matched, matchedEnd);
+  }
 
+  private static Matching toMatching(final String filePath, final Lookup lookup) {
+    if (lookup.myMatched == null) {
+      return null;
+    }
+    // skip separators between the rule folder and the rest
+    int relativeStart = lookup.myMatchedEnd;
+    while (relativeStart < filePath.length() && filePath.charAt(relativeStart) == SEPARATOR) {
+      relativeStart++;
     }
+    return new MatchingImpl(lookup.myMatched.myTCID, filePath.substring(relativeStart));
   }
 
   static class MatchingImpl implements ITCResourceMatcher.Matching {
@@ -159,10 +245,67 @@ public class FileBasedMatcher implements ITCResourceMatcher {
   public String toString() {
     final StringBuilder buffer = new StringBuilder();
     buffer.append("File: ").append(myFile.getAbsolutePath()).append(":\n");
-    for (Map.Entry<String, String> entry : myRulesMap.entrySet()) {
+    final TreeMap<String, String> rules = new TreeMap<String, String>();
+    myRules.collect(rules);
+    for (Map.Entry<String, String> entry : rules.entrySet()) {
       buffer.append(entry.getKey()).append(FIELD_DEVIDER).append(entry.getValue()).append("\n");
     }
     return buffer.toString().trim();
   }
 
+  /**
+   * Position in the rules trie: the node reached (null if the path left the trie) and the deepest rule seen on the way
+   */
+  private static class Lookup {
+    private final RuleNode myNode;
+    private final RuleNode myMatched;
+    private final int myMatchedEnd;
+
+    Lookup(final RuleNode root) {
+      this(root, root.myTCID != null ? root : null, 0);
+    }
+
+    Lookup(final RuleNode node, final RuleNode matched, final int matchedEnd) {
+      myNode = node;
+      myMatched = matched;
+      myMatchedEnd = matchedEnd;
+    }
+  }
+
+  /**
+   * Folder level of the rules trie: children are keyed by path segment, so a lookup costs one hash probe per segment of the file path
+   */
+  private static class RuleNode {
+    private Map<String, RuleNode> myChildren;
+    private String myRulePath;
+    private String myTCID;
+
+    RuleNode getOrCreateChild(final String segment) {
+      if (myChildren == null) {
+        myChildren = new HashMap<String, RuleNode>();
+      }
+      RuleNode child = myChildren.get(segment);
+      if (child == null) {
+        child = new RuleNode();
+        myChildren.put(segment, child);
+      }
+      return child;
+    }
+
+    RuleNode getChild(final String path, final int start, final int end) {
+      return myChildren != null ? myChildren.get(path.substring(start, end)) : null;
+    }
+
+    void collect(final Map<String, String> rules) {
+      if (myTCID != null) {
+        rules.put(myRulePath, myTCID);
+      }
+      if (myChildren != null) {
+        for (final RuleNode child : myChildren.values()) {
+          child.collect(rules);
+        }
+      }
+    }
+  }
+
 }
@@ -22,4 +22,9 @@ public interface ITCResource {
   public File getLocal();
 
   public String getRepositoryPath();
+
+  /**
+   * @return prefix of the repository path identifying the VCS root and its mapping, the path continues with a separator after it
+   */
+  public String getRepositoryRoot();
 }
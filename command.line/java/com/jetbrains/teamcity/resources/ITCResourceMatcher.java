@@ -16,11 +16,19 @@
 package com.jetbrains.teamcity.resources;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Map;
 
 public interface ITCResourceMatcher {
 
   public Matching getMatching(final File file) throws IllegalArgumentException;
 
+  /**
+   * Bulk version of {@link #getMatching(File)}. Implementations have to be thread-safe
+   * @return matching for every file which has one
+   */
+  public Map<File, Matching> getMatchings(final Collection<File> files) throws IllegalArgumentException;
+
   public interface Matching {
 
     public String getTCID();
@@ -16,12 +16,14 @@
 package com.jetbrains.teamcity.resources;
 
 import com.jetbrains.teamcity.Debug;
+import com.jetbrains.teamcity.PathInfoCache;
 import com.jetbrains.teamcity.Storage;
 import java.io.File;
-import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class TCWorkspace {
 
@@ -29,21 +31,62 @@ public class TCWorkspace {
 
   static final String TCC_GLOBAL_ADMIN_FILE = new File(System.getProperty("user.home"), Storage.TC_CLI_HOME + File.separator + TCC_ADMIN_FILE).getAbsolutePath();
 
-  private final HashMap<File, ITCResourceMatcher> myCache = new HashMap<File, ITCResourceMatcher>();
+  /**
+   * files are mapped by chunks of at least this size, smaller sets are mapped in the calling thread
+   */
+  private static final int MIN_CHUNK_SIZE = 1024;
+
+  /**
+   * cached "no admin file up the tree" result
+   */
+  private static final ITCResourceMatcher NO_MATCHER = new ITCResourceMatcher() {
+    public Matching getMatching(final File file) {
+      return null;
+    }
+
+    public Map<File, Matching> getMatchings(final Collection<File> files) {
+      return Collections.emptyMap();
+    }
+  };
+
+  /**
+   * canonical folder -> matcher of the nearest admin file up the tree or {@link #NO_MATCHER}
+   */
+  private final ConcurrentMap<File, ITCResourceMatcher> myFolderMatchers = new ConcurrentHashMap<File, ITCResourceMatcher>();
 
   @SuppressWarnings("FieldMayBeFinal") private ITCResourceMatcher myGlobalMatcher;
 
   private final ITCResourceMatcher myOverridingMatcher;
 
+  private final PathInfoCache myPaths;
+
+  private final Map<File, ITCResourceMatcher> mySyncedRoots;
+
   public TCWorkspace() {
     this(null);
   }
 
   public TCWorkspace(final ITCResourceMatcher externMatcher) {
+    this(externMatcher, new PathInfoCache());
+  }
+
+  /**
+   * @param paths per-run cache of file attributes shared with other stages of the command
+   */
+  public TCWorkspace(final ITCResourceMatcher externMatcher, @NotNull final PathInfoCache paths) {
+    this(externMatcher, paths, Collections.<File, ITCResourceMatcher>emptyMap());
+  }
+
+  /**
+   * @param syncedRoots canonical checkout root -> matcher of the mapping synced from the server, see {@link com.jetbrains.teamcity.MappingCache}
+   */
+  public TCWorkspace(final ITCResourceMatcher externMatcher, @NotNull final PathInfoCache paths, @NotNull final Map<File, ITCResourceMatcher> syncedRoots) {
+    myPaths = paths;
+    mySyncedRoots = syncedRoots;
     // setup global admin
     final File defaultConfig = getGlobalAdminFile();
     if (defaultConfig != null && defaultConfig.exists()) {
-      myGlobalMatcher = new FileBasedMatcher(defaultConfig);
+      myGlobalMatcher = new FileBasedMatcher(defaultConfig, paths);
     } else {
       Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("Default Admin file \"{0}\" is not found", defaultConfig));
     }
@@ -63,71 +106,185 @@ public class TCWorkspace {
   }
 
   static ITCResourceMatcher getMatcherFor(@NotNull final File local) throws IllegalArgumentException {
+    return getMatcherFor(local, new PathInfoCache(), new ConcurrentHashMap<File, ITCResourceMatcher>());
+  }
+
+  @Nullable
+  static ITCResourceMatcher getMatcherFor(@NotNull final File local, @NotNull final PathInfoCache paths, @NotNull final ConcurrentMap<File, ITCResourceMatcher> folderMatchers) throws IllegalArgumentException {
+    return getMatcherFor(local, paths, folderMatchers, Collections.<File, ITCResourceMatcher>emptyMap());
+  }
+
+  /**
+   * Looks for the nearest admin file up the tree. Every visited folder gets into the cache along with the result,
+   * so each folder is probed once and a single matcher is created per admin file. A root with a synced mapping
+   * is treated as a folder with an admin file, the real admin file wins
+   * @param folderMatchers canonical folder -> found matcher or {@link #NO_MATCHER}
+   * @param syncedRoots canonical checkout root -> matcher of the synced mapping
+   */
+  @Nullable
+  static ITCResourceMatcher getMatcherFor(@NotNull final File local, @NotNull final PathInfoCache paths, @NotNull final ConcurrentMap<File, ITCResourceMatcher> folderMatchers,
+                                          @NotNull final Map<File, ITCResourceMatcher> syncedRoots) throws IllegalArgumentException {
     // per-folder search
-    try {
-      File folder = local.getParentFile();
-      if (folder != null) {
-        folder = folder.getCanonicalFile().getAbsoluteFile();
-        final File adminFile = new File(folder, TCC_ADMIN_FILE);
-        if (adminFile.exists()) {
-          Debug.getInstance().debug(TCWorkspace.class, String.format("found mapping for %s in %s", local, adminFile));
-          return new FileBasedMatcher(adminFile);
-        } else {
-          return getMatcherFor(folder);
+    final File parent = local.getParentFile();
+    if (parent == null) {
+      return null;
+    }
+    final File folder = paths.getCanonicalFile(parent);
+    ITCResourceMatcher matcher = folderMatchers.get(folder);
+    if (matcher == null) {
+      final File adminFile = new File(folder, TCC_ADMIN_FILE);
+      if (paths.get(adminFile).exists()) {
+        Debug.getInstance().debug(TCWorkspace.class, String.format("found mapping for %s in %s", local, adminFile));
+        matcher = new FileBasedMatcher(adminFile, paths);
+      } else if (syncedRoots.containsKey(folder)) {
+        Debug.getInstance().debug(TCWorkspace.class, String.format("found synced mapping for %s in %s", local, folder));
+        matcher = syncedRoots.get(folder);
+      } else {
+        matcher = getMatcherFor(folder, paths, folderMatchers, syncedRoots);
+        if (matcher == null) {
+          matcher = NO_MATCHER;
         }
       }
-    } catch (IOException e) {
-      throw new IllegalArgumentException(e);
+      // a concurrent lookup of the same folder may have been first
+      final ITCResourceMatcher existing = folderMatchers.putIfAbsent(folder, matcher);
+      if (existing != null) {
+        matcher = existing;
+      }
     }
-    return null;
+    return matcher != NO_MATCHER ? matcher : null;
   }
 
-  public ITCResource getTCResource(@NotNull File local) throws IllegalArgumentException {
-    try {
-      local = local.getAbsoluteFile().getCanonicalFile();
-    } catch (IOException e) {
-      throw new IllegalArgumentException(e);
-    }
-    ITCResourceMatcher matcher;
+  @Nullable
+  private ITCResourceMatcher getMatcher(@NotNull final File local) {
     // set to OverridingMatcher if defined
     if (myOverridingMatcher != null) {
-      matcher = myOverridingMatcher;
-    } else {
-      // look into cache(cache keep file for files resides in same folder only)
-      matcher = myCache.get(local.getParentFile());
-      if (matcher == null) {
-        // seek for uncached
-        matcher = getMatcherFor(local);
-        if (matcher == null) {
-          // look into Global
-          matcher = myGlobalMatcher;
-          if (myGlobalMatcher == null) {
-            Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("Neither Local nor Global admin files found for \"{0}\"", local));
-            return null;
-          }
-        }
-      }
+      return myOverridingMatcher;
+    }
+    // nearest admin file up the tree, resolved folders are cached
+    final ITCResourceMatcher matcher = getMatcherFor(local, myPaths, myFolderMatchers, mySyncedRoots);
+    if (matcher != null) {
+      return matcher;
+    }
+    // look into Global
+    if (myGlobalMatcher == null) {
+      Debug.getInstance().debug(TCWorkspace.class, String.format("Neither Local nor Global admin files found for \"%s\"", local));
+    }
+    return myGlobalMatcher;
+  }
+
+  public ITCResource getTCResource(@NotNull File local) throws IllegalArgumentException {
+    local = myPaths.getCanonicalFile(local);
+    final ITCResourceMatcher matcher = getMatcher(local);
+    if (matcher == null) {
+      return null;
     }
-    // cache found
-    myCache.put(local.getParentFile(), matcher);
     final ITCResourceMatcher.Matching matching = matcher.getMatching(local);
     if (matching == null) {
-      Debug.getInstance().debug(TCWorkspace.class, MessageFormat.format("No Matching found for \"{0}\"", local));
+      Debug.getInstance().debug(TCWorkspace.class, String.format("No Matching found for \"%s\"", local));
       return null;
     }
     // All found
-    final String prefix = matching.getTCID();
-    final String relativePath = matching.getRelativePath();
-    return new TCResource(local, MessageFormat.format("{0}/{1}", prefix, relativePath)); //$NON-NLS-1$
+    return new TCResource(local, matching.getTCID(), getRepositoryPath(matching));
+  }
+
+  /**
+   * Maps files in parallel. Sorted files are split into contiguous chunks, so files of a folder mostly get into the same chunk;
+   * files of a chunk are grouped by matcher and resolved by a single {@link ITCResourceMatcher#getMatchings(Collection)} call per group
+   * @return resources of mapped files ordered by canonical local file, unmapped files are skipped
+   */
+  @NotNull
+  public List<ITCResource> getTCResources(@NotNull final Collection<File> files) throws IllegalArgumentException {
+    final TreeSet<File> sorted = new TreeSet<File>();
+    for (final File file : files) {
+      sorted.add(myPaths.getCanonicalFile(file));
+    }
+    final List<File> locals = new ArrayList<File>(sorted);
+    final int threads = Runtime.getRuntime().availableProcessors();
+    final int chunkSize = Math.max(MIN_CHUNK_SIZE, (locals.size() + threads * 4 - 1) / (threads * 4));
+    if (locals.size() <= chunkSize) {
+      return getTCResourcesSorted(locals);
+    }
+    final List<Callable<List<ITCResource>>> tasks = new ArrayList<Callable<List<ITCResource>>>();
+    for (int from = 0; from < locals.size(); from += chunkSize) {
+      final List<File> chunk = locals.subList(from, Math.min(from + chunkSize, locals.size()));
+      tasks.add(new Callable<List<ITCResource>>() {
+        public List<ITCResource> call() {
+          return getTCResourcesSorted(chunk);
+        }
+      });
+    }
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      final List<ITCResource> result = new ArrayList<ITCResource>(locals.size());
+      for (final Future<List<ITCResource>> future : pool.invokeAll(tasks)) {
+        result.addAll(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalArgumentException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalArgumentException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * @param locals sorted canonical files
+   */
+  @NotNull
+  private List<ITCResource> getTCResourcesSorted(@NotNull final List<File> locals) {
+    final LinkedHashMap<ITCResourceMatcher, List<File>> groups = new LinkedHashMap<ITCResourceMatcher, List<File>>();
+    for (final File local : locals) {
+      final ITCResourceMatcher matcher = getMatcher(local);
+      if (matcher != null) {
+        List<File> group = groups.get(matcher);
+        if (group == null) {
+          group = new ArrayList<File>();
+          groups.put(matcher, group);
+        }
+        group.add(local);
+      }
+    }
+    final TCResource[] resources = new TCResource[locals.size()];
+    for (final Map.Entry<ITCResourceMatcher, List<File>> group : groups.entrySet()) {
+      final Map<File, ITCResourceMatcher.Matching> matchings = group.getKey().getMatchings(group.getValue());
+      for (final File local : group.getValue()) {
+        final ITCResourceMatcher.Matching matching = matchings.get(local);
+        if (matching != null) {
+          resources[Collections.binarySearch(locals, local)] = new TCResource(local, matching.getTCID(), getRepositoryPath(matching));
+        } else {
+          Debug.getInstance().debug(TCWorkspace.class, String.format("No Matching found for \"%s\"", local));
+        }
+      }
+    }
+    final List<ITCResource> result = new ArrayList<ITCResource>(resources.length);
+    for (final TCResource resource : resources) {
+      if (resource != null) {
+        result.add(resource);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String getRepositoryPath(@NotNull final ITCResourceMatcher.Matching matching) {
+    return matching.getTCID() + '/' + matching.getRelativePath();
   }
 
   static class TCResource implements ITCResource {
 
     private final File myLocal;
+    private final String myRepositoryRoot;
     private final String myRepositoryPath;
 
-    TCResource(File local, String repositoryPath) {
+    TCResource(File local, String repositoryRoot, String repositoryPath) {
       myLocal = local;
+      myRepositoryRoot = repositoryRoot;
       myRepositoryPath = repositoryPath;
     }
 
@@ -139,9 +296,30 @@ public class TCWorkspace {
       return myRepositoryPath;
     }
 
+    public String getRepositoryRoot() {
+      return myRepositoryRoot;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TCResource)) {
+        return false;
+      }
+      final TCResource that = (TCResource) o;
+      return myLocal.equals(that.myLocal) && myRepositoryPath.equals(that.myRepositoryPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myLocal.hashCode() + myRepositoryPath.hashCode();
+    }
+
     @Override
     public String toString() {
-      return MessageFormat.format("local={0}, repo={1}", getLocal(), getRepositoryPath()); //$NON-NLS-1$
+      return String.format("local=%s, repo=%s", getLocal(), getRepositoryPath()); //$NON-NLS-1$
     }
 
   }
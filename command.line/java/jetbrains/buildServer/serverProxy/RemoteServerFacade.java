@@ -13,6 +13,12 @@ public interface RemoteServerFacade {
   @NotNull
   List<ProjectData> getRegisteredProjects() throws ECommunicationException;
 
+  /**
+   * @return projects as the server has serialized them, see {@link com.jetbrains.teamcity.XStreamUtil#deserializeObject}
+   */
+  @NotNull
+  List<String> getSerializedProjects() throws ECommunicationException;
+
   @NotNull
   TeamServerSummaryData getSummaryData(final String userId) throws ECommunicationException;
 
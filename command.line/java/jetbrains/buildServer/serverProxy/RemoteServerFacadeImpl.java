@@ -36,6 +36,17 @@ public class RemoteServerFacadeImpl extends RemoteBuildServerImpl implements Rem
 
   @NotNull
   public List<ProjectData> getRegisteredProjects() throws ECommunicationException {
+    final List<String> projects = getSerializedProjects();
+    List<ProjectData> projectsData = new ArrayList<ProjectData>(projects.size());
+    for (String typeData : projects) {
+      final ProjectData projectData = XStreamUtil.deserializeObject(typeData);
+      projectsData.add(projectData);
+    }
+    return projectsData;
+  }
+
+  @NotNull
+  public List<String> getSerializedProjects() throws ECommunicationException {
     Vector projects = remoteCall(new ServerCommand<Vector>() {
       public Vector execute() {
         return RemoteServerFacadeImpl.super.getRegisteredProjects(false);
@@ -45,12 +56,11 @@ public class RemoteServerFacadeImpl extends RemoteBuildServerImpl implements Rem
         return "getRegisteredProjects";
       }
     });
-    List<ProjectData> projectsData = new ArrayList<ProjectData>(projects.size());
+    List<String> result = new ArrayList<String>(projects.size());
     for (Object typeData : projects) {
-      final ProjectData projectData = XStreamUtil.deserializeObject(typeData);
-      projectsData.add(projectData);
+      result.add((String) typeData);
     }
-    return projectsData;
+    return result;
   }
 
   @NotNull
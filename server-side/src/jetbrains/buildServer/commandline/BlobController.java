@@ -0,0 +1,80 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Have/want negotiation of file contents: the command line tool posts hashes of the contents it is going to send, one per line,
+ * and gets back the hashes the {@link BlobStore} of the user has not got. Known contents are then sent as references.
+ */
+public class BlobController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandline/blobs.html";
+
+  private static final int MAX_HASHES = 100000;
+
+  private final WebControllerManager myWebControllerManager;
+  private final BlobStore myStore;
+
+  public BlobController(final WebControllerManager webControllerManager, final BlobStore store) {
+    myWebControllerManager = webControllerManager;
+    myStore = store;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final SUser user = SessionUser.getUser(request);
+    if (user == null) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+      return null;
+    }
+    if (!"POST".equals(request.getMethod())) {
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return null;
+    }
+    negotiate(user.getId(), request.getReader(), response);
+    return null;
+  }
+
+  /**
+   * Answers with the hashes the store of the user has not got
+   */
+  void negotiate(final long userId, @NotNull final BufferedReader reader, @NotNull final HttpServletResponse response) throws IOException {
+    final StringBuilder missing = new StringBuilder();
+    String hash;
+    int count = 0;
+    while ((hash = reader.readLine()) != null) {
+      hash = hash.trim();
+      if (hash.length() == 0) {
+        continue;
+      }
+      if (++count > MAX_HASHES) {
+        response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "At most " + MAX_HASHES + " hashes are accepted");
+        return;
+      }
+      // known contents become recently used, so they are not evicted before the patch comes
+      if (!myStore.contains(userId, hash)) {
+        missing.append(hash).append('\n');
+      }
+    }
+    response.setContentType("text/plain");
+    final PrintWriter writer = response.getWriter();
+    writer.print(missing);
+    writer.flush();
+  }
+
+}
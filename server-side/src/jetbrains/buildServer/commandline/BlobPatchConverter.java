@@ -0,0 +1,276 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilder;
+import jetbrains.buildServer.vcs.patches.LowLevelPatchBuilderImpl;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Turns a patch written by the command line tool's BlobPatchWriter into a regular patch. Referenced contents are taken
+ * from the {@link BlobStore} of the uploading user, sent contents big enough are put into it for the next patches.
+ * Text changes may come as line deltas against a stored base, see {@link #applyDelta}.
+ */
+public class BlobPatchConverter {
+
+  @NonNls static final String CONTENT_TYPE = "application/x-teamcity-blob-patch";
+
+  static final int VERSION = 1;
+  static final byte END = 0;
+  static final byte CONTENT = 1;
+  static final byte REFERENCE = 2;
+  static final byte DELETE = 3;
+  static final byte DELTA = 4;
+
+  static final byte DELTA_END = 0;
+  static final byte DELTA_COPY = 1;
+  static final byte DELTA_INSERT = 2;
+
+  /**
+   * deltas are kept in memory, the command line tool computes them for text files up to 8 Mb only and sends smaller ones
+   */
+  static final int MAX_DELTA_SIZE = 8 * 1024 * 1024;
+
+  @NonNls private static final String HASH_ALGORITHM = "SHA-256";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final BlobStore myStore;
+  private final long myUserId;
+
+  public BlobPatchConverter(@NotNull final BlobStore store, final long userId) {
+    myStore = store;
+    myUserId = userId;
+  }
+
+  /**
+   * @throws MissingBlobException if a referenced content is not in the store of the user
+   */
+  public void convert(@NotNull final InputStream blobPatch, @NotNull final OutputStream patch) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(blobPatch, BUFFER_SIZE));
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported patch version: " + version);
+    }
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(patch, BUFFER_SIZE));
+    final LowLevelPatchBuilderImpl builder = new LowLevelPatchBuilderImpl(out);
+    try {
+      byte operation;
+      while ((operation = in.readByte()) != END) {
+        switch (operation) {
+          case CONTENT:
+            final String changed = in.readUTF();
+            final long length = in.readLong();
+            final StreamContent sent = new StreamContent(in, length);
+            builder.changeBinary(changed, length, length >= BlobStore.MIN_BLOB_SIZE ? new StoredContent(sent) : sent, false);
+            break;
+          case REFERENCE:
+            final String referenced = in.readUTF();
+            final String hash = in.readUTF();
+            final long referencedLength = in.readLong();
+            final RandomAccessFile blob = myStore.open(myUserId, hash);
+            if (blob == null) {
+              throw new MissingBlobException(hash);
+            }
+            try {
+              if (blob.length() != referencedLength) {
+                throw new MissingBlobException(hash);
+              }
+              final InputStream content = new BufferedInputStream(Channels.newInputStream(blob.getChannel()), BUFFER_SIZE);
+              builder.changeBinary(referenced, referencedLength, new StreamContent(content, referencedLength), false);
+            } finally {
+              blob.close();
+            }
+            break;
+          case DELTA:
+            final String patched = in.readUTF();
+            final String baseHash = in.readUTF();
+            final long patchedLength = in.readLong();
+            final int deltaLength = in.readInt();
+            if (deltaLength < 0 || deltaLength > MAX_DELTA_SIZE || deltaLength > patchedLength) {
+              throw new IOException(String.format("Delta of %d bytes for %d byte content is over the limit", deltaLength, patchedLength));
+            }
+            final byte[] delta = new byte[deltaLength];
+            in.readFully(delta);
+            final RandomAccessFile base = myStore.open(myUserId, baseHash);
+            if (base == null) {
+              throw new MissingBlobException(baseHash);
+            }
+            try {
+              // the result is the base of the next delta
+              builder.changeBinary(patched, patchedLength, new StoredContent(new LowLevelPatchBuilder.WriteFileContent() {
+                public void writeTo(final OutputStream os) throws IOException {
+                  applyDelta(base, delta, patchedLength, os);
+                }
+              }), false);
+            } finally {
+              base.close();
+            }
+            break;
+          case DELETE:
+            builder.delete(in.readUTF(), true, false);
+            break;
+          default:
+            throw new IOException("Unknown patch operation: " + operation);
+        }
+      }
+      builder.exit("");
+    } finally {
+      builder.close();
+      out.flush();
+    }
+    myStore.evict();
+  }
+
+  /**
+   * Copies exactly length bytes
+   */
+  private static void copy(@NotNull final InputStream in, final long length, @NotNull final OutputStream out) throws IOException {
+    final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+    long copied = 0;
+    while (copied < length) {
+      final int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+      if (read < 0) {
+        throw new EOFException(String.format("Expected %d bytes, got %d", length, copied));
+      }
+      out.write(buffer, 0, read);
+      copied += read;
+    }
+  }
+
+  /**
+   * Writes the base ranges and inserted bytes the delta consists of
+   * @param base the stored base, left open
+   * @param length expected length of the result
+   */
+  static void applyDelta(@NotNull final RandomAccessFile base, @NotNull final byte[] delta, final long length, @NotNull final OutputStream out)
+    throws IOException {
+    final DataInputStream instructions = new DataInputStream(new ByteArrayInputStream(delta));
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    long written = 0;
+    byte instruction;
+    while ((instruction = instructions.readByte()) != DELTA_END) {
+      switch (instruction) {
+        case DELTA_COPY:
+          final long offset = instructions.readLong();
+          int remaining = instructions.readInt();
+          if (offset < 0 || remaining < 0 || offset + remaining > base.length()) {
+            throw new IOException(String.format("Delta copies %d bytes at %d of %d byte base", remaining, offset, base.length()));
+          }
+          base.seek(offset);
+          written += remaining;
+          while (remaining > 0) {
+            final int chunk = Math.min(remaining, buffer.length);
+            base.readFully(buffer, 0, chunk);
+            out.write(buffer, 0, chunk);
+            remaining -= chunk;
+          }
+          break;
+        case DELTA_INSERT:
+          final int inserted = instructions.readInt();
+          copy(instructions, inserted, out);
+          written += inserted;
+          break;
+        default:
+          throw new IOException("Unknown delta instruction: " + instruction);
+      }
+      if (written > length) {
+        break;
+      }
+    }
+    if (written != length) {
+      throw new IOException(String.format("Delta produced %d bytes instead of %d", written, length));
+    }
+  }
+
+  private static class StreamContent implements LowLevelPatchBuilder.WriteFileContent {
+    private final InputStream myIn;
+    private final long myLength;
+
+    StreamContent(@NotNull final InputStream in, final long length) {
+      myIn = in;
+      myLength = length;
+    }
+
+    public void writeTo(final OutputStream os) throws IOException {
+      copy(myIn, myLength, os);
+    }
+  }
+
+  /**
+   * Writes the content into the patch and into the store
+   */
+  private class StoredContent implements LowLevelPatchBuilder.WriteFileContent {
+    private final LowLevelPatchBuilder.WriteFileContent myContent;
+
+    StoredContent(@NotNull final LowLevelPatchBuilder.WriteFileContent content) {
+      myContent = content;
+    }
+
+    public void writeTo(final OutputStream os) throws IOException {
+      final MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+      final File blob = myStore.createTempFile();
+      try {
+        final OutputStream stored = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(blob), BUFFER_SIZE), digest);
+        try {
+          myContent.writeTo(new TeeOutputStream(os, stored));
+        } finally {
+          stored.close();
+        }
+        myStore.put(myUserId, toHex(digest.digest()), blob);
+      } finally {
+        FileUtil.delete(blob); // no-op once stored
+      }
+    }
+  }
+
+  private static class TeeOutputStream extends OutputStream {
+    private final OutputStream myFirst;
+    private final OutputStream mySecond;
+
+    TeeOutputStream(@NotNull final OutputStream first, @NotNull final OutputStream second) {
+      myFirst = first;
+      mySecond = second;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      myFirst.write(b);
+      mySecond.write(b);
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, final int off, final int len) throws IOException {
+      myFirst.write(b, off, len);
+      mySecond.write(b, off, len);
+    }
+  }
+
+  @NotNull
+  static String toHex(@NotNull final byte[] bytes) {
+    final StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  /**
+   * A referenced content is not in the store, the client has to send a regular patch
+   */
+  public static class MissingBlobException extends IOException {
+    public MissingBlobException(@NotNull final String hash) {
+      super("Content is not stored: " + hash);
+    }
+  }
+
+}
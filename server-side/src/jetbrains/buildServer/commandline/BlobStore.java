@@ -0,0 +1,166 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Content-addressed store of file contents uploaded by the command line tool, keyed by SHA-256 of the content.
+ * Clients send only contents the store has not got, see {@link BlobController}. Contents are kept per user, so a user can
+ * neither learn about nor reference contents other users uploaded. Least recently used contents are evicted when the store
+ * grows over its size limit.
+ * <p/>
+ * Contents are read through handles {@link #open opened} under the same lock eviction takes, so an eviction
+ * never removes a content between its lookup and its reading.
+ */
+public class BlobStore {
+
+  @NonNls static final String MAX_SIZE_PROPERTY = "teamcity.commandline.blobs.maxSize";
+  static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+  /**
+   * smaller files are not worth a round trip
+   */
+  static final long MIN_BLOB_SIZE = 64 * 1024;
+
+  private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+  private final File myRoot;
+  private final long myMaxSize;
+
+  public BlobStore(@NotNull final ServerPaths serverPaths) {
+    this(new File(serverPaths.getCachesDir(), "commandline-blobs"), TeamCityProperties.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+  }
+
+  BlobStore(@NotNull final File root, final long maxSize) {
+    myRoot = root;
+    myMaxSize = maxSize;
+  }
+
+  public static boolean isValidHash(@Nullable final String hash) {
+    return hash != null && HASH.matcher(hash).matches();
+  }
+
+  /**
+   * Checks the user has got the content, it becomes the most recently used one
+   */
+  public synchronized boolean contains(final long userId, @NotNull final String hash) {
+    return touch(userId, hash) != null;
+  }
+
+  /**
+   * Opens the content the user has stored, it becomes the most recently used one.
+   * The handle stays readable even if the content is evicted afterwards.
+   * @return the content or null if the user has not got it
+   */
+  @Nullable
+  public synchronized RandomAccessFile open(final long userId, @NotNull final String hash) throws IOException {
+    final File blob = touch(userId, hash);
+    return blob != null ? new RandomAccessFile(blob, "r") : null;
+  }
+
+  /**
+   * @return file to write a new content into before it is {@link #put(long, String, File)} to the store
+   */
+  @NotNull
+  public File createTempFile() throws IOException {
+    FileUtil.createDir(myRoot);
+    return File.createTempFile("blob", ".tmp", myRoot);
+  }
+
+  /**
+   * Moves the content into the store of the user
+   * @param content file created with {@link #createTempFile()}
+   */
+  public synchronized void put(final long userId, @NotNull final String hash, @NotNull final File content) throws IOException {
+    if (!isValidHash(hash)) {
+      FileUtil.delete(content);
+      throw new IOException("Invalid content hash: " + hash);
+    }
+    final File blob = getFile(userId, hash);
+    FileUtil.createParentDirs(blob);
+    if (blob.isFile()) {
+      FileUtil.delete(content); // stored by a concurrent upload
+      //noinspection ResultOfMethodCallIgnored
+      blob.setLastModified(System.currentTimeMillis());
+      return;
+    }
+    if (!content.renameTo(blob)) {
+      FileUtil.delete(content);
+      if (!blob.isFile()) {
+        throw new IOException("Could not store " + blob);
+      }
+    }
+  }
+
+  /**
+   * Removes least recently used contents of all users while the store is over the size limit
+   */
+  public synchronized void evict() {
+    final File[] users = myRoot.listFiles();
+    if (users == null) {
+      return;
+    }
+    long size = 0;
+    final List<File> blobs = new ArrayList<File>();
+    for (final File user : users) {
+      final File[] folders = user.listFiles();
+      if (folders == null) {
+        continue;
+      }
+      for (final File folder : folders) {
+        final File[] files = folder.listFiles();
+        if (files != null) {
+          for (final File blob : files) {
+            blobs.add(blob);
+            size += blob.length();
+          }
+        }
+      }
+    }
+    if (size <= myMaxSize) {
+      return;
+    }
+    final File[] byAge = blobs.toArray(new File[blobs.size()]);
+    Arrays.sort(byAge, new Comparator<File>() {
+      public int compare(final File o1, final File o2) {
+        final long m1 = o1.lastModified();
+        final long m2 = o2.lastModified();
+        return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+      }
+    });
+    for (int i = 0; i < byAge.length && size > myMaxSize; i++) {
+      size -= byAge[i].length();
+      FileUtil.delete(byAge[i]);
+    }
+  }
+
+  @Nullable
+  private File touch(final long userId, @NotNull final String hash) {
+    if (!isValidHash(hash)) {
+      return null;
+    }
+    final File blob = getFile(userId, hash);
+    if (!blob.setLastModified(System.currentTimeMillis()) && !blob.isFile()) {
+      return null;
+    }
+    return blob;
+  }
+
+  @NotNull
+  private File getFile(final long userId, @NotNull final String hash) {
+    return new File(new File(new File(myRoot, String.valueOf(userId)), hash.substring(0, 2)), hash);
+  }
+
+}
@@ -0,0 +1,146 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Enumeration;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Forwarded patch upload request with a replaced body: no encoding and content type, the given length
+ */
+class BodyRequest extends HttpServletRequestWrapper {
+  @NonNls static final String UPLOAD_PATH = "/uploadChanges.html";
+  @NonNls static final String CONTENT_ENCODING = "Content-Encoding";
+  @NonNls private static final String CONTENT_LENGTH = "Content-Length";
+  @NonNls private static final String CONTENT_TYPE = "Content-Type";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ServletInputStream myInputStream;
+  private final long myLength;
+
+  /**
+   * @param length body length or -1 if unknown
+   */
+  BodyRequest(@NotNull final HttpServletRequest request, @NotNull final InputStream body, final long length) {
+    super(request);
+    myLength = length;
+    myInputStream = new ServletInputStream() {
+      private boolean isFinished;
+
+      @Override
+      public int read() throws IOException {
+        final int read = body.read();
+        isFinished = read < 0;
+        return read;
+      }
+
+      @Override
+      public int read(@NotNull final byte[] b, final int off, final int len) throws IOException {
+        final int read = body.read(b, off, len);
+        isFinished = read < 0;
+        return read;
+      }
+
+      @Override
+      public void close() throws IOException {
+        body.close();
+      }
+
+      public boolean isFinished() {
+        return isFinished;
+      }
+
+      public boolean isReady() {
+        return true;
+      }
+
+      public void setReadListener(final ReadListener readListener) {
+        notifyReadListener(this, readListener);
+      }
+    };
+  }
+
+  /**
+   * Non-blocking read of a replaced body: the body never blocks, so it is all available at once.
+   * Only Servlet 3.1 containers call this, the ReadListener type is not resolved on older ones
+   */
+  private void notifyReadListener(@NotNull final ServletInputStream stream, @NotNull final ReadListener readListener) {
+    if (!isAsyncStarted()) {
+      throw new IllegalStateException("Request is not in asynchronous mode");
+    }
+    try {
+      readListener.onDataAvailable();
+      if (stream.isFinished()) {
+        readListener.onAllDataRead();
+      }
+    } catch (Throwable e) {
+      readListener.onError(e);
+    }
+  }
+
+  /**
+   * Forwards the patch file to the regular patch upload controller
+   */
+  static void forwardPatch(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response, @NotNull final File patch)
+    throws ServletException, IOException {
+    final InputStream body = new BufferedInputStream(new FileInputStream(patch), BUFFER_SIZE);
+    try {
+      request.getRequestDispatcher(UPLOAD_PATH).forward(new BodyRequest(request, body, patch.length()), response);
+    } finally {
+      body.close();
+    }
+  }
+
+  @Override
+  public ServletInputStream getInputStream() {
+    return myInputStream;
+  }
+
+  @Override
+  public int getContentLength() {
+    return myLength <= Integer.MAX_VALUE ? (int) myLength : -1;
+  }
+
+  @Override
+  public long getContentLengthLong() {
+    return myLength;
+  }
+
+  @Override
+  public String getContentType() {
+    return null;
+  }
+
+  @Override
+  public String getHeader(final String name) {
+    if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+      return myLength >= 0 ? String.valueOf(myLength) : null;
+    }
+    if (isBodyHeader(name)) {
+      return null;
+    }
+    return super.getHeader(name);
+  }
+
+  @Override
+  public Enumeration getHeaders(final String name) {
+    if (CONTENT_LENGTH.equalsIgnoreCase(name) && myLength >= 0) {
+      return Collections.enumeration(Collections.singletonList(String.valueOf(myLength)));
+    }
+    if (isBodyHeader(name)) {
+      return Collections.enumeration(Collections.emptyList());
+    }
+    return super.getHeaders(name);
+  }
+
+  private static boolean isBodyHeader(final String name) {
+    return CONTENT_ENCODING.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name) || CONTENT_TYPE.equalsIgnoreCase(name);
+  }
+}
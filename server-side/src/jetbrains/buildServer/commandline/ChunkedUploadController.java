@@ -0,0 +1,140 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.File;
+import java.io.PrintWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Resumable patch upload in chunks. A session is identified by SHA-256 of the patch and kept per user:
+ * <ul>
+ * <li>{@code action=start&session=<hash>&length=<bytes>&chunkSize=<bytes>} starts or resumes the session and answers with indices of received chunks</li>
+ * <li>{@code session=<hash>&index=<chunk>} with the chunk as the body and its CRC32 in {@link #CHECKSUM_HEADER} stores the chunk</li>
+ * <li>{@code action=commit&session=<hash>} with the regular upload parameters forwards the assembled patch to the patch upload controller</li>
+ * </ul>
+ * Sessions longer than the limit are refused, sessions of all users not touched for a day are deleted.
+ */
+public class ChunkedUploadController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandline/chunks.html";
+  @NonNls static final String CHUNKS_HEADER = "X-TeamCity-CommandLine-Chunks";
+  @NonNls static final String CHECKSUM_HEADER = "X-TeamCity-CommandLine-Checksum";
+  @NonNls private static final String START = "start";
+  @NonNls private static final String COMMIT = "commit";
+
+  @NonNls static final String MAX_LENGTH_PROPERTY = "teamcity.commandline.chunks.maxLength";
+  static final long DEFAULT_MAX_LENGTH = 1024L * 1024 * 1024;
+
+  private static final long STALE_SESSION_AGE = 24L * 60 * 60 * 1000;
+  private static final long SWEEP_INTERVAL = 60L * 60 * 1000;
+
+  private final WebControllerManager myWebControllerManager;
+  private final File myRoot;
+  private final long myMaxLength;
+  private long myLastSweep;
+
+  public ChunkedUploadController(final WebControllerManager webControllerManager, final ServerPaths serverPaths) {
+    this(webControllerManager, new File(serverPaths.getCachesDir(), "commandline-uploads"), TeamCityProperties.getLong(MAX_LENGTH_PROPERTY, DEFAULT_MAX_LENGTH));
+  }
+
+  ChunkedUploadController(final WebControllerManager webControllerManager, @NotNull final File root, final long maxLength) {
+    myWebControllerManager = webControllerManager;
+    myRoot = root;
+    myMaxLength = maxLength;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+    // sessions left from before the restart
+    sweep();
+  }
+
+  /**
+   * Deletes stale sessions of all users at most once per interval
+   */
+  private void sweep() {
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now - myLastSweep < SWEEP_INTERVAL) {
+        return;
+      }
+      myLastSweep = now;
+    }
+    ChunkedUploadSession.deleteStale(myRoot, STALE_SESSION_AGE);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final SUser user = SessionUser.getUser(request);
+    if (user == null) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+      return null;
+    }
+    if (!"POST".equals(request.getMethod())) {
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return null;
+    }
+    process(user.getId(), request, response);
+    return null;
+  }
+
+  void process(final long userId, @NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final File userRoot = new File(myRoot, String.valueOf(userId));
+    final String hash = request.getParameter("session");
+    final String action = request.getParameter("action");
+    try {
+      if (START.equals(action)) {
+        sweep();
+        final ChunkedUploadSession session = ChunkedUploadSession.start(userRoot, hash, Long.parseLong(request.getParameter("length")),
+                                                                        Integer.parseInt(request.getParameter("chunkSize")), myMaxLength);
+        response.setContentType("text/plain");
+        final PrintWriter writer = response.getWriter();
+        for (final Integer index : session.getReceivedChunks()) {
+          writer.print(index);
+          writer.print('\n');
+        }
+        writer.flush();
+        return;
+      }
+
+      final ChunkedUploadSession session = hash != null ? ChunkedUploadSession.open(userRoot, hash) : null;
+      if (session == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "Upload session is not started: " + hash);
+        return;
+      }
+      if (COMMIT.equals(action)) {
+        if (!session.isComplete()) {
+          response.sendError(HttpServletResponse.SC_CONFLICT, "Upload session is not complete: " + hash);
+          return;
+        }
+        BodyRequest.forwardPatch(request, response, session.getPatchFile());
+        if (response.getStatus() < 400) {
+          session.delete();
+        }
+        return;
+      }
+      final String checksum = request.getHeader(CHECKSUM_HEADER);
+      if (checksum == null) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, CHECKSUM_HEADER + " header is required");
+        return;
+      }
+      session.writeChunk(Integer.parseInt(request.getParameter("index")), request.getInputStream(), Long.parseLong(checksum.trim()));
+      response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    } catch (ChunkedUploadSession.PatchTooLongException e) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+    } catch (IllegalArgumentException e) {
+      // NumberFormatException included
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,235 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Patch uploaded in chunks, see {@link ChunkedUploadController}. The session folder keeps the patch file, its length and chunk size
+ * and a marker per received chunk, so an interrupted upload is resumed with the missing chunks only. Chunks are written at their offsets
+ * and may come in any order and in parallel.
+ */
+public class ChunkedUploadSession {
+
+  static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  @NonNls private static final String SESSION_FILE = "session.properties";
+  @NonNls private static final String PATCH_FILE = "patch";
+  @NonNls private static final String CHUNK_SUFFIX = ".chunk";
+  @NonNls private static final String LENGTH = "length";
+  @NonNls private static final String CHUNK_SIZE = "chunkSize";
+
+  private final File myFolder;
+  private final String myHash;
+  private final long myLength;
+  private final int myChunkSize;
+
+  private ChunkedUploadSession(@NotNull final File folder, @NotNull final String hash, final long length, final int chunkSize) {
+    myFolder = folder;
+    myHash = hash;
+    myLength = length;
+    myChunkSize = chunkSize;
+  }
+
+  /**
+   * Opens the session of the patch or starts it again if it has been started with other parameters
+   * @param hash SHA-256 of the whole patch
+   * @param maxLength the longest patch accepted
+   * @throws PatchTooLongException if the patch is longer than the limit
+   */
+  @NotNull
+  public static synchronized ChunkedUploadSession start(@NotNull final File root, @NotNull final String hash, final long length, final int chunkSize,
+                                                        final long maxLength) throws IOException {
+    if (!BlobStore.isValidHash(hash) || length < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException(String.format("Invalid upload session: %s, %d bytes in chunks of %d", hash, length, chunkSize));
+    }
+    if (length > maxLength) {
+      throw new PatchTooLongException(length, maxLength);
+    }
+    final File folder = new File(root, hash);
+    final ChunkedUploadSession existing = open(root, hash);
+    if (existing != null && existing.myLength == length && existing.myChunkSize == chunkSize) {
+      //noinspection ResultOfMethodCallIgnored
+      folder.setLastModified(System.currentTimeMillis());
+      return existing;
+    }
+    FileUtil.delete(folder);
+    FileUtil.createDir(folder);
+    final Properties properties = new Properties();
+    properties.setProperty(LENGTH, String.valueOf(length));
+    properties.setProperty(CHUNK_SIZE, String.valueOf(chunkSize));
+    if (!new File(folder, PATCH_FILE).createNewFile()) {
+      throw new IOException("Could not create patch file in " + folder);
+    }
+    final OutputStream out = new FileOutputStream(new File(folder, SESSION_FILE));
+    try {
+      properties.store(out, null);
+    } finally {
+      out.close();
+    }
+    return new ChunkedUploadSession(folder, hash, length, chunkSize);
+  }
+
+  /**
+   * @return started session or null
+   */
+  @Nullable
+  public static ChunkedUploadSession open(@NotNull final File root, @NotNull final String hash) throws IOException {
+    if (!BlobStore.isValidHash(hash)) {
+      return null;
+    }
+    final File folder = new File(root, hash);
+    final File sessionFile = new File(folder, SESSION_FILE);
+    if (!sessionFile.isFile()) {
+      return null;
+    }
+    final Properties properties = new Properties();
+    final InputStream in = new FileInputStream(sessionFile);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    try {
+      return new ChunkedUploadSession(folder, hash, Long.parseLong(properties.getProperty(LENGTH)), Integer.parseInt(properties.getProperty(CHUNK_SIZE)));
+    } catch (NumberFormatException e) {
+      throw new IOException("Corrupted upload session " + folder, e);
+    }
+  }
+
+  /**
+   * Deletes sessions of all users not touched for the given time
+   * @param root folder with a folder of sessions per user
+   */
+  public static synchronized void deleteStale(@NotNull final File root, final long maxAge) {
+    final File[] users = root.listFiles();
+    if (users == null) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    for (final File user : users) {
+      final File[] folders = user.listFiles();
+      if (folders == null) {
+        continue;
+      }
+      for (final File folder : folders) {
+        if (now - folder.lastModified() > maxAge) {
+          FileUtil.delete(folder);
+        }
+      }
+      final String[] left = user.list();
+      if (left != null && left.length == 0) {
+        FileUtil.delete(user);
+      }
+    }
+  }
+
+  public int getChunkCount() {
+    return (int) ((myLength + myChunkSize - 1) / myChunkSize);
+  }
+
+  public int getChunkLength(final int index) {
+    return (int) Math.min(myChunkSize, myLength - (long) index * myChunkSize);
+  }
+
+  @NotNull
+  public SortedSet<Integer> getReceivedChunks() {
+    final SortedSet<Integer> result = new TreeSet<Integer>();
+    final File[] files = myFolder.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        if (file.getName().endsWith(CHUNK_SUFFIX)) {
+          try {
+            result.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - CHUNK_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            // not a marker
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads the chunk and writes it at its offset, the chunk is marked as received if its checksum matches
+   * @param crc32 CRC32 of the chunk
+   */
+  public void writeChunk(final int index, @NotNull final InputStream content, final long crc32) throws IOException {
+    if (index < 0 || index >= getChunkCount()) {
+      throw new IllegalArgumentException(String.format("Chunk %d is out of %d", index, getChunkCount()));
+    }
+    final byte[] chunk = new byte[getChunkLength(index)];
+    new DataInputStream(content).readFully(chunk);
+    if (content.read() >= 0) {
+      throw new IllegalArgumentException(String.format("Chunk %d is longer than %d bytes", index, chunk.length));
+    }
+    final CRC32 checksum = new CRC32();
+    checksum.update(chunk);
+    if (checksum.getValue() != crc32) {
+      throw new IllegalArgumentException(String.format("Checksum of chunk %d does not match", index));
+    }
+    final RandomAccessFile patch = new RandomAccessFile(getPatchFile(), "rw");
+    try {
+      patch.seek((long) index * myChunkSize);
+      patch.write(chunk);
+    } finally {
+      patch.close();
+    }
+    //noinspection ResultOfMethodCallIgnored
+    new File(myFolder, index + CHUNK_SUFFIX).createNewFile(); // may be received already
+    myFolder.setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * @return true if every chunk has been received and the patch has the hash of the session
+   */
+  public boolean isComplete() throws IOException {
+    if (getReceivedChunks().size() != getChunkCount() || getPatchFile().length() != myLength) {
+      return false;
+    }
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    final byte[] buffer = new byte[64 * 1024];
+    final InputStream in = new DigestInputStream(new FileInputStream(getPatchFile()), digest);
+    try {
+      while (in.read(buffer) >= 0) {
+        // digest
+      }
+    } finally {
+      in.close();
+    }
+    return myHash.equals(BlobPatchConverter.toHex(digest.digest()));
+  }
+
+  @NotNull
+  public File getPatchFile() {
+    return new File(myFolder, PATCH_FILE);
+  }
+
+  public void delete() {
+    FileUtil.delete(myFolder);
+  }
+
+  /**
+   * The declared patch length is over the limit of the server
+   */
+  public static class PatchTooLongException extends IOException {
+    public PatchTooLongException(final long length, final long maxLength) {
+      super(String.format("Patch of %d bytes is longer than %d bytes the server accepts in chunks", length, maxLength));
+    }
+  }
+
+}
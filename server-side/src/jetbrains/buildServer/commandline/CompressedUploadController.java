@@ -0,0 +1,99 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Accepts personal change patches compressed with gzip Content-Encoding from the command line tool.
+ * The body is decompressed as a stream and the request is forwarded to the regular patch upload controller.
+ * Patches referring to stored contents are converted into regular ones by {@link BlobPatchConverter} first.
+ * A GET request answers with the supported encodings, content hashes and the maximum chunk size of {@link ChunkedUploadController},
+ * so clients can check for the plugin before sending a patch.
+ */
+public class CompressedUploadController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandline/uploadChanges.html";
+  @NonNls static final String ENCODINGS_HEADER = "X-TeamCity-CommandLine-Encodings";
+  @NonNls static final String BLOBS_HEADER = "X-TeamCity-CommandLine-Blobs";
+  @NonNls private static final String BLOB_HASH = "sha-256";
+  @NonNls private static final String GZIP = "gzip";
+  @NonNls private static final String IDENTITY = "identity";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final WebControllerManager myWebControllerManager;
+  private final BlobStore myBlobStore;
+
+  public CompressedUploadController(final WebControllerManager webControllerManager, final BlobStore blobStore) {
+    myWebControllerManager = webControllerManager;
+    myBlobStore = blobStore;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    if (!"POST".equals(request.getMethod())) {
+      response.setHeader(ENCODINGS_HEADER, GZIP);
+      response.setHeader(BLOBS_HEADER, BLOB_HASH);
+      response.setHeader(ChunkedUploadController.CHUNKS_HEADER, String.valueOf(ChunkedUploadSession.MAX_CHUNK_SIZE));
+      response.setContentType("text/plain");
+      response.getWriter().print(GZIP);
+      return null;
+    }
+    final String encoding = request.getHeader(BodyRequest.CONTENT_ENCODING);
+    final InputStream body;
+    if (encoding == null || IDENTITY.equalsIgnoreCase(encoding.trim())) {
+      body = null;
+    } else if (GZIP.equalsIgnoreCase(encoding.trim())) {
+      body = new GZIPInputStream(request.getInputStream(), BUFFER_SIZE);
+    } else {
+      response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported " + BodyRequest.CONTENT_ENCODING + ": " + encoding);
+      return null;
+    }
+    final String contentType = request.getContentType();
+    if (contentType != null && contentType.startsWith(BlobPatchConverter.CONTENT_TYPE)) {
+      forwardConverted(request, response, body != null ? body : request.getInputStream());
+      return null;
+    }
+    request.getRequestDispatcher(BodyRequest.UPLOAD_PATH).forward(body != null ? new BodyRequest(request, body, -1) : request, response);
+    return null;
+  }
+
+  private void forwardConverted(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response,
+                                @NotNull final InputStream blobPatch) throws Exception {
+    final SUser user = SessionUser.getUser(request);
+    if (user == null) {
+      response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+      return;
+    }
+    final File patch = FileUtil.createTempFile("commandline", ".patch");
+    try {
+      final OutputStream out = new FileOutputStream(patch);
+      try {
+        new BlobPatchConverter(myBlobStore, user.getId()).convert(blobPatch, out);
+      } catch (BlobPatchConverter.MissingBlobException e) {
+        response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+        return;
+      } finally {
+        out.close();
+      }
+      BodyRequest.forwardPatch(request, response, patch);
+    } finally {
+      FileUtil.delete(patch);
+    }
+  }
+
+}
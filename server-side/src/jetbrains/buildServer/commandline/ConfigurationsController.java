@@ -0,0 +1,187 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.util.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.vcs.VcsManager;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.vcs.api.services.tc.VcsMappingElement;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Resolves the build configurations the command line tool is asked to run on, given by external ids in the <code>buildTypes</code>
+ * parameter or by a project id in the <code>project</code> one. The tool may post repository paths of its changes, one per line,
+ * then every configuration is also checked whether its VCS mapping covers any of them. Every line of the answer is
+ * <code>requested id, internal id, applicability</code> separated by tabs; applicability is 1, 0 or - if no paths are posted.
+ */
+public class ConfigurationsController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandline/configurations.html";
+
+  private static final int MAX_PATHS = 100000;
+  private static final int MAX_CACHED_MAPPINGS = 1000;
+
+  private final WebControllerManager myWebControllerManager;
+  private final ProjectManager myProjectManager;
+  private final VcsManager myVcsManager;
+  private final SecurityContext mySecurityContext;
+
+  /**
+   * Repository path prefixes of build configurations with the settings stamp they were generated for
+   */
+  private final Map<String, MappingPrefixes> myPrefixes = new LinkedHashMap<String, MappingPrefixes>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, MappingPrefixes> eldest) {
+      return size() > MAX_CACHED_MAPPINGS;
+    }
+  };
+
+  public ConfigurationsController(final WebControllerManager webControllerManager,
+                                  final ProjectManager projectManager, final VcsManager vcsManager,
+                                  final SecurityContext securityContext) {
+    myWebControllerManager = webControllerManager;
+    myProjectManager = projectManager;
+    myVcsManager = vcsManager;
+    mySecurityContext = securityContext;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    final Map<String, SBuildType> buildTypes = new LinkedHashMap<String, SBuildType>();
+    final String projectId = request.getParameter("project");
+    final String buildTypeIds = request.getParameter("buildTypes");
+    if (projectId != null && projectId.trim().length() > 0) {
+      final SProject project = findProject(projectId.trim());
+      if (project != null) {
+        for (final SBuildType buildType : project.getOwnBuildTypes()) {
+          buildTypes.put(buildType.getBuildTypeId(), buildType);
+        }
+      }
+    } else if (buildTypeIds != null) {
+      for (String id : buildTypeIds.split(",")) {
+        id = id.trim();
+        final SBuildType buildType = id.length() > 0 ? findBuildType(id) : null;
+        if (buildType != null) {
+          buildTypes.put(id, buildType);
+        }
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Either project or buildTypes parameter is expected");
+      return null;
+    }
+
+    List<String> paths = null;
+    if ("POST".equals(request.getMethod())) {
+      paths = new ArrayList<String>();
+      final BufferedReader reader = request.getReader();
+      String path;
+      while ((path = reader.readLine()) != null) {
+        if (path.length() == 0) {
+          continue;
+        }
+        if (paths.size() >= MAX_PATHS) {
+          response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "At most " + MAX_PATHS + " paths are accepted");
+          return null;
+        }
+        paths.add(path);
+      }
+    }
+
+    final StringBuilder result = new StringBuilder();
+    for (final Map.Entry<String, SBuildType> entry : buildTypes.entrySet()) {
+      final SBuildType buildType = entry.getValue();
+      final String applicable = paths == null ? "-" : isApplicable(buildType, paths) ? "1" : "0";
+      result.append(projectId != null ? projectId.trim() : entry.getKey()).append('\t')
+            .append(buildType.getBuildTypeId()).append('\t').append(applicable).append('\n');
+    }
+    response.setContentType("text/plain");
+    final PrintWriter writer = response.getWriter();
+    writer.print(result);
+    writer.flush();
+    return null;
+  }
+
+  @Nullable
+  private SProject findProject(@NotNull final String id) {
+    SProject project = myProjectManager.findProjectByExternalId(id);
+    if (project == null) {
+      project = myProjectManager.findProjectById(id);
+    }
+    return project != null && isVisible(project.getProjectId()) ? project : null;
+  }
+
+  @Nullable
+  private SBuildType findBuildType(@NotNull final String id) {
+    SBuildType buildType = myProjectManager.findBuildTypeByExternalId(id);
+    if (buildType == null) {
+      buildType = myProjectManager.findBuildTypeById(id);
+    }
+    return buildType != null && isVisible(buildType.getProjectId()) ? buildType : null;
+  }
+
+  private boolean isVisible(@NotNull final String projectId) {
+    return mySecurityContext.getAuthorityHolder().isPermissionGrantedForProject(projectId, Permission.VIEW_PROJECT);
+  }
+
+  /**
+   * @return true if a path lies under a prefix of the build configuration's VCS mapping, the command line tool builds repository paths from the same mapping
+   */
+  private boolean isApplicable(@NotNull final SBuildType buildType, @NotNull final List<String> paths) {
+    final Collection<String> prefixes = getPrefixes(buildType);
+    for (final String path : paths) {
+      for (final String prefix : prefixes) {
+        if (path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/' || prefix.endsWith("/"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @NotNull
+  private Collection<String> getPrefixes(@NotNull final SBuildType buildType) {
+    final MappingGenerator generator = new MappingGenerator(myVcsManager, buildType);
+    final String stamp = generator.getSettingsStamp();
+    synchronized (myPrefixes) {
+      final MappingPrefixes cached = myPrefixes.get(buildType.getBuildTypeId());
+      if (cached != null && cached.myStamp.equals(stamp)) {
+        return cached.myPrefixes;
+      }
+    }
+    generator.generateVcsMapping();
+    final Set<String> prefixes = new HashSet<String>();
+    for (final VcsMappingElement mapping : generator.getMappings()) {
+      prefixes.add(mapping.getTo());
+    }
+    synchronized (myPrefixes) {
+      myPrefixes.put(buildType.getBuildTypeId(), new MappingPrefixes(stamp, prefixes));
+    }
+    return prefixes;
+  }
+
+  private static class MappingPrefixes {
+    private final String myStamp;
+    private final Collection<String> myPrefixes;
+
+    private MappingPrefixes(@NotNull final String stamp, @NotNull final Collection<String> prefixes) {
+      myStamp = stamp;
+      myPrefixes = prefixes;
+    }
+  }
+
+}
@@ -17,6 +17,7 @@ import org.jetbrains.annotations.Nullable;
 
 public class GetBuildTypeMappingAction implements ControllerAction {
   @NonNls private static final String MAPPING_FOR = "mappingFor";
+  @NonNls private static final String STAMP = "stamp";
 
   private final ProjectManager myProjectManager;
   private final VcsManager myVcsManager;
@@ -40,9 +41,25 @@ public class GetBuildTypeMappingAction implements ControllerAction {
     final SBuildType buildTypeById = myProjectManager.findBuildTypeByExternalId(btId(request));
     if (buildTypeById != null) {
       final MappingGenerator generator = new MappingGenerator(myVcsManager, buildTypeById);
+      // clients caching the mapping pass the stamp of their copy, possibly empty
+      final String knownStamp = request.getParameter(STAMP);
+      final String stamp = knownStamp != null ? generator.getSettingsStamp() : null;
+      if (stamp != null && stamp.equals(knownStamp)) {
+        if (ajaxResponse != null) {
+          final Element mapping = new Element("mapping");
+          mapping.setAttribute(STAMP, stamp);
+          mapping.setAttribute("unchanged", "true");
+          ajaxResponse.addContent((Content) mapping);
+        }
+        return;
+      }
       generator.generateVcsMapping();
-      if (generator.getMappings().size() > 0 && ajaxResponse != null) {
+      // an empty mapping is sent with its stamp too, so the client does not download it again while the settings are the same
+      if ((generator.getMappings().size() > 0 || stamp != null) && ajaxResponse != null) {
         final Element mapping = new Element("mapping");
+        if (stamp != null) {
+          mapping.setAttribute(STAMP, stamp);
+        }
         ajaxResponse.addContent((Content) mapping);
         for (VcsMappingElement mappingElement : generator.getMappings()) {
           final Element mapElement = new Element("map");
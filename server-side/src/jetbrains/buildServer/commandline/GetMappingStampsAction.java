@@ -0,0 +1,63 @@
+package jetbrains.buildServer.commandline;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseAjaxActionController;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.util.StringUtil;
+import jetbrains.buildServer.vcs.VcsManager;
+import jetbrains.buildServer.web.openapi.ControllerAction;
+import org.jdom.Content;
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Settings stamps of several build types in one request, so clients can check all their cached mappings at once
+ * and download only the changed ones with {@link GetBuildTypeMappingAction}. Unknown build types are skipped.
+ */
+public class GetMappingStampsAction implements ControllerAction {
+  @NonNls private static final String STAMPS_FOR = "mappingStampsFor";
+
+  private final ProjectManager myProjectManager;
+  private final VcsManager myVcsManager;
+  private final BaseAjaxActionController myController;
+
+  public GetMappingStampsAction(final ProjectManager projectManager,
+                                final VcsManager vcsManager,
+                                final BaseAjaxActionController controller) {
+    myProjectManager = projectManager;
+    myVcsManager = vcsManager;
+    myController = controller;
+  }
+
+  public boolean canProcess(@NotNull final HttpServletRequest request) {
+    return StringUtil.isNotEmpty(request.getParameter(STAMPS_FOR));
+  }
+
+  public void process(@NotNull final HttpServletRequest request,
+                      @NotNull final HttpServletResponse response,
+                      @Nullable final Element ajaxResponse) {
+    if (ajaxResponse == null) {
+      return;
+    }
+    final Element stamps = new Element("stamps");
+    ajaxResponse.addContent((Content) stamps);
+    for (String externalId : request.getParameter(STAMPS_FOR).split(",")) {
+      externalId = externalId.trim();
+      final SBuildType buildType = externalId.length() > 0 ? myProjectManager.findBuildTypeByExternalId(externalId) : null;
+      if (buildType != null) {
+        final Element stamp = new Element("stamp");
+        stamp.setAttribute("buildType", externalId);
+        stamp.setAttribute("value", new MappingGenerator(myVcsManager, buildType).getSettingsStamp());
+        stamps.addContent((Content) stamp);
+      }
+    }
+  }
+
+  public void register() {
+    myController.registerAction(this);
+  }
+}
@@ -1,7 +1,13 @@
 package jetbrains.buildServer.commandline;
 
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import jetbrains.buildServer.log.Loggers;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.vcs.VcsException;
@@ -11,6 +17,8 @@ import jetbrains.vcs.api.services.tc.MappingGeneratorService;
 import jetbrains.vcs.api.services.tc.VcsMappingElement;
 
 public class MappingGenerator {
+  private static final String SECURE_PROPERTY_PREFIX = "secure:";
+
   private final VcsManager myVcsManager;
   private final SBuildType myBuildType;
   private final List<VcsMappingElement> myMappings = new ArrayList<VcsMappingElement>();
@@ -26,6 +34,32 @@ public class MappingGenerator {
     return myMappings;
   }
 
+  /**
+   * @return hash of the build type VCS settings the mapping is generated from: VCS roots, their properties and checkout rules.
+   * Cheap compared to the mapping generation, so clients can check whether their copy of the mapping is still actual.
+   * Secure properties (passwords, tokens) are not hashed: the stamp is sent to clients
+   */
+  public String getSettingsStamp() {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final Charset utf8 = Charset.forName("UTF-8");
+    for (VcsRootEntry entry : myBuildType.getVcsRootInstanceEntries()) {
+      digest.update(entry.getVcsRoot().getVcsName().getBytes(utf8));
+      for (Map.Entry<String, String> property : new TreeMap<String, String>(entry.getVcsRoot().getProperties()).entrySet()) {
+        if (property.getKey().startsWith(SECURE_PROPERTY_PREFIX)) {
+          continue;
+        }
+        digest.update(("\n" + property.getKey() + "=" + property.getValue()).getBytes(utf8));
+      }
+      digest.update(("\n" + entry.getCheckoutRules().getAsString() + "\n").getBytes(utf8));
+    }
+    return String.format("%032x", new BigInteger(1, digest.digest()));
+  }
+
   public void generateVcsMapping() {
 
     for (VcsRootEntry entry : myBuildType.getVcsRootInstanceEntries()) {
@@ -0,0 +1,85 @@
+package jetbrains.buildServer.commandline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stamp which changes whenever projects or build configurations change, the command line tool keeps the projects it has got
+ * until the stamp changes. A new stamp sequence is started with every server start.
+ */
+public class ProjectsStamp extends BuildServerAdapter {
+
+  private final String myStart = Long.toString(System.currentTimeMillis(), 36);
+  private final AtomicLong myChanges = new AtomicLong();
+
+  public ProjectsStamp(@NotNull final EventDispatcher<BuildServerListener> dispatcher) {
+    dispatcher.addListener(this);
+  }
+
+  @NotNull
+  public String getStamp() {
+    return myStart + "-" + myChanges.get();
+  }
+
+  private void changed() {
+    myChanges.incrementAndGet();
+  }
+
+  @Override
+  public void serverConfigurationReloaded() {
+    changed();
+  }
+
+  @Override
+  public void projectCreated(@NotNull final String projectId, @Nullable final SUser user) {
+    changed();
+  }
+
+  @Override
+  public void projectRemoved(@NotNull final String projectId) {
+    changed();
+  }
+
+  @Override
+  public void projectPersisted(@NotNull final String projectId) {
+    changed();
+  }
+
+  @Override
+  public void projectArchived(@NotNull final String projectId) {
+    changed();
+  }
+
+  @Override
+  public void projectDearchived(@NotNull final String projectId) {
+    changed();
+  }
+
+  @Override
+  public void buildTypeRegistered(@NotNull final SBuildType buildType) {
+    changed();
+  }
+
+  @Override
+  public void buildTypeUnregistered(@NotNull final SBuildType buildType) {
+    changed();
+  }
+
+  @Override
+  public void buildTypePersisted(@NotNull final SBuildType buildType) {
+    changed();
+  }
+
+  @Override
+  public void buildTypeMoved(@NotNull final SBuildType buildType, @NotNull final SProject original) {
+    changed();
+  }
+
+}
@@ -0,0 +1,41 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.PrintWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Answers the current {@link ProjectsStamp}, so the command line tool revalidates its cached projects instead of downloading them again
+ */
+public class ProjectsStampController extends BaseController {
+
+  @NonNls static final String CONTROLLER_PATH = "/commandline/projects.html";
+
+  private final WebControllerManager myWebControllerManager;
+  private final ProjectsStamp myStamp;
+
+  public ProjectsStampController(final WebControllerManager webControllerManager, final ProjectsStamp stamp) {
+    myWebControllerManager = webControllerManager;
+    myStamp = stamp;
+  }
+
+  public void register() {
+    myWebControllerManager.registerController(CONTROLLER_PATH, this);
+  }
+
+  @Override
+  protected ModelAndView doHandle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+    response.setContentType("text/plain");
+    response.setHeader("Cache-Control", "no-cache");
+    final PrintWriter writer = response.getWriter();
+    writer.print(myStamp.getStamp());
+    writer.flush();
+    return null;
+  }
+
+}
@@ -0,0 +1,70 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class BlobControllerTest extends BaseTestCase {
+  private static final String HASH1 = "1111111111111111111111111111111111111111111111111111111111111111";
+  private static final String HASH2 = "2222222222222222222222222222222222222222222222222222222222222222";
+  private static final long USER1 = 1;
+  private static final long USER2 = 2;
+
+  private BlobStore myStore;
+  private BlobController myController;
+  private HttpServletResponse myResponse;
+  private StringWriter myBody;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStore = new BlobStore(createTempDir(), 1000);
+    myController = new BlobController(null, myStore);
+    final Mockery context = new Mockery();
+    myResponse = context.mock(HttpServletResponse.class);
+    myBody = new StringWriter();
+    context.checking(new Expectations() {{
+      allowing(myResponse).setContentType("text/plain");
+      allowing(myResponse).getWriter(); will(returnValue(new PrintWriter(myBody)));
+    }});
+  }
+
+  public void should_answer_with_missing_hashes() throws Exception {
+    storeContent(USER1, HASH1);
+
+    myController.negotiate(USER1, new BufferedReader(new StringReader(HASH1 + "\n\n " + HASH2 + " \n")), myResponse);
+
+    assertEquals(HASH2 + "\n", myBody.toString());
+  }
+
+  public void should_not_reveal_contents_of_other_users() throws Exception {
+    storeContent(USER1, HASH1);
+
+    myController.negotiate(USER2, new BufferedReader(new StringReader(HASH1 + "\n")), myResponse);
+
+    assertEquals(HASH1 + "\n", myBody.toString());
+  }
+
+  public void should_answer_invalid_hash_as_missing() throws Exception {
+    myController.negotiate(USER1, new BufferedReader(new StringReader("../11\n")), myResponse);
+
+    assertEquals("../11\n", myBody.toString());
+  }
+
+  private void storeContent(final long userId, final String hash) throws Exception {
+    final File file = myStore.createTempFile();
+    FileUtil.writeFile(file, "content", "US-ASCII");
+    myStore.put(userId, hash, file);
+  }
+}
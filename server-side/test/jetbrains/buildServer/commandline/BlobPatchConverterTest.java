@@ -0,0 +1,152 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class BlobPatchConverterTest extends BaseTestCase {
+  private static final String HASH = "1111111111111111111111111111111111111111111111111111111111111111";
+  private static final long USER1 = 1;
+  private static final long USER2 = 2;
+
+  private File myBase;
+  private BlobStore myStore;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myBase = new File(createTempDir(), "base");
+    FileUtil.writeFile(myBase, "first\nsecond\nthird\n", "US-ASCII");
+    myStore = new BlobStore(createTempDir(), 1000);
+  }
+
+  public void should_resolve_reference() throws Exception {
+    storeContent(USER1, "stored content");
+
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    new BlobPatchConverter(myStore, USER1).convert(new ByteArrayInputStream(createReferencePatch("a.txt", 14)), patch);
+
+    assertTrue(patch.toString("US-ASCII").contains("stored content"));
+  }
+
+  public void should_not_resolve_reference_to_content_of_other_user() throws Exception {
+    storeContent(USER1, "stored content");
+    try {
+      new BlobPatchConverter(myStore, USER2).convert(new ByteArrayInputStream(createReferencePatch("a.txt", 14)), new ByteArrayOutputStream());
+      fail("Content of another user referenced");
+    } catch (BlobPatchConverter.MissingBlobException e) {
+      // expected
+    }
+  }
+
+  public void should_not_resolve_reference_of_other_length() throws Exception {
+    storeContent(USER1, "stored content");
+    try {
+      new BlobPatchConverter(myStore, USER1).convert(new ByteArrayInputStream(createReferencePatch("a.txt", 15)), new ByteArrayOutputStream());
+      fail("Reference of wrong length accepted");
+    } catch (BlobPatchConverter.MissingBlobException e) {
+      // expected
+    }
+  }
+
+  public void should_apply_delta() throws Exception {
+    final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(delta);
+    out.writeByte(BlobPatchConverter.DELTA_COPY);
+    out.writeLong(13);
+    out.writeInt(6);
+    out.writeByte(BlobPatchConverter.DELTA_INSERT);
+    out.writeInt(4);
+    out.write("new\n".getBytes("US-ASCII"));
+    out.writeByte(BlobPatchConverter.DELTA_COPY);
+    out.writeLong(0);
+    out.writeInt(6);
+    out.writeByte(BlobPatchConverter.DELTA_END);
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    applyDelta(delta.toByteArray(), 16, result);
+
+    assertEquals("third\nnew\nfirst\n", result.toString("US-ASCII"));
+  }
+
+  public void should_reject_copy_outside_of_base() throws Exception {
+    final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(delta);
+    out.writeByte(BlobPatchConverter.DELTA_COPY);
+    out.writeLong(10);
+    out.writeInt(100);
+    out.writeByte(BlobPatchConverter.DELTA_END);
+    try {
+      applyDelta(delta.toByteArray(), 100, new ByteArrayOutputStream());
+      fail("Copy outside of the base accepted");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void should_check_length() throws Exception {
+    final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(delta);
+    out.writeByte(BlobPatchConverter.DELTA_COPY);
+    out.writeLong(0);
+    out.writeInt(6);
+    out.writeByte(BlobPatchConverter.DELTA_END);
+    try {
+      applyDelta(delta.toByteArray(), 7, new ByteArrayOutputStream());
+      fail("Wrong length accepted");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void should_reject_delta_over_limit() throws Exception {
+    storeContent(USER1, "stored content");
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(patch);
+    out.writeInt(BlobPatchConverter.VERSION);
+    out.writeByte(BlobPatchConverter.DELTA);
+    out.writeUTF("a.txt");
+    out.writeUTF(HASH);
+    out.writeLong(Long.MAX_VALUE);
+    out.writeInt(Integer.MAX_VALUE);
+    out.flush();
+    try {
+      new BlobPatchConverter(myStore, USER1).convert(new ByteArrayInputStream(patch.toByteArray()), new ByteArrayOutputStream());
+      fail("Delta over the limit accepted");
+    } catch (IOException e) {
+      assertFalse(e instanceof BlobPatchConverter.MissingBlobException);
+    }
+  }
+
+  private void applyDelta(final byte[] delta, final long length, final OutputStream out) throws IOException {
+    final RandomAccessFile base = new RandomAccessFile(myBase, "r");
+    try {
+      BlobPatchConverter.applyDelta(base, delta, length, out);
+    } finally {
+      base.close();
+    }
+  }
+
+  private void storeContent(final long userId, final String content) throws IOException {
+    final File file = myStore.createTempFile();
+    FileUtil.writeFile(file, content, "US-ASCII");
+    myStore.put(userId, HASH, file);
+  }
+
+  private static byte[] createReferencePatch(final String path, final long length) throws IOException {
+    final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(patch);
+    out.writeInt(BlobPatchConverter.VERSION);
+    out.writeByte(BlobPatchConverter.REFERENCE);
+    out.writeUTF(path);
+    out.writeUTF(HASH);
+    out.writeLong(length);
+    out.writeByte(BlobPatchConverter.END);
+    out.flush();
+    return patch.toByteArray();
+  }
+}
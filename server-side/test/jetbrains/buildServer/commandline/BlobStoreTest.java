@@ -0,0 +1,110 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class BlobStoreTest extends BaseTestCase {
+  private static final String HASH1 = "1111111111111111111111111111111111111111111111111111111111111111";
+  private static final String HASH2 = "2222222222222222222222222222222222222222222222222222222222222222";
+  private static final String HASH3 = "3333333333333333333333333333333333333333333333333333333333333333";
+
+  private static final long USER1 = 1;
+  private static final long USER2 = 2;
+
+  private File myRoot;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = createTempDir();
+  }
+
+  public void should_store_content() throws Exception {
+    final BlobStore store = new BlobStore(myRoot, 1000);
+    assertFalse(store.contains(USER1, HASH1));
+
+    store.put(USER1, HASH1, createContent(store, 10));
+
+    assertTrue(store.contains(USER1, HASH1));
+    final RandomAccessFile content = store.open(USER1, HASH1);
+    try {
+      assertEquals(10, content.length());
+    } finally {
+      content.close();
+    }
+  }
+
+  public void should_keep_contents_per_user() throws Exception {
+    final BlobStore store = new BlobStore(myRoot, 1000);
+    store.put(USER1, HASH1, createContent(store, 10));
+
+    assertFalse(store.contains(USER2, HASH1));
+    assertNull(store.open(USER2, HASH1));
+
+    store.put(USER2, HASH1, createContent(store, 10));
+    assertTrue(store.contains(USER2, HASH1));
+  }
+
+  public void opened_content_should_survive_eviction() throws Exception {
+    final BlobStore store = new BlobStore(myRoot, 50);
+    store.put(USER1, HASH1, createContent(store, 100));
+    final RandomAccessFile content = store.open(USER1, HASH1);
+    try {
+      // removed on POSIX file systems, kept while open on Windows
+      store.evict();
+      final byte[] read = new byte[100];
+      content.readFully(read);
+      assertEquals('a', read[99]);
+    } finally {
+      content.close();
+    }
+  }
+
+  public void should_reject_invalid_hash() throws Exception {
+    final BlobStore store = new BlobStore(myRoot, 1000);
+    assertNull(store.open(USER1, "../" + HASH1.substring(3)));
+    assertFalse(store.contains(USER1, HASH1.toUpperCase()));
+
+    final File content = createContent(store, 10);
+    try {
+      store.put(USER1, "abc", content);
+      fail("Invalid hash accepted");
+    } catch (IOException e) {
+      assertFalse(content.exists());
+    }
+  }
+
+  public void should_evict_least_recently_used() throws Exception {
+    final BlobStore store = new BlobStore(myRoot, 250);
+    store.put(USER1, HASH1, createContent(store, 100));
+    store.put(USER2, HASH2, createContent(store, 100));
+    getFile(USER1, HASH1).setLastModified(System.currentTimeMillis() - 20000);
+    getFile(USER2, HASH2).setLastModified(System.currentTimeMillis() - 10000);
+    // negotiated again: becomes the most recently used one
+    assertTrue(store.contains(USER1, HASH1));
+
+    store.put(USER1, HASH3, createContent(store, 100));
+    store.evict();
+
+    assertTrue(getFile(USER1, HASH1).isFile());
+    assertFalse(getFile(USER2, HASH2).isFile());
+    assertTrue(getFile(USER1, HASH3).isFile());
+  }
+
+  private File getFile(final long userId, final String hash) {
+    return new File(new File(new File(myRoot, String.valueOf(userId)), hash.substring(0, 2)), hash);
+  }
+
+  private static File createContent(final BlobStore store, final int length) throws Exception {
+    final File file = store.createTempFile();
+    FileUtil.writeFile(file, new String(new char[length]).replace('\0', 'a'), "US-ASCII");
+    return file;
+  }
+}
@@ -0,0 +1,179 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.BaseTestCase;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ChunkedUploadControllerTest extends BaseTestCase {
+  private static final long USER = 1;
+  private static final long MAX_LENGTH = 100000;
+  private static final int CHUNK_SIZE = 4096;
+
+  private Mockery myContext;
+  private File myRoot;
+  private ChunkedUploadController myController;
+  private byte[] myPatch;
+  private String myHash;
+  private HttpServletRequest myForwarded;
+  private byte[] myForwardedBody;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myContext = new Mockery();
+    myRoot = createTempDir();
+    myController = new ChunkedUploadController(null, myRoot, MAX_LENGTH);
+    myPatch = new byte[10000];
+    for (int i = 0; i < myPatch.length; i++) {
+      myPatch[i] = (byte) (i * 7);
+    }
+    myHash = BlobPatchConverter.toHex(MessageDigest.getInstance("SHA-256").digest(myPatch));
+    myForwarded = null;
+    myForwardedBody = null;
+  }
+
+  public void should_upload_and_commit_patch() throws Exception {
+    assertEquals("", start(myPatch.length));
+    writeChunk(2);
+    writeChunk(0);
+    // resumed
+    assertEquals("0\n2\n", start(myPatch.length));
+    writeChunk(1);
+
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class, "commit");
+    myContext.checking(new Expectations() {{
+      allowing(response).getStatus(); will(returnValue(HttpServletResponse.SC_OK));
+    }});
+    myController.process(USER, mockRequest(parameters("action", "commit", "session", myHash), null, new byte[0]), response);
+
+    assertNotNull(myForwarded);
+    assertEquals(myPatch.length, myForwarded.getContentLength());
+    assertTrue(Arrays.equals(myPatch, myForwardedBody));
+    assertNull(ChunkedUploadSession.open(new File(myRoot, String.valueOf(USER)), myHash));
+  }
+
+  public void should_refuse_patch_over_limit() throws Exception {
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    myContext.checking(new Expectations() {{
+      one(response).sendError(with(equal(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE)), with(any(String.class)));
+    }});
+
+    myController.process(USER, mockRequest(parameters("action", "start", "session", myHash, "length", String.valueOf(MAX_LENGTH + 1),
+                                                      "chunkSize", String.valueOf(CHUNK_SIZE)), null, new byte[0]), response);
+
+    myContext.assertIsSatisfied();
+  }
+
+  public void should_not_take_chunk_of_session_not_started() throws Exception {
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    myContext.checking(new Expectations() {{
+      one(response).sendError(with(equal(HttpServletResponse.SC_NOT_FOUND)), with(any(String.class)));
+    }});
+
+    myController.process(USER, mockRequest(parameters("session", myHash, "index", "0"), "0", new byte[0]), response);
+
+    myContext.assertIsSatisfied();
+  }
+
+  public void should_keep_sessions_per_user() throws Exception {
+    start(myPatch.length);
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    myContext.checking(new Expectations() {{
+      one(response).sendError(with(equal(HttpServletResponse.SC_NOT_FOUND)), with(any(String.class)));
+    }});
+
+    myController.process(USER + 1, mockRequest(parameters("session", myHash, "index", "0"), "0", new byte[0]), response);
+
+    myContext.assertIsSatisfied();
+  }
+
+  public void should_require_checksum() throws Exception {
+    start(myPatch.length);
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    myContext.checking(new Expectations() {{
+      one(response).sendError(with(equal(HttpServletResponse.SC_BAD_REQUEST)), with(any(String.class)));
+    }});
+
+    myController.process(USER, mockRequest(parameters("session", myHash, "index", "0"), null, new byte[0]), response);
+
+    myContext.assertIsSatisfied();
+  }
+
+  private String start(final long length) throws Exception {
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class, "start" + System.nanoTime());
+    final StringWriter body = new StringWriter();
+    myContext.checking(new Expectations() {{
+      one(response).setContentType("text/plain");
+      allowing(response).getWriter(); will(returnValue(new PrintWriter(body)));
+    }});
+    myController.process(USER, mockRequest(parameters("action", "start", "session", myHash, "length", String.valueOf(length),
+                                                      "chunkSize", String.valueOf(CHUNK_SIZE)), null, new byte[0]), response);
+    myContext.assertIsSatisfied();
+    return body.toString();
+  }
+
+  private void writeChunk(final int index) throws Exception {
+    final byte[] chunk = Arrays.copyOfRange(myPatch, index * CHUNK_SIZE, Math.min(myPatch.length, (index + 1) * CHUNK_SIZE));
+    final CRC32 checksum = new CRC32();
+    checksum.update(chunk);
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class, "chunk" + System.nanoTime());
+    myContext.checking(new Expectations() {{
+      one(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }});
+    myController.process(USER, mockRequest(parameters("session", myHash, "index", String.valueOf(index)), String.valueOf(checksum.getValue()), chunk),
+                         response);
+    myContext.assertIsSatisfied();
+  }
+
+  private static Map<String, String> parameters(final String... namesAndValues) {
+    final Map<String, String> result = new HashMap<String, String>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      result.put(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return result;
+  }
+
+  private HttpServletRequest mockRequest(final Map<String, String> parameters, final String checksum, final byte[] body) {
+    final HttpServletRequest request = myContext.mock(HttpServletRequest.class, "request" + System.nanoTime());
+    final RequestDispatcher dispatcher = new RequestDispatcher() {
+      public void forward(final ServletRequest forwarded, final ServletResponse response) throws IOException {
+        myForwarded = (HttpServletRequest) forwarded;
+        // the patch file is closed once forwarded
+        myForwardedBody = MockBody.readAll(forwarded.getInputStream());
+      }
+
+      public void include(final ServletRequest included, final ServletResponse response) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    myContext.checking(new Expectations() {{
+      for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+        allowing(request).getParameter(parameter.getKey()); will(returnValue(parameter.getValue()));
+      }
+      allowing(request).getParameter(with(any(String.class))); will(returnValue(null));
+      allowing(request).getHeader(ChunkedUploadController.CHECKSUM_HEADER); will(returnValue(checksum));
+      allowing(request).getHeader(with(any(String.class))); will(returnValue(null));
+      allowing(request).getInputStream(); will(returnValue(new MockBody(body)));
+      allowing(request).getRequestDispatcher(BodyRequest.UPLOAD_PATH); will(returnValue(dispatcher));
+    }});
+    return request;
+  }
+}
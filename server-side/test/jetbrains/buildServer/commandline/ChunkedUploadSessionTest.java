@@ -0,0 +1,113 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ChunkedUploadSessionTest extends BaseTestCase {
+  private static final long MAX_LENGTH = 100000;
+
+  private File myRoot;
+  private byte[] myPatch;
+  private String myHash;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = createTempDir();
+    myPatch = new byte[10000];
+    for (int i = 0; i < myPatch.length; i++) {
+      myPatch[i] = (byte) (i * 7);
+    }
+    myHash = BlobPatchConverter.toHex(MessageDigest.getInstance("SHA-256").digest(myPatch));
+  }
+
+  public void should_assemble_chunks_in_any_order() throws Exception {
+    final ChunkedUploadSession session = ChunkedUploadSession.start(myRoot, myHash, myPatch.length, 4096, MAX_LENGTH);
+    assertEquals(3, session.getChunkCount());
+    assertEquals(10000 - 8192, session.getChunkLength(2));
+
+    write(session, 2);
+    write(session, 0);
+    assertFalse(session.isComplete());
+    assertEquals(Arrays.asList(0, 2), new ArrayList<Integer>(session.getReceivedChunks()));
+
+    // resumed
+    final ChunkedUploadSession resumed = ChunkedUploadSession.start(myRoot, myHash, myPatch.length, 4096, MAX_LENGTH);
+    assertEquals(2, resumed.getReceivedChunks().size());
+    write(resumed, 1);
+
+    assertTrue(resumed.isComplete());
+    assertTrue(Arrays.equals(myPatch, Files.readAllBytes(resumed.getPatchFile().toPath())));
+  }
+
+  public void should_restart_with_other_chunk_size() throws Exception {
+    write(ChunkedUploadSession.start(myRoot, myHash, myPatch.length, 4096, MAX_LENGTH), 0);
+    assertTrue(ChunkedUploadSession.start(myRoot, myHash, myPatch.length, 2048, MAX_LENGTH).getReceivedChunks().isEmpty());
+  }
+
+  public void should_reject_corrupted_chunk() throws Exception {
+    final ChunkedUploadSession session = ChunkedUploadSession.start(myRoot, myHash, myPatch.length, 4096, MAX_LENGTH);
+    final byte[] chunk = Arrays.copyOf(myPatch, 4096);
+    final CRC32 checksum = new CRC32();
+    checksum.update(chunk);
+    chunk[10]++;
+    try {
+      session.writeChunk(0, new ByteArrayInputStream(chunk), checksum.getValue());
+      fail("Corrupted chunk accepted");
+    } catch (IllegalArgumentException e) {
+      assertTrue(session.getReceivedChunks().isEmpty());
+    }
+  }
+
+  public void should_check_patch_hash() throws Exception {
+    final String otherHash = myHash.replace(myHash.charAt(0), myHash.charAt(0) == 'a' ? 'b' : 'a');
+    final ChunkedUploadSession session = ChunkedUploadSession.start(myRoot, otherHash, myPatch.length, 4096, MAX_LENGTH);
+    for (int i = 0; i < session.getChunkCount(); i++) {
+      write(session, i);
+    }
+    assertFalse(session.isComplete());
+  }
+
+  public void should_reject_patch_over_limit() throws Exception {
+    try {
+      ChunkedUploadSession.start(myRoot, myHash, MAX_LENGTH + 1, 4096, MAX_LENGTH);
+      fail("Patch over the limit accepted");
+    } catch (ChunkedUploadSession.PatchTooLongException e) {
+      assertEquals(0, myRoot.listFiles().length);
+    }
+  }
+
+  public void should_delete_stale_sessions_of_all_users() throws Exception {
+    final File user1 = new File(myRoot, "1");
+    final File user2 = new File(myRoot, "2");
+    final String otherHash = myHash.replace(myHash.charAt(0), myHash.charAt(0) == 'a' ? 'b' : 'a');
+    ChunkedUploadSession.start(user1, myHash, myPatch.length, 4096, MAX_LENGTH);
+    ChunkedUploadSession.start(user2, myHash, myPatch.length, 4096, MAX_LENGTH);
+    ChunkedUploadSession.start(user2, otherHash, myPatch.length, 4096, MAX_LENGTH);
+    assertTrue(new File(user1, myHash).setLastModified(System.currentTimeMillis() - 20000));
+    assertTrue(new File(user2, myHash).setLastModified(System.currentTimeMillis() - 20000));
+
+    ChunkedUploadSession.deleteStale(myRoot, 10000);
+
+    assertFalse(user1.exists());
+    assertNull(ChunkedUploadSession.open(user2, myHash));
+    assertNotNull(ChunkedUploadSession.open(user2, otherHash));
+  }
+
+  private void write(final ChunkedUploadSession session, final int index) throws Exception {
+    final byte[] chunk = Arrays.copyOfRange(myPatch, index * 4096, index * 4096 + session.getChunkLength(index));
+    final CRC32 checksum = new CRC32();
+    checksum.update(chunk);
+    session.writeChunk(index, new ByteArrayInputStream(chunk), checksum.getValue());
+  }
+}
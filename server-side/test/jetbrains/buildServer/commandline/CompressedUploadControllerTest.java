@@ -0,0 +1,128 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.BaseTestCase;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class CompressedUploadControllerTest extends BaseTestCase {
+  private static final String PATCH = "patch content";
+
+  private Mockery myContext;
+  private CompressedUploadController myController;
+  private HttpServletResponse myResponse;
+  private HttpServletRequest myForwarded;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myContext = new Mockery();
+    myController = new CompressedUploadController(null, new BlobStore(createTempDir(), 1000));
+    myResponse = myContext.mock(HttpServletResponse.class);
+    myForwarded = null;
+  }
+
+  public void should_report_capabilities() throws Exception {
+    final HttpServletRequest request = mockRequest("GET", null, new byte[0]);
+    final StringWriter body = new StringWriter();
+    myContext.checking(new Expectations() {{
+      one(myResponse).setHeader(CompressedUploadController.ENCODINGS_HEADER, "gzip");
+      one(myResponse).setHeader(CompressedUploadController.BLOBS_HEADER, "sha-256");
+      one(myResponse).setHeader(ChunkedUploadController.CHUNKS_HEADER, String.valueOf(ChunkedUploadSession.MAX_CHUNK_SIZE));
+      one(myResponse).setContentType("text/plain");
+      allowing(myResponse).getWriter(); will(returnValue(new PrintWriter(body)));
+    }});
+
+    assertNull(myController.doHandle(request, myResponse));
+
+    myContext.assertIsSatisfied();
+    assertEquals("gzip", body.toString());
+  }
+
+  public void should_forward_decompressed_patch() throws Exception {
+    final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    final OutputStream out = new GZIPOutputStream(compressed);
+    out.write(PATCH.getBytes("UTF-8"));
+    out.close();
+
+    myController.doHandle(mockRequest("POST", "gzip", compressed.toByteArray()), myResponse);
+
+    assertNotNull(myForwarded);
+    assertNull(myForwarded.getHeader(BodyRequest.CONTENT_ENCODING));
+    assertNull(myForwarded.getContentType());
+    assertEquals(-1, myForwarded.getContentLength());
+    assertEquals(PATCH, new String(MockBody.readAll(myForwarded.getInputStream()), "UTF-8"));
+  }
+
+  public void should_forward_identity_body_as_is() throws Exception {
+    final HttpServletRequest request = mockRequest("POST", "identity", PATCH.getBytes("UTF-8"));
+
+    myController.doHandle(request, myResponse);
+
+    assertSame(request, myForwarded);
+  }
+
+  public void should_reject_deflate() throws Exception {
+    myContext.checking(new Expectations() {{
+      one(myResponse).sendError(with(equal(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE)), with(any(String.class)));
+    }});
+
+    myController.doHandle(mockRequest("POST", "deflate", PATCH.getBytes("UTF-8")), myResponse);
+
+    myContext.assertIsSatisfied();
+    assertNull(myForwarded);
+  }
+
+  public void body_request_should_read_without_listener_outside_of_async_mode() throws Exception {
+    final BodyRequest request = new BodyRequest(mockRequest("POST", "gzip", new byte[0]), new ByteArrayInputStream(new byte[3]), 3);
+    assertEquals(3, request.getContentLength());
+    assertEquals("3", request.getHeader("Content-Length"));
+    assertEquals(3, MockBody.readAll(request.getInputStream()).length);
+    try {
+      request.getInputStream().setReadListener(new ReadListener() {
+        public void onDataAvailable() {
+        }
+
+        public void onAllDataRead() {
+        }
+
+        public void onError(final Throwable t) {
+        }
+      });
+      fail("Listener accepted outside of asynchronous mode");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  private HttpServletRequest mockRequest(final String method, final String encoding, final byte[] body) {
+    final HttpServletRequest request = myContext.mock(HttpServletRequest.class, method + encoding + System.identityHashCode(body));
+    final RequestDispatcher dispatcher = new RequestDispatcher() {
+      public void forward(final ServletRequest forwarded, final ServletResponse response) {
+        myForwarded = (HttpServletRequest) forwarded;
+      }
+
+      public void include(final ServletRequest included, final ServletResponse response) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    myContext.checking(new Expectations() {{
+      allowing(request).getMethod(); will(returnValue(method));
+      allowing(request).getHeader(BodyRequest.CONTENT_ENCODING); will(returnValue(encoding));
+      allowing(request).getHeader(with(any(String.class))); will(returnValue(null));
+      allowing(request).getContentType(); will(returnValue("application/octet-stream"));
+      allowing(request).getInputStream(); will(returnValue(new MockBody(body)));
+      allowing(request).getRequestDispatcher(BodyRequest.UPLOAD_PATH); will(returnValue(dispatcher));
+      allowing(request).isAsyncStarted(); will(returnValue(false));
+    }});
+    return request;
+  }
+}
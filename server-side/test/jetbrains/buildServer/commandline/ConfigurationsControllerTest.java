@@ -0,0 +1,130 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import jetbrains.buildServer.BaseWebTestCase;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.vcs.VcsClientMapping;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ConfigurationsControllerTest extends BaseWebTestCase {
+  private static final String MAPPED = "mock://rusps-app01:1666:////depot/src";
+
+  private Mockery myContext;
+  private ConfigurationsController myController;
+  private AuthorityHolder myAuthorityHolder;
+  private boolean isVisible;
+
+  @Override
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    super.setUp();
+    myContext = new Mockery();
+    final SecurityContext securityContext = myContext.mock(SecurityContext.class);
+    myAuthorityHolder = myContext.mock(AuthorityHolder.class);
+    isVisible = true;
+    myContext.checking(new Expectations() {{
+      allowing(securityContext).getAuthorityHolder(); will(returnValue(myAuthorityHolder));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject(with(any(String.class)), with(equal(Permission.VIEW_PROJECT)));
+      will(new CustomAction("visibility") {
+        public Object invoke(final Invocation invocation) {
+          return isVisible;
+        }
+      });
+    }});
+    myController = new ConfigurationsController(null, myServer.getProjectManager(), myServer.getVcsManager(), securityContext);
+
+    final List<VcsClientMapping> prefixes = new ArrayList<VcsClientMapping>();
+    PathPrefixesSupport.registerIncludeRuleVcsMappingSupport(prefixes, myServer.getVcsManager());
+    myFixture.addVcsRoot("mock", "");
+    prefixes.add(new VcsClientMapping("rusps-app01:1666:////depot/src/", ""));
+  }
+
+  public void should_resolve_external_ids() throws Exception {
+    assertEquals(myBuildType.getExternalId() + "\t" + myBuildType.getBuildTypeId() + "\t-\n",
+                 process(parameters("buildTypes", myBuildType.getExternalId() + ", unknown"), null));
+  }
+
+  public void should_resolve_project_configurations() throws Exception {
+    assertEquals(myProject.getExternalId() + "\t" + myBuildType.getBuildTypeId() + "\t-\n",
+                 process(parameters("project", myProject.getExternalId()), null));
+  }
+
+  public void should_check_applicability_by_own_mapping() throws Exception {
+    final Map<String, String> parameters = parameters("buildTypes", myBuildType.getExternalId());
+
+    assertEquals(myBuildType.getExternalId() + "\t" + myBuildType.getBuildTypeId() + "\t1\n",
+                 process(parameters, "mock://other/file.txt\n" + MAPPED + "/module/File.java\n"));
+    assertEquals(myBuildType.getExternalId() + "\t" + myBuildType.getBuildTypeId() + "\t0\n",
+                 process(parameters, "mock://other/file.txt\n" + MAPPED + "-other/File.java\n"));
+  }
+
+  public void should_not_resolve_invisible_configurations() throws Exception {
+    isVisible = false;
+    assertEquals("", process(parameters("buildTypes", myBuildType.getExternalId()), null));
+    assertEquals("", process(parameters("project", myProject.getExternalId()), null));
+  }
+
+  public void should_require_configurations() throws Exception {
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class);
+    myContext.checking(new Expectations() {{
+      one(response).sendError(with(equal(HttpServletResponse.SC_BAD_REQUEST)), with(any(String.class)));
+    }});
+
+    myController.doHandle(mockRequest(parameters(), null), response);
+
+    myContext.assertIsSatisfied();
+  }
+
+  /**
+   * @param paths posted repository paths, the request is a GET one if null
+   */
+  private String process(final Map<String, String> parameters, final String paths) throws Exception {
+    final HttpServletResponse response = myContext.mock(HttpServletResponse.class, "response" + System.nanoTime());
+    final StringWriter body = new StringWriter();
+    myContext.checking(new Expectations() {{
+      one(response).setContentType("text/plain");
+      allowing(response).getWriter(); will(returnValue(new PrintWriter(body)));
+    }});
+    myController.doHandle(mockRequest(parameters, paths), response);
+    myContext.assertIsSatisfied();
+    return body.toString();
+  }
+
+  private static Map<String, String> parameters(final String... namesAndValues) {
+    final Map<String, String> result = new HashMap<String, String>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      result.put(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return result;
+  }
+
+  private HttpServletRequest mockRequest(final Map<String, String> parameters, final String paths) throws Exception {
+    final HttpServletRequest request = myContext.mock(HttpServletRequest.class, "request" + System.nanoTime());
+    myContext.checking(new Expectations() {{
+      for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+        allowing(request).getParameter(parameter.getKey()); will(returnValue(parameter.getValue()));
+      }
+      allowing(request).getParameter(with(any(String.class))); will(returnValue(null));
+      allowing(request).getMethod(); will(returnValue(paths != null ? "POST" : "GET"));
+      allowing(request).getReader(); will(returnValue(new BufferedReader(new StringReader(paths != null ? paths : ""))));
+    }});
+    return request;
+  }
+}
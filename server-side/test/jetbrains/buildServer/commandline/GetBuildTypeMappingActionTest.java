@@ -7,6 +7,7 @@ import jetbrains.buildServer.controllers.MockRequest;
 import jetbrains.buildServer.controllers.MockResponse;
 import jetbrains.buildServer.util.XmlUtil;
 import jetbrains.buildServer.vcs.VcsClientMapping;
+import jetbrains.buildServer.vcs.impl.SVcsRootImpl;
 import org.jdom.Element;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -50,6 +51,56 @@ public class GetBuildTypeMappingActionTest extends BaseWebTestCase {
 
   }
 
+  public void should_return_settings_stamp() throws Exception {
+    myFixture.addVcsRoot("mock", "");
+    myPathPrefixes.add(new VcsClientMapping("rusps-app01:1666:////depot/src/", ""));
+
+    final Element response = new Element("response");
+    myAction.process(new MockRequest("mappingFor", myBuildType.getExternalId(), "stamp", ""), new MockResponse(), response);
+
+    final Element mapping = response.getChild("mapping");
+    final String stamp = mapping.getAttributeValue("stamp");
+    assertEquals(32, stamp.length());
+    assertEquals(1, mapping.getChildren("map").size());
+
+    final Element unchanged = new Element("response");
+    myAction.process(new MockRequest("mappingFor", myBuildType.getExternalId(), "stamp", stamp), new MockResponse(), unchanged);
+
+    assertEquals(XmlUtil.to_s(XmlUtil.from_s(
+      "<response>" +
+      "  <mapping stamp=\"" + stamp + "\" unchanged=\"true\" />" +
+      "</response>"))
+    , XmlUtil.to_s(unchanged));
+
+    myFixture.addVcsRoot("mock", "");
+    final Element changed = new Element("response");
+    myAction.process(new MockRequest("mappingFor", myBuildType.getExternalId(), "stamp", stamp), new MockResponse(), changed);
+
+    assertFalse(stamp.equals(changed.getChild("mapping").getAttributeValue("stamp")));
+    assertNull(changed.getChild("mapping").getAttributeValue("unchanged"));
+  }
+
+  public void should_return_stamp_of_empty_mapping() throws Exception {
+    final Element response = new Element("response");
+    myAction.process(new MockRequest("mappingFor", myBuildType.getExternalId(), "stamp", ""), new MockResponse(), response);
+
+    final Element mapping = response.getChild("mapping");
+    assertEquals(32, mapping.getAttributeValue("stamp").length());
+    assertEquals(0, mapping.getChildren("map").size());
+  }
+
+  public void stamp_should_not_depend_on_secure_properties() throws Exception {
+    final SVcsRootImpl root = myFixture.addVcsRoot("mock", "");
+    root.addProperty("secure:password", "secret");
+    final String stamp = new MappingGenerator(myServer.getVcsManager(), myBuildType).getSettingsStamp();
+
+    root.addProperty("secure:password", "changed");
+    assertEquals(stamp, new MappingGenerator(myServer.getVcsManager(), myBuildType).getSettingsStamp());
+
+    root.addProperty("url", "changed");
+    assertFalse(stamp.equals(new MappingGenerator(myServer.getVcsManager(), myBuildType).getSettingsStamp()));
+  }
+
   @Override
   @BeforeMethod
   protected void setUp() throws Exception {
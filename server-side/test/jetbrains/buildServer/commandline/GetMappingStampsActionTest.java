@@ -0,0 +1,44 @@
+package jetbrains.buildServer.commandline;
+
+import jetbrains.buildServer.BaseWebTestCase;
+import jetbrains.buildServer.controllers.MockRequest;
+import jetbrains.buildServer.controllers.MockResponse;
+import jetbrains.buildServer.serverSide.SBuildType;
+import org.jdom.Element;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class GetMappingStampsActionTest extends BaseWebTestCase {
+  private GetMappingStampsAction myAction;
+
+  public void should_process_only_stamps_request() throws Exception {
+    assertFalse(myAction.canProcess(new MockRequest()));
+    assertFalse(myAction.canProcess(new MockRequest("mappingFor", "bt11")));
+    assertTrue(myAction.canProcess(new MockRequest("mappingStampsFor", "bt11")));
+  }
+
+  public void should_return_stamps_of_known_build_types() throws Exception {
+    myFixture.addVcsRoot("mock", "");
+    final SBuildType other = myProject.createBuildType("other", "other");
+
+    final Element response = new Element("response");
+    myAction.process(new MockRequest("mappingStampsFor", myBuildType.getExternalId() + ",unknown," + other.getExternalId()), new MockResponse(), response);
+
+    final Element stamps = response.getChild("stamps");
+    assertEquals(2, stamps.getChildren("stamp").size());
+    final Element first = (Element) stamps.getChildren("stamp").get(0);
+    assertEquals(myBuildType.getExternalId(), first.getAttributeValue("buildType"));
+    assertEquals(new MappingGenerator(myServer.getVcsManager(), myBuildType).getSettingsStamp(), first.getAttributeValue("value"));
+    final Element second = (Element) stamps.getChildren("stamp").get(1);
+    assertEquals(other.getExternalId(), second.getAttributeValue("buildType"));
+    assertFalse(first.getAttributeValue("value").equals(second.getAttributeValue("value")));
+  }
+
+  @Override
+  @BeforeMethod
+  protected void setUp() throws Exception {
+    super.setUp();
+    myAction = new GetMappingStampsAction(myServer.getProjectManager(), myServer.getVcsManager(), null);
+  }
+}
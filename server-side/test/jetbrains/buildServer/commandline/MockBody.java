@@ -0,0 +1,46 @@
+package jetbrains.buildServer.commandline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Request body for mocked servlet requests
+ */
+class MockBody extends ServletInputStream {
+  private final InputStream myBody;
+
+  MockBody(final byte[] body) {
+    myBody = new ByteArrayInputStream(body);
+  }
+
+  @Override
+  public int read() throws IOException {
+    return myBody.read();
+  }
+
+  public boolean isFinished() {
+    return myBody.available() == 0;
+  }
+
+  public boolean isReady() {
+    return true;
+  }
+
+  public void setReadListener(final ReadListener readListener) {
+    throw new IllegalStateException();
+  }
+
+  static byte[] readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}